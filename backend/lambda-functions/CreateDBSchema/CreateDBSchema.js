@@ -5,18 +5,25 @@ const dbConfig = require('data-api-client')({
     database: process.env.DatabaseName
 });
 
+// Also run by the upgrade of databases created before these tables
+const webauthnCredentialsTableSql = 'CREATE TABLE IF NOT EXISTS webauthnCredentials (credentialId VARCHAR(1366) CHARACTER SET ascii COLLATE ascii_bin NOT NULL, userHandle VARCHAR(86) CHARACTER SET ascii COLLATE ascii_bin NOT NULL, username VARCHAR(255) NOT NULL, publicKeyCose TEXT CHARACTER SET ascii NOT NULL, signatureCount BIGINT NOT NULL DEFAULT 0, registrationTime BIGINT, lastUsedTime BIGINT, lastUpdatedTime BIGINT, registration TEXT, transports VARCHAR(255) CHARACTER SET ascii, PRIMARY KEY (credentialId), INDEX (userHandle), INDEX (username), INDEX (registrationTime));';
+const authenticatorIconsTableSql = 'CREATE TABLE IF NOT EXISTS authenticatorIcons (aaguid CHAR(36) CHARACTER SET ascii NOT NULL, icon MEDIUMTEXT NOT NULL, PRIMARY KEY (aaguid));';
+
 exports.handler = async (event) => { 
     
     console.log('RECEIVED event: ', JSON.stringify(event, null, 2));
+    if (event && event.type === 'upgrade') {
+        return upgrade();
+    }
     const response = {
         statusCode: 200,
         body: JSON.stringify('Successfully created database resources'),
     };
     
     var userTableSql = 'CREATE TABLE user (id INT NOT NULL AUTO_INCREMENT, cognito_id NVARCHAR(50) NOT NULL UNIQUE, userName NVARCHAR(50) NOT NULL UNIQUE, email NVARCHAR(50), phoneNumber NVARCHAR(25), displayName NVARCHAR(25), registrationDate DATETIME DEFAULT CURRENT_TIMESTAMP, lastUpdatedDate DATETIME DEFAULT CURRENT_TIMESTAMP ON UPDATE CURRENT_TIMESTAMP, lastLoginDate DATETIME, challenge TEXT, PRIMARY KEY (id));';
-    var registrationRequestsTableSql = 'CREATE TABLE registrationRequests (_key TEXT, _value TEXT, creationDate DATETIME DEFAULT CURRENT_TIMESTAMP, lastUpdatedDate DATETIME DEFAULT CURRENT_TIMESTAMP ON UPDATE CURRENT_TIMESTAMP);';
+    var registrationRequestsTableSql = 'CREATE TABLE registrationRequests (_key TEXT, _value TEXT, creationDate DATETIME DEFAULT CURRENT_TIMESTAMP, lastUpdatedDate DATETIME DEFAULT CURRENT_TIMESTAMP ON UPDATE CURRENT_TIMESTAMP, INDEX (creationDate));';
     var credentialRegistrationsTableSql = 'CREATE TABLE credentialRegistrations (username TEXT, userHandle TEXT, credentialId NVARCHAR(1023), registration TEXT, creationDate DATETIME DEFAULT CURRENT_TIMESTAMP, lastUsedDate DATETIME, lastUpdatedDate DATETIME DEFAULT CURRENT_TIMESTAMP ON UPDATE CURRENT_TIMESTAMP, active BOOL DEFAULT TRUE);';
-    var assertionRequestsTableSql = 'CREATE TABLE assertionRequests (_key TEXT, _value TEXT, creationDate DATETIME DEFAULT CURRENT_TIMESTAMP, lastUpdatedDate DATETIME DEFAULT CURRENT_TIMESTAMP ON UPDATE CURRENT_TIMESTAMP);';
+    var assertionRequestsTableSql = 'CREATE TABLE assertionRequests (_key TEXT, _value TEXT, creationDate DATETIME DEFAULT CURRENT_TIMESTAMP, lastUpdatedDate DATETIME DEFAULT CURRENT_TIMESTAMP ON UPDATE CURRENT_TIMESTAMP, INDEX (creationDate));';
     var serverVerifiedPinTableSql = 'CREATE TABLE serverVerifiedPin (pinId INT NOT NULL AUTO_INCREMENT, pinCode TEXT NOT NULL, user_id INT NOT NULL UNIQUE, creationDate DATETIME DEFAULT CURRENT_TIMESTAMP, lastUpdatedDate DATETIME DEFAULT CURRENT_TIMESTAMP ON UPDATE CURRENT_TIMESTAMP, counter INT, counterResetTime BIGINT, PRIMARY KEY (pinId));';
     // Add foreign key and CASCADE DELETE to the serverVerifiedPin table
     var addServerVerifiedPinFK = 'ALTER TABLE serverVerifiedPin ADD FOREIGN KEY (user_id) REFERENCES user(id) ON DELETE CASCADE;';
@@ -31,25 +38,28 @@ exports.handler = async (event) => {
             console.log('Created [registrationRequests] table successfully');
             if(await createTables(credentialRegistrationsTableSql)){
                 console.log('Created [credentialRegistrations] table successfully');
-                if(await createTables(assertionRequestsTableSql)){
-                    console.log('Created [assertionRequests] table successfully');
-                    if(await createTables(serverVerifiedPinTableSql)){
-                        console.log('Created [serverVerifiedPin] table successfully');
-                        if(await createTables(addServerVerifiedPinFK)){
-                            console.log('Added foreign key to serverVerifiedPin table successfully');
-                            if(await createTables(recoveryCodesTableSql)){
-                                console.log('Created [recoveryCodes] table successfully');
-                                if(await createTables(addRecoveryCodesFK)){
-                                    console.log('Added foreign key to recoveryCodes table successfully');
-                                        if(await createTables(showTablesSql)){
-                                            console.log('Completed database schema creation');
-                                            return response;
-                                        } else {console.log('Failed to execute show tables');}
-                                } else {console.log('Failed to create FK on recoveryCodes table');}
-                            } else {console.log('Failed to create recoveryCodes table');}
-                        } else {console.log('Failed to execute serverVerifiedPin FK');}
-                    } else {console.log('Failed to create [serverVerifiedPin] table');}
-                } else {console.log('Failed to create [assertionRequests] table');}
+                if(await createTables(webauthnCredentialsTableSql) && await createTables(authenticatorIconsTableSql)){
+                    console.log('Created [webauthnCredentials] and [authenticatorIcons] tables successfully');
+                    if(await createTables(assertionRequestsTableSql)){
+                        console.log('Created [assertionRequests] table successfully');
+                        if(await createTables(serverVerifiedPinTableSql)){
+                            console.log('Created [serverVerifiedPin] table successfully');
+                            if(await createTables(addServerVerifiedPinFK)){
+                                console.log('Added foreign key to serverVerifiedPin table successfully');
+                                if(await createTables(recoveryCodesTableSql)){
+                                    console.log('Created [recoveryCodes] table successfully');
+                                    if(await createTables(addRecoveryCodesFK)){
+                                        console.log('Added foreign key to recoveryCodes table successfully');
+                                            if(await createTables(showTablesSql)){
+                                                console.log('Completed database schema creation');
+                                                return response;
+                                            } else {console.log('Failed to execute show tables');}
+                                    } else {console.log('Failed to create FK on recoveryCodes table');}
+                                } else {console.log('Failed to create recoveryCodes table');}
+                            } else {console.log('Failed to execute serverVerifiedPin FK');}
+                        } else {console.log('Failed to create [serverVerifiedPin] table');}
+                    } else {console.log('Failed to create [assertionRequests] table');}
+                } else {console.log('Failed to create [webauthnCredentials] or [authenticatorIcons] table');}
             } else {console.log('Failed to create [credentialRegistrations] table');}
         } else {console.log('Failed to create [registrationRequests] table');}
     } else {console.log('Failed to create [user] table');}
@@ -62,6 +72,43 @@ exports.handler = async (event) => {
     return response;
 };
 
+// Brings a database created by an earlier version up to date. Each step
+// checks whether it is needed, so the upgrade can be run again.
+async function upgrade() {
+    try {
+        await createTables(webauthnCredentialsTableSql);
+        console.log('Created [webauthnCredentials] table if missing');
+        await createTables(authenticatorIconsTableSql);
+        console.log('Created [authenticatorIcons] table if missing');
+        await addIndexIfMissing('registrationRequests', 'creationDate');
+        await addIndexIfMissing('assertionRequests', 'creationDate');
+        console.log('Completed database schema upgrade');
+        return {
+            statusCode: 200,
+            body: JSON.stringify('Successfully upgraded database resources'),
+        };
+    } catch (err) {
+        console.log('Failed to upgrade database schema: ', err);
+        return {
+            statusCode: 500,
+            body: JSON.stringify('Failed to upgrade database resources'),
+        };
+    }
+}
+
+// MySQL has no ADD INDEX IF NOT EXISTS
+async function addIndexIfMissing(table, column) {
+    let result = await dbConfig.query(
+        'SELECT COUNT(*) AS indexes FROM information_schema.statistics WHERE table_schema = DATABASE() AND table_name = :table AND column_name = :column;',
+        { table: table, column: column });
+    if (result.records[0].indexes > 0) {
+        console.log('Index on [' + table + '.' + column + '] already exists');
+        return;
+    }
+    await createTables('ALTER TABLE ' + table + ' ADD INDEX (' + column + ');');
+    console.log('Added index on [' + table + '.' + column + ']');
+}
+
 // Create database assets
 async function createTables(sqlStatement) {
     console.log('Creating db asset: ' + sqlStatement);
@@ -0,0 +1,97 @@
+package com.yubicolabs;
+
+import com.yubico.fido.metadata.AAGUID;
+import com.yubico.fido.metadata.FidoMetadataService;
+import com.yubico.fido.metadata.MetadataBLOBPayloadEntry;
+import com.yubico.webauthn.FinishRegistrationOptions;
+import com.yubico.webauthn.RegistrationResult;
+import com.yubico.webauthn.RelyingParty;
+import com.yubico.webauthn.StartRegistrationOptions;
+import com.yubico.webauthn.data.ByteArray;
+import com.yubico.webauthn.data.PublicKeyCredentialCreationOptions;
+import com.yubico.webauthn.data.RelyingPartyIdentity;
+import com.yubico.webauthn.data.UserIdentity;
+import com.yubicolabs.data.AttestationRegistration;
+import com.yubicolabs.data.RegistrationResponse;
+import java.util.Collections;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+
+/**
+ * Metadata lookups made by finishRegistration for the registered
+ * authenticator's AAGUID, against direct queries of the metadata service.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 2, jvmArgsAppend = "-Dlog4j2.configurationFile=log4j2-benchmarks.xml")
+@State(Scope.Benchmark)
+public class AttestationBenchmarks {
+
+    private App app;
+    private FidoMetadataService mds;
+    private RegistrationResult result;
+    private AAGUID aaguid;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        app = Fixtures.newApp();
+        mds = FidoMetadataService.builder().useBlob(Fixtures.blob()).build();
+
+        RelyingParty rp = RelyingParty.builder()
+            .identity(RelyingPartyIdentity.builder().id(Fixtures.RP_ID).name("WebAuthnKit Benchmarks").build())
+            .credentialRepository(new InMemoryRegistrationStorage())
+            .origins(Collections.singleton(Fixtures.ORIGIN))
+            .attestationTrustSource(mds)
+            .allowUntrustedAttestation(true)
+            .build();
+
+        PublicKeyCredentialCreationOptions options = rp.startRegistration(StartRegistrationOptions.builder()
+            .user(UserIdentity.builder()
+                .name("attestation")
+                .displayName("attestation")
+                .id(new ByteArray(new byte[32]))
+                .build())
+            .build());
+
+        SoftwareAuthenticator authenticator = new SoftwareAuthenticator(Fixtures.RP_ID, Fixtures.ORIGIN);
+        String payload = authenticator.register(new ByteArray(new byte[32]), options.getChallenge()).toString();
+        RegistrationResponse response = Codecs.REGISTRATION_RESPONSE.readValue(payload);
+
+        result = rp.finishRegistration(FinishRegistrationOptions.builder()
+            .request(options)
+            .response(response.getCredential())
+            .build());
+        aaguid = new AAGUID(SoftwareAuthenticator.AAGUID);
+    }
+
+    @Benchmark
+    public Optional<AttestationRegistration> buildAttestationResult() {
+        return app.buildAttestationResult(result);
+    }
+
+    @Benchmark
+    public Set<MetadataBLOBPayloadEntry> findEntriesByResult() {
+        return mds.findEntries(result);
+    }
+
+    @Benchmark
+    public Set<MetadataBLOBPayloadEntry> findEntriesByAaguid() {
+        return mds.findEntries(aaguid);
+    }
+
+}
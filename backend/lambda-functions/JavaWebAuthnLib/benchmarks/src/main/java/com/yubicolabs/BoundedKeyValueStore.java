@@ -0,0 +1,47 @@
+package com.yubicolabs;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import java.time.Duration;
+import java.util.Optional;
+
+
+/**
+ * Size-bounded {@link KeyValueStore}, so that benchmarks which only start
+ * ceremonies do not grow the heap for the length of the request TTL. Entries
+ * do not expire individually; the TTL is ignored.
+ */
+class BoundedKeyValueStore implements KeyValueStore {
+
+    private final Cache<String, String> entries;
+
+    BoundedKeyValueStore(long maximumSize) {
+        this.entries = CacheBuilder.newBuilder().maximumSize(maximumSize).build();
+    }
+
+    @Override
+    public Optional<String> get(String key) {
+        return Optional.ofNullable(entries.getIfPresent(key));
+    }
+
+    @Override
+    public void put(String key, String value, Duration ttl) {
+        entries.put(key, value);
+    }
+
+    @Override
+    public boolean putIfAbsent(String key, String value, Duration ttl) {
+        return entries.asMap().putIfAbsent(key, value) == null;
+    }
+
+    @Override
+    public void delete(String key) {
+        entries.invalidate(key);
+    }
+
+    @Override
+    public Optional<String> take(String key) {
+        return Optional.ofNullable(entries.asMap().remove(key));
+    }
+
+}
@@ -0,0 +1,121 @@
+package com.yubicolabs;
+
+import com.google.gson.JsonObject;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+
+/**
+ * The four ceremony handlers, called through {@link App#handleRequest} with the
+ * payloads the Node functions send. Storage is in memory, so these measure
+ * the function's own CPU and allocation cost per call.
+ */
+@BenchmarkMode({Mode.AverageTime, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 2, jvmArgsAppend = "-Dlog4j2.configurationFile=log4j2-benchmarks.xml")
+public class CeremonyBenchmarks {
+
+    @State(Scope.Benchmark)
+    public static class Registered {
+        App app;
+        String username;
+        SoftwareAuthenticator authenticator;
+
+        @Setup(Level.Trial)
+        public void setUp() throws Exception {
+            app = Fixtures.newApp();
+            username = Fixtures.nextUsername();
+            authenticator = Fixtures.register(app, username);
+        }
+    }
+
+    /**
+     * A started registration for a new user, so that each invocation of the
+     * benchmark finishes a fresh ceremony.
+     */
+    @State(Scope.Thread)
+    public static class PendingRegistration {
+        App app;
+        String payload;
+
+        @Setup(Level.Trial)
+        public void setUpApp() {
+            app = Fixtures.newApp();
+        }
+
+        @Setup(Level.Invocation)
+        public void setUp() throws Exception {
+            String username = Fixtures.nextUsername();
+            JsonObject start = Fixtures.parse(app.handleRequest(Fixtures.startRegistration(username), null));
+            payload = new SoftwareAuthenticator(Fixtures.RP_ID, Fixtures.ORIGIN).register(
+                Fixtures.bytes(start, "requestId"),
+                Fixtures.bytes(start, "publicKeyCredentialCreationOptions", "challenge")).toString();
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class PendingAuthentication {
+        App app;
+        String username;
+        SoftwareAuthenticator authenticator;
+        String payload;
+
+        @Setup(Level.Trial)
+        public void setUpApp() throws Exception {
+            app = Fixtures.newApp();
+            username = Fixtures.nextUsername();
+            authenticator = Fixtures.register(app, username);
+        }
+
+        @Setup(Level.Invocation)
+        public void setUp() throws Exception {
+            JsonObject start = Fixtures.parse(app.handleRequest(Fixtures.startAuthentication(username), null));
+            payload = authenticator.authenticate(
+                Fixtures.bytes(start, "requestId"),
+                Fixtures.bytes(start, "request", "publicKeyCredentialRequestOptions", "challenge")).toString();
+        }
+    }
+
+    @Benchmark
+    public Object startRegistration(Registered state) {
+        return state.app.handleRequest(Fixtures.startRegistration(Fixtures.nextUsername()), null);
+    }
+
+    @Benchmark
+    public Object finishRegistration(PendingRegistration state) {
+        return check(state.app.handleRequest(state.payload, null));
+    }
+
+    @Benchmark
+    public Object startAuthentication(Registered state) {
+        return state.app.handleRequest(Fixtures.startAuthentication(state.username), null);
+    }
+
+    @Benchmark
+    public Object finishAuthentication(PendingAuthentication state) {
+        return check(state.app.handleRequest(state.payload, null));
+    }
+
+    /**
+     * A failing ceremony returns early and would make the numbers look good.
+     */
+    private static Object check(Object result) {
+        if (result instanceof Exception) {
+            throw new IllegalStateException("Ceremony failed", (Exception) result);
+        }
+        return result;
+    }
+
+}
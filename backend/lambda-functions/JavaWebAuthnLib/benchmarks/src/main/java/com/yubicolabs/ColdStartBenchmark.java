@@ -0,0 +1,39 @@
+package com.yubicolabs;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+
+
+/**
+ * First calls in a fresh JVM: building the {@link App} and serving one
+ * registration, which is what a cold Lambda container pays before its first
+ * response. Each fork measures exactly one cold start.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 0)
+@Measurement(iterations = 1)
+@Fork(value = 10, jvmArgsAppend = "-Dlog4j2.configurationFile=log4j2-benchmarks.xml")
+public class ColdStartBenchmark {
+
+    @Benchmark
+    public Object firstRegistration() throws Exception {
+        App app = Fixtures.newApp();
+        return Fixtures.register(app, Fixtures.nextUsername());
+    }
+
+    /** The same, after the work done before a SnapStart snapshot. */
+    @Benchmark
+    public Object firstRegistrationAfterPrime() throws Exception {
+        App app = Fixtures.newApp();
+        app.prime();
+        return Fixtures.register(app, Fixtures.nextUsername());
+    }
+
+}
@@ -0,0 +1,128 @@
+package com.yubicolabs;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonObject;
+import com.yubico.fido.metadata.MetadataBLOB;
+import com.yubico.webauthn.data.ByteArray;
+import com.yubico.webauthn.data.RelyingPartyIdentity;
+import com.yubicolabs.data.AssertionRequestWrapper;
+import com.yubicolabs.data.RegistrationRequest;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/**
+ * Shared setup for the benchmarks: an {@link App} with in-memory storage and
+ * helpers for building and reading handler payloads.
+ */
+final class Fixtures {
+
+    static final String RP_ID = "localhost";
+    static final String ORIGIN = "https://localhost";
+
+    private static final Gson gson = new Gson();
+    private static final AtomicLong users = new AtomicLong();
+
+    private static volatile MetadataBLOB blob;
+
+    private Fixtures() {
+    }
+
+    /**
+     * The metadata BLOB is downloaded once and then read from the cache files
+     * under /tmp, as in the function.
+     */
+    static MetadataBLOB blob() {
+        if (blob == null) {
+            synchronized (Fixtures.class) {
+                if (blob == null) {
+                    try {
+                        blob = RefreshingMetadataService.download();
+                    } catch (Exception e) {
+                        throw new IllegalStateException("Could not load the FIDO metadata BLOB", e);
+                    }
+                }
+            }
+        }
+        return blob;
+    }
+
+    static App newApp() {
+        return newApp(new InMemoryRegistrationStorage());
+    }
+
+    static App newApp(RegistrationStorage userStorage) {
+        Duration ttl = Duration.ofMinutes(5);
+        return new App(
+            userStorage,
+            new KeyValueRequestStorage<>(new BoundedKeyValueStore(10_000), "assertionRequests",
+                AssertionRequestWrapper.class, ttl),
+            new KeyValueRequestStorage<>(new BoundedKeyValueStore(10_000), "registrationRequests",
+                RegistrationRequest.class, ttl),
+            RefreshingMetadataService.of(blob()),
+            RelyingPartyIdentity.builder().id(RP_ID).name("WebAuthnKit Benchmarks").build(),
+            Collections.singleton(ORIGIN));
+    }
+
+    static String nextUsername() {
+        return "user" + users.incrementAndGet();
+    }
+
+    static String startRegistration(String username) {
+        JsonObject request = new JsonObject();
+        request.addProperty("type", "startRegistration");
+        request.addProperty("username", username);
+        request.addProperty("displayName", username);
+        request.addProperty("requireResidentKey", false);
+        request.addProperty("uid", new ByteArray(username.getBytes()).getBase64Url());
+        return request.toString();
+    }
+
+    static String startAuthentication(String username) {
+        JsonObject request = new JsonObject();
+        request.addProperty("type", "startAuthentication");
+        request.addProperty("username", username);
+        return request.toString();
+    }
+
+    /**
+     * Handler responses are JSON strings, with byte arrays serialized by Gson
+     * as <code>{"base64url": "..."}</code>.
+     */
+    static JsonObject parse(Object response) {
+        if (!(response instanceof String)) {
+            throw new IllegalStateException("Unexpected handler response: " + response);
+        }
+        return gson.fromJson((String) response, JsonObject.class);
+    }
+
+    static ByteArray bytes(JsonObject object, String... path) {
+        JsonObject current = object;
+        for (String name : path) {
+            current = current.getAsJsonObject(name);
+        }
+        try {
+            return ByteArray.fromBase64Url(current.get("base64url").getAsString());
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Registers a new software authenticator for the given user through the
+     * handler.
+     */
+    static SoftwareAuthenticator register(App app, String username) throws Exception {
+        SoftwareAuthenticator authenticator = new SoftwareAuthenticator(RP_ID, ORIGIN);
+        JsonObject start = parse(app.handleRequest(startRegistration(username), null));
+        Object result = app.handleRequest(authenticator.register(
+            bytes(start, "requestId"),
+            bytes(start, "publicKeyCredentialCreationOptions", "challenge")).toString(), null);
+        if (result instanceof Exception) {
+            throw (Exception) result;
+        }
+        return authenticator;
+    }
+
+}
@@ -0,0 +1,118 @@
+package com.yubicolabs;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.gson.Gson;
+import com.yubico.webauthn.AssertionRequest;
+import com.yubicolabs.data.AssertionRequestWrapper;
+import com.yubicolabs.data.CredentialRegistration;
+import com.yubicolabs.data.RegistrationRequest;
+import com.yubicolabs.data.RegistrationResponse;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+
+/**
+ * The (de)serialization done per call: requests and registrations stored as
+ * Gson JSON, and the Jackson round trips of the library types.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 2, jvmArgsAppend = "-Dlog4j2.configurationFile=log4j2-benchmarks.xml")
+@State(Scope.Benchmark)
+public class SerializationBenchmarks {
+
+    private final Gson gson = Codecs.gson();
+    private final ObjectMapper jsonMapper = Codecs.json();
+
+    private RegistrationRequest registrationRequest;
+    private String registrationRequestJson;
+    private AssertionRequestWrapper assertionRequest;
+    private String assertionRequestJson;
+    private String assertionRequestLibraryJson;
+    private CredentialRegistration registration;
+    private String registrationJson;
+    private String finishRegistrationEvent;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        InMemoryRegistrationStorage storage = new InMemoryRegistrationStorage();
+        App app = Fixtures.newApp(storage);
+        String username = Fixtures.nextUsername();
+        Fixtures.register(app, username);
+        registration = storage.getRegistrationsByUsername(username).iterator().next();
+        registrationJson = gson.toJson(registration);
+
+        registrationRequest = gson.fromJson(
+            (String) app.handleRequest(Fixtures.startRegistration(username), null), RegistrationRequest.class);
+        registrationRequestJson = gson.toJson(registrationRequest);
+        finishRegistrationEvent = new SoftwareAuthenticator(Fixtures.RP_ID, Fixtures.ORIGIN)
+            .register(registrationRequest.getRequestId(),
+                registrationRequest.getPublicKeyCredentialCreationOptions().getChallenge())
+            .toString();
+
+        assertionRequest = gson.fromJson(
+            (String) app.handleRequest(Fixtures.startAuthentication(username), null), AssertionRequestWrapper.class);
+        assertionRequestJson = gson.toJson(assertionRequest);
+        assertionRequestLibraryJson = assertionRequest.getRequest().toJson();
+    }
+
+    @Benchmark
+    public String writeRegistrationRequest() {
+        return Codecs.REGISTRATION_REQUEST.write(registrationRequest);
+    }
+
+    @Benchmark
+    public RegistrationRequest readRegistrationRequest() {
+        return Codecs.REGISTRATION_REQUEST.read(registrationRequestJson);
+    }
+
+    /** Baseline for the codec: type adapter looked up per call. */
+    @Benchmark
+    public RegistrationRequest readRegistrationRequestWithGson() {
+        return gson.fromJson(registrationRequestJson, RegistrationRequest.class);
+    }
+
+    /** How the handler reads a finishRegistration event: one tree, then binding. */
+    @Benchmark
+    public RegistrationResponse readFinishRegistrationEvent() throws Exception {
+        return Codecs.REGISTRATION_RESPONSE.readValue(jsonMapper.readTree(finishRegistrationEvent));
+    }
+
+    @Benchmark
+    public String writeAssertionRequest() {
+        return Codecs.ASSERTION_REQUEST.write(assertionRequest);
+    }
+
+    @Benchmark
+    public AssertionRequestWrapper readAssertionRequest() {
+        return Codecs.ASSERTION_REQUEST.read(assertionRequestJson);
+    }
+
+    @Benchmark
+    public AssertionRequest readAssertionRequestWithJackson() throws Exception {
+        return jsonMapper.readValue(assertionRequestLibraryJson, AssertionRequest.class);
+    }
+
+    @Benchmark
+    public String writeCredentialRegistration() {
+        return Codecs.CREDENTIAL_REGISTRATION.write(registration);
+    }
+
+    @Benchmark
+    public CredentialRegistration readCredentialRegistration() {
+        return Codecs.CREDENTIAL_REGISTRATION.read(registrationJson);
+    }
+
+}
@@ -0,0 +1,163 @@
+package com.yubicolabs;
+
+import com.google.gson.JsonObject;
+import com.upokecenter.cbor.CBORObject;
+import com.yubico.webauthn.data.ByteArray;
+import java.io.ByteArrayOutputStream;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.security.Signature;
+import java.security.interfaces.ECPublicKey;
+import java.security.spec.ECGenParameterSpec;
+
+
+/**
+ * Minimal ES256 authenticator with "none" attestation, producing the JSON the
+ * Node callers send for finishRegistration and finishAuthentication.
+ */
+class SoftwareAuthenticator {
+
+    /** AAGUID of a YubiKey 5 NFC, so that metadata lookups find an entry. */
+    static final ByteArray AAGUID = ByteArray.fromHex("cb69481e8ff7403993ec0a2729a154a8");
+
+    private static final SecureRandom random = new SecureRandom();
+
+    private final String rpId;
+    private final String origin;
+    private final KeyPair keyPair;
+    private final ByteArray credentialId;
+    private int signatureCount = 0;
+
+    SoftwareAuthenticator(String rpId, String origin) throws GeneralSecurityException {
+        this.rpId = rpId;
+        this.origin = origin;
+
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("EC");
+        generator.initialize(new ECGenParameterSpec("secp256r1"));
+        this.keyPair = generator.generateKeyPair();
+
+        byte[] id = new byte[32];
+        random.nextBytes(id);
+        this.credentialId = new ByteArray(id);
+    }
+
+    ByteArray getCredentialId() {
+        return credentialId;
+    }
+
+    /**
+     * @return a finishRegistration request for the given start response
+     */
+    JsonObject register(ByteArray requestId, ByteArray challenge) throws GeneralSecurityException {
+        byte[] clientDataJson = clientData("webauthn.create", challenge);
+
+        ByteArrayOutputStream authData = new ByteArrayOutputStream();
+        authData.write(rpIdHash(), 0, 32);
+        authData.write(0x45); // UP, UV, AT
+        authData.write(counter(), 0, 4);
+        authData.write(AAGUID.getBytes(), 0, 16);
+        authData.write(credentialId.size() >> 8);
+        authData.write(credentialId.size() & 0xff);
+        authData.write(credentialId.getBytes(), 0, credentialId.size());
+        byte[] cosePublicKey = cosePublicKey();
+        authData.write(cosePublicKey, 0, cosePublicKey.length);
+
+        byte[] attestationObject = CBORObject.NewMap()
+            .Add("fmt", "none")
+            .Add("attStmt", CBORObject.NewMap())
+            .Add("authData", authData.toByteArray())
+            .EncodeToBytes();
+
+        JsonObject response = new JsonObject();
+        response.addProperty("clientDataJSON", new ByteArray(clientDataJson).getBase64Url());
+        response.addProperty("attestationObject", new ByteArray(attestationObject).getBase64Url());
+        return request("finishRegistration", requestId, response);
+    }
+
+    /**
+     * @return a finishAuthentication request for the given start response
+     */
+    JsonObject authenticate(ByteArray requestId, ByteArray challenge) throws GeneralSecurityException {
+        byte[] clientDataJson = clientData("webauthn.get", challenge);
+
+        signatureCount++;
+        byte[] authData = ByteBuffer.allocate(37)
+            .put(rpIdHash())
+            .put((byte) 0x05) // UP, UV
+            .put(counter())
+            .array();
+
+        Signature signer = Signature.getInstance("SHA256withECDSA");
+        signer.initSign(keyPair.getPrivate());
+        signer.update(authData);
+        signer.update(sha256(clientDataJson));
+
+        JsonObject response = new JsonObject();
+        response.addProperty("clientDataJSON", new ByteArray(clientDataJson).getBase64Url());
+        response.addProperty("authenticatorData", new ByteArray(authData).getBase64Url());
+        response.addProperty("signature", new ByteArray(signer.sign()).getBase64Url());
+        return request("finishAuthentication", requestId, response);
+    }
+
+    private JsonObject request(String type, ByteArray requestId, JsonObject response) {
+        JsonObject credential = new JsonObject();
+        credential.addProperty("type", "public-key");
+        credential.addProperty("id", credentialId.getBase64Url());
+        credential.addProperty("rawId", credentialId.getBase64Url());
+        credential.add("response", response);
+        credential.add("clientExtensionResults", new JsonObject());
+
+        JsonObject request = new JsonObject();
+        request.addProperty("type", type);
+        request.addProperty("requestId", requestId.getBase64Url());
+        request.add("credential", credential);
+        return request;
+    }
+
+    private byte[] clientData(String type, ByteArray challenge) {
+        JsonObject clientData = new JsonObject();
+        clientData.addProperty("type", type);
+        clientData.addProperty("challenge", challenge.getBase64Url());
+        clientData.addProperty("origin", origin);
+        clientData.addProperty("crossOrigin", false);
+        return clientData.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private byte[] counter() {
+        return ByteBuffer.allocate(4).putInt(signatureCount).array();
+    }
+
+    private byte[] rpIdHash() throws GeneralSecurityException {
+        return sha256(rpId.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private byte[] cosePublicKey() {
+        ECPublicKey publicKey = (ECPublicKey) keyPair.getPublic();
+        return CBORObject.NewMap()
+            .Add(1, 2) // kty: EC2
+            .Add(3, -7) // alg: ES256
+            .Add(-1, 1) // crv: P-256
+            .Add(-2, coordinate(publicKey.getW().getAffineX()))
+            .Add(-3, coordinate(publicKey.getW().getAffineY()))
+            .EncodeToBytes();
+    }
+
+    private static byte[] coordinate(BigInteger value) {
+        byte[] bytes = value.toByteArray();
+        byte[] result = new byte[32];
+        int length = Math.min(bytes.length, 32);
+        System.arraycopy(bytes, bytes.length - length, result, 32 - length, length);
+        return result;
+    }
+
+    private static byte[] sha256(byte[] data) throws GeneralSecurityException {
+        return MessageDigest.getInstance("SHA-256").digest(data);
+    }
+
+}
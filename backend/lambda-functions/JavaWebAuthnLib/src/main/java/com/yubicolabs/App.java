@@ -1,23 +1,17 @@
 package com.yubicolabs;
 
+import com.amazonaws.auth.DefaultAWSCredentialsProviderChain;
 import com.amazonaws.services.lambda.runtime.Context;
 import com.amazonaws.services.lambda.runtime.RequestHandler;
-import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
-import com.google.common.io.Closeables;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.google.common.base.Suppliers;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.google.gson.Gson;
-import com.google.gson.GsonBuilder;
-import com.google.gson.JsonElement;
-import com.google.gson.JsonObject;
-import com.google.gson.JsonSyntaxException;
-import com.yubico.fido.metadata.AAGUID;
-import com.yubico.fido.metadata.AAID;
-import com.yubico.fido.metadata.AttachmentHint;
-import com.yubico.fido.metadata.AuthenticatorGetInfo;
-import com.yubico.fido.metadata.FidoMetadataDownloader;
-import com.yubico.fido.metadata.FidoMetadataService;
-import com.yubico.fido.metadata.MetadataBLOB;
-import com.yubico.internal.util.JacksonCodecs;
+import com.yubico.webauthn.AssertionRequest;
 import com.yubico.webauthn.AssertionResult;
 import com.yubico.webauthn.FinishAssertionOptions;
 import com.yubico.webauthn.FinishRegistrationOptions;
@@ -28,9 +22,12 @@ import com.yubico.webauthn.StartAssertionOptions;
 import com.yubico.webauthn.StartRegistrationOptions;
 import com.yubico.webauthn.data.AttestationConveyancePreference;
 import com.yubico.webauthn.data.AuthenticatorSelectionCriteria;
-import com.yubico.webauthn.data.AuthenticatorTransport;
 import com.yubico.webauthn.data.ByteArray;
+import com.yubico.webauthn.data.PublicKeyCredentialCreationOptions;
 import com.yubico.webauthn.data.PublicKeyCredentialDescriptor;
+import com.yubico.webauthn.data.PublicKeyCredentialParameters;
+import com.yubico.webauthn.data.PublicKeyCredentialRequestOptions;
+import com.yubico.webauthn.data.RelyingPartyIdentity;
 import com.yubico.webauthn.data.ResidentKeyRequirement;
 import com.yubico.webauthn.data.UserIdentity;
 import com.yubico.webauthn.data.UserVerificationRequirement;
@@ -45,31 +42,35 @@ import com.yubicolabs.data.CredentialRegistration;
 import com.yubicolabs.data.RegistrationRequest;
 import com.yubicolabs.data.RegistrationResponse;
 
-import org.checkerframework.checker.nullness.Opt;
-
-import java.security.cert.CertificateException;
-import java.security.cert.X509Certificate;
-import java.security.cert.PKIXRevocationChecker.Option;
 import java.io.IOException;
-import java.io.InputStream;
-import java.security.SecureRandom;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.Signature;
+import java.security.spec.ECGenParameterSpec;
 import java.time.Clock;
+import java.time.Duration;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
-import java.util.Collections;
-import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 
-import lombok.extern.java.Log;
 import lombok.extern.slf4j.Slf4j;
-import java.io.File;
+import org.crac.Core;
+import org.crac.Resource;
+import org.slf4j.MDC;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Function;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
-import java.util.stream.Stream;
 
-import com.yubico.fido.metadata.MetadataBLOBPayloadEntry;
-import com.yubico.fido.metadata.MetadataStatement;
 
 /**
  * Lambda function entry point. You can change to use other pojo type or
@@ -81,59 +82,311 @@ import com.yubico.fido.metadata.MetadataStatement;
  *      Java Handler</a> for more information
  */
 @Slf4j
-public class App implements RequestHandler<Object, Object> {
+public class App implements RequestHandler<Object, Object>, Resource {
 
-    private static final SecureRandom random = new SecureRandom();
+    private static final Duration USERNAME_FILTER_REBUILD_INTERVAL = Duration.ofHours(1);
 
-    private final Clock clock = Clock.systemDefaultZone();
+    private static final ExecutorService executor = Executors.newFixedThreadPool(8,
+            new ThreadFactoryBuilder().setNameFormat("webauthn-batch-%d").setDaemon(true).build());
 
-    // RVW: This is in package com.yubico.internal, so should be eliminated. Can we
-    // use gson instead?
-    private final ObjectMapper jsonMapper = JacksonCodecs.json();
-    private final Gson gson = new GsonBuilder().setPrettyPrinting().create();
+    /**
+     * Runs the independent I/O steps of a ceremony next to each other. Kept
+     * apart from {@link #executor}, since batched ceremonies run there and
+     * wait for these.
+     */
+    private static final ExecutorService stepExecutor = Executors.newCachedThreadPool(
+            new ThreadFactoryBuilder().setNameFormat("webauthn-step-%d").setDaemon(true).build());
 
-    private final AssertionRequestStorage assertRequestStorage = new AssertionRequestStorage();
-    private final RegistrationRequestStorage registerRequestStorage = new RegistrationRequestStorage();
-    private final RegistrationStorage userStorage = new RDSRegistrationStorage();
+    private final Clock clock = Clock.systemDefaultZone();
 
-    private static final String METADATA_PATH = "/metadata.json";
+    private final ObjectMapper jsonMapper = Codecs.json();
+    private final Gson gson = Codecs.gson();
+
+    private final RequestStorage<AssertionRequestWrapper> assertRequestStorage;
+    private final RequestStorage<RegistrationRequest> registerRequestStorage;
+    private final Optional<RDSRegistrationStorage> rdsRegistrationStorage;
+    private final UnitOfWorkRegistrationStorage userStorage;
+    private final Optional<WriteBehindRegistrationStorage> writeBehindStorage;
+    private final Optional<UsernameFilter> usernameFilter;
+    private final ExpiredRequestSweeper requestSweeper;
+    private final RefreshingMetadataService metadata;
+    private final AuthenticatorIconStorage iconStorage;
+    private final RelyingParty rp;
+    private final double logSampleRate;
+    private final Metrics metrics;
+
+    private static <V> RequestStorage<V> initRequestStorage(String name, Class<V> type,
+            Function<V, ByteArray> challengeOf, Supplier<RequestStorage<V>> rdsStorage, Supplier<JdbcDatabase> jdbc) {
+        switch (Config.getRequestStorage()) {
+            case "sealed":
+                byte[] key = Config.getRequestSealingKey().orElseThrow(() -> new IllegalStateException(
+                        "YUBICO_WEBAUTHN_REQUEST_SEALING_KEY is required for sealed request storage"));
+                KeyValueStore usedChallenges = Config.getRequestTable()
+                        .<KeyValueStore>map(DynamoDBKeyValueStore::new)
+                        .orElseGet(() -> {
+                            log.warn("No YUBICO_WEBAUTHN_REQUEST_TABLE, replay protection is per container only");
+                            return new InMemoryKeyValueStore();
+                        });
+                return new SealedRequestStorage<>(key, usedChallenges, name, type, challengeOf,
+                        Config.getRequestTtl());
+            case "dynamodb":
+                String table = Config.getRequestTable().orElseThrow(() -> new IllegalStateException(
+                        "YUBICO_WEBAUTHN_REQUEST_TABLE is required for dynamodb request storage"));
+                return new KeyValueRequestStorage<>(new DynamoDBKeyValueStore(table), name, type,
+                        Config.getRequestTtl());
+            case "memory":
+                return new KeyValueRequestStorage<>(new InMemoryKeyValueStore(), name, type, Config.getRequestTtl());
+            case "rds":
+                return rdsStorage.get();
+            case "jdbc":
+                return new JdbcRequestStorage<>(jdbc.get(), name, type, Config.getRequestTtl());
+            default:
+                throw new IllegalStateException("Unknown request storage: " + Config.getRequestStorage());
+        }
+    }
 
-    private final FidoMetadataService mds = initMDS();
+    private static RegistrationStorage initRegistrationStorage(Supplier<RdsDatabase> rds, Supplier<JdbcDatabase> jdbc) {
+        switch (Config.getCredentialStorage()) {
+            case "rds":
+                return new RDSRegistrationStorage(rds.get());
+            case "jdbc":
+                return new JdbcRegistrationStorage(jdbc.get());
+            default:
+                throw new IllegalStateException("Unknown credential storage: " + Config.getCredentialStorage());
+        }
+    }
 
-    private FidoMetadataService initMDS() {
-        try {
-            MetadataBLOB downloader = FidoMetadataDownloader.builder()
-                    .expectLegalHeader(
-                            "Retrieval and use of this BLOB indicates acceptance of the appropriate agreement located at https://fidoalliance.org/metadata/metadata-legal-terms/")
-                    .useDefaultTrustRoot()
-                    .useTrustRootCacheFile(new File("/tmp/fido-mds-trust-root-cache.bin"))
-                    .useDefaultBlob()
-                    .useBlobCacheFile(new File("/tmp/fido-mds-blob-cache.bin"))
-                    .build()
-                    .loadCachedBlob();
-
-            FidoMetadataService mds = FidoMetadataService.builder()
-                    .useBlob(downloader)
-                    .build();
-            return mds;
-        } catch (Exception e) {
-            log.info("Error initializing MDS: {}", gson.toJson(e));
-            return null;
+    private static AuthenticatorIconStorage initIconStorage(Supplier<RdsDatabase> rds, Supplier<JdbcDatabase> jdbc) {
+        switch (Config.getCredentialStorage()) {
+            case "rds":
+                return new CachingAuthenticatorIconStorage(new RdsAuthenticatorIconStorage(rds.get()));
+            case "jdbc":
+                return new CachingAuthenticatorIconStorage(new JdbcAuthenticatorIconStorage(jdbc.get()));
+            default:
+                throw new IllegalStateException("Unknown credential storage: " + Config.getCredentialStorage());
         }
     }
 
-    private final RelyingParty rp = RelyingParty.builder()
-            .identity(Config.getRpIdentity())
-            .credentialRepository(this.userStorage)
-            .origins(Config.getOrigins())
-            .attestationConveyancePreference(Optional.of(AttestationConveyancePreference.DIRECT))
-            .attestationTrustSource(mds)
-            .allowUntrustedAttestation(true)
-            .validateSignatureCounter(true)
-            .build();
+    private static RegistrationStorage initUserStorage(RegistrationStorage storage) {
+        // The shared tier works without the in-process one
+        if (Config.getCredentialCacheSize() <= 0 && !Config.getSharedCacheTable().isPresent()) {
+            return storage;
+        }
+        return new CachingRegistrationStorage(
+                storage,
+                Config.getCredentialCacheSize(),
+                Config.getCredentialCacheTtl(),
+                Config.getSharedCacheTable().map(DynamoDBKeyValueStore::new));
+    }
+
+    private static Optional<UsernameFilter> initUsernameFilter(RegistrationStorage storage) {
+        Optional<Duration> refresh = Config.getUsernameFilterRefresh();
+        if (!refresh.isPresent() || !(storage instanceof UsernameSource)) {
+            return Optional.empty();
+        }
+        if (storage instanceof RDSRegistrationStorage && Config.isLegacyCredentialFallback()) {
+            log.warn("Username filter is off: it needs YUBICO_WEBAUTHN_LEGACY_CREDENTIAL_FALLBACK=false");
+            return Optional.empty();
+        }
+        return Optional.of(new UsernameFilter((UsernameSource) storage, refresh.get(), USERNAME_FILTER_REBUILD_INTERVAL));
+    }
 
     public App() {
-        jsonMapper.disable(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES);
+        this(Suppliers.memoize(RdsDatabase::fromEnvironment), Suppliers.memoize(JdbcDatabase::fromConfig));
+    }
+
+    /**
+     * Each database is only set up if the configured storage uses it.
+     */
+    private App(Supplier<RdsDatabase> rds, Supplier<JdbcDatabase> jdbc) {
+        this(initRegistrationStorage(rds, jdbc), rds, jdbc);
+    }
+
+    private App(RegistrationStorage registrationStorage, Supplier<RdsDatabase> rds, Supplier<JdbcDatabase> jdbc) {
+        this(
+                registrationStorage instanceof RDSRegistrationStorage
+                        ? Optional.of((RDSRegistrationStorage) registrationStorage)
+                        : Optional.empty(),
+                initUserStorage(registrationStorage),
+                initUsernameFilter(registrationStorage),
+                initRequestStorage(
+                        "assertionRequests", AssertionRequestWrapper.class,
+                        request -> request.getPublicKeyCredentialRequestOptions().getChallenge(),
+                        () -> new RdsRequestStorage<>(rds.get(), "assertionRequests", AssertionRequestWrapper.class,
+                                Config.getRequestTtl()), jdbc),
+                initRequestStorage(
+                        "registrationRequests", RegistrationRequest.class,
+                        request -> request.getPublicKeyCredentialCreationOptions().getChallenge(),
+                        () -> new RdsRequestStorage<>(rds.get(), "registrationRequests", RegistrationRequest.class,
+                                Config.getRequestTtl()), jdbc),
+                RefreshingMetadataService.start(Config.getMdsRefreshInterval()),
+                initIconStorage(rds, jdbc),
+                Config.getRpIdentity(),
+                Config.getOrigins(),
+                Config.getLogSampleRate(),
+                Config.getMetricsNamespace().<MetricsSink>map(EmfMetricsSink::new).orElse(MetricsSink.NONE),
+                Config.getSignatureCountWriteBehind());
+        Core.getGlobalContext().register(this);
+    }
+
+    /**
+     * For tests and benchmarks: runs without the environment configuration,
+     * the database or the metadata download.
+     */
+    App(
+            RegistrationStorage userStorage,
+            RequestStorage<AssertionRequestWrapper> assertRequestStorage,
+            RequestStorage<RegistrationRequest> registerRequestStorage,
+            RefreshingMetadataService metadata,
+            RelyingPartyIdentity rpIdentity,
+            Set<String> origins) {
+        this(userStorage, assertRequestStorage, registerRequestStorage, metadata, rpIdentity, origins,
+                MetricsSink.NONE);
+    }
+
+    App(
+            RegistrationStorage userStorage,
+            RequestStorage<AssertionRequestWrapper> assertRequestStorage,
+            RequestStorage<RegistrationRequest> registerRequestStorage,
+            RefreshingMetadataService metadata,
+            RelyingPartyIdentity rpIdentity,
+            Set<String> origins,
+            MetricsSink metricsSink) {
+        this(Optional.empty(), userStorage, Optional.empty(), assertRequestStorage, registerRequestStorage, metadata,
+                new InMemoryAuthenticatorIconStorage(), rpIdentity, origins, 0, metricsSink, Optional.empty());
+    }
+
+    private App(
+            Optional<RDSRegistrationStorage> rdsRegistrationStorage,
+            RegistrationStorage userStorage,
+            Optional<UsernameFilter> usernameFilter,
+            RequestStorage<AssertionRequestWrapper> assertRequestStorage,
+            RequestStorage<RegistrationRequest> registerRequestStorage,
+            RefreshingMetadataService metadata,
+            AuthenticatorIconStorage iconStorage,
+            RelyingPartyIdentity rpIdentity,
+            Set<String> origins,
+            double logSampleRate,
+            MetricsSink metricsSink,
+            Optional<Duration> signatureCountWriteBehind) {
+        this.metrics = new Metrics(metricsSink);
+        this.rdsRegistrationStorage = rdsRegistrationStorage;
+        this.usernameFilter = usernameFilter;
+        // Instrumented below the unit of work, so that storage calls are database round trips
+        RegistrationStorage instrumented = new InstrumentedRegistrationStorage(userStorage, metrics);
+        // Background writes are counted apart from the invocations they happen to overlap
+        Metrics writeBehindMetrics = new Metrics(metricsSink);
+        this.writeBehindStorage = signatureCountWriteBehind
+                .map(interval -> new WriteBehindRegistrationStorage(instrumented,
+                        new InstrumentedRegistrationStorage(userStorage, writeBehindMetrics), writeBehindMetrics,
+                        interval));
+        this.userStorage = new UnitOfWorkRegistrationStorage(
+                writeBehindStorage.<RegistrationStorage>map(storage -> storage).orElse(instrumented));
+        this.assertRequestStorage = new InstrumentedRequestStorage<>(assertRequestStorage, "assertionRequests", metrics);
+        this.registerRequestStorage = new InstrumentedRequestStorage<>(registerRequestStorage, "registrationRequests",
+                metrics);
+        this.requestSweeper = new ExpiredRequestSweeper(this.registerRequestStorage, this.assertRequestStorage);
+        this.metadata = metadata;
+        this.iconStorage = iconStorage;
+        this.logSampleRate = logSampleRate;
+        this.rp = RelyingParty.builder()
+                .identity(rpIdentity)
+                .credentialRepository(this.userStorage)
+                .origins(origins)
+                .attestationConveyancePreference(Optional.of(AttestationConveyancePreference.DIRECT))
+                .attestationTrustSource((chain, aaguid) -> metrics.time("findTrustRoots",
+                        () -> metadata.findTrustRoots(chain, aaguid)))
+                .allowUntrustedAttestation(true)
+                .validateSignatureCounter(true)
+                .build();
+    }
+
+    /**
+     * Warms the function before a SnapStart snapshot is taken.
+     */
+    @Override
+    public void beforeCheckpoint(org.crac.Context<? extends Resource> context) {
+        // Snapshot the downloaded metadata rather than the bundled fallback
+        if (!metadata.awaitFirstLoad(Duration.ofSeconds(30))) {
+            log.warn("FIDO metadata BLOB not loaded before checkpoint");
+        }
+        prime();
+        writeBehindStorage.ifPresent(storage -> storage.awaitFlush(Duration.ofSeconds(5)));
+    }
+
+    /**
+     * Restored containers must not reuse the random state or the temporary
+     * credentials captured in the snapshot.
+     */
+    @Override
+    public void afterRestore(org.crac.Context<? extends Resource> context) {
+        RandomSource.reseed();
+        DefaultAWSCredentialsProviderChain.getInstance().refresh();
+    }
+
+    /**
+     * Loads and exercises the serializers for the request types and an ES256
+     * signature verification, so that this work is part of the snapshot
+     * instead of the first ceremony. Does not touch the database.
+     */
+    void prime() {
+        try {
+            UserIdentity user = UserIdentity.builder()
+                    .name("prime")
+                    .displayName("prime")
+                    .id(generateRandom(32))
+                    .build();
+
+            RegistrationRequest registrationRequest = new RegistrationRequest(
+                    "startRegistration",
+                    user.getName(),
+                    user.getDisplayName(),
+                    "New Credential",
+                    false,
+                    generateRandom(32),
+                    PublicKeyCredentialCreationOptions.builder()
+                            .rp(rp.getIdentity())
+                            .user(user)
+                            .challenge(generateRandom(32))
+                            .pubKeyCredParams(Arrays.asList(
+                                    PublicKeyCredentialParameters.ES256,
+                                    PublicKeyCredentialParameters.RS256))
+                            .build());
+            Codecs.REGISTRATION_REQUEST.read(Codecs.REGISTRATION_REQUEST.write(registrationRequest));
+            jsonMapper.readValue(
+                    jsonMapper.writeValueAsString(registrationRequest.getPublicKeyCredentialCreationOptions()),
+                    PublicKeyCredentialCreationOptions.class);
+
+            AssertionRequest assertionRequest = AssertionRequest.builder()
+                    .publicKeyCredentialRequestOptions(PublicKeyCredentialRequestOptions.builder()
+                            .challenge(generateRandom(32))
+                            .rpId(Optional.of(rp.getIdentity().getId()))
+                            .build())
+                    .username(user.getName())
+                    .build();
+            Codecs.ASSERTION_REQUEST.read(Codecs.ASSERTION_REQUEST.write(
+                    new AssertionRequestWrapper(generateRandom(32), assertionRequest)));
+            jsonMapper.readValue(assertionRequest.toJson(), AssertionRequest.class);
+
+            KeyPairGenerator generator = KeyPairGenerator.getInstance("EC");
+            generator.initialize(new ECGenParameterSpec("secp256r1"));
+            KeyPair keyPair = generator.generateKeyPair();
+            byte[] data = generateRandom(64).getBytes();
+
+            Signature signer = Signature.getInstance("SHA256withECDSA");
+            signer.initSign(keyPair.getPrivate());
+            signer.update(data);
+            byte[] signature = signer.sign();
+
+            Signature verifier = Signature.getInstance("SHA256withECDSA");
+            verifier.initVerify(keyPair.getPublic());
+            verifier.update(data);
+            if (!verifier.verify(signature)) {
+                log.warn("Priming signature did not verify");
+            }
+        } catch (Exception e) {
+            log.warn("Priming failed", e);
+        }
     }
 
     @Override
@@ -143,22 +396,51 @@ public class App implements RequestHandler<Object, Object> {
         // downstream apps
         // log.info("ENVIRONMENT VARIABLES: {}", gson.toJson(System.getenv()));
 
-        log.info("CONTEXT: {}", gson.toJson(context));
-        log.info("EVENT: {}", gson.toJson(input));
-
+        // The event and context are only logged for sampled requests, see RequestLog
         final String type;
-        final JsonObject object;
+        final JsonNode object;
         try {
-            log.debug("handleRequest() input: {}", input.toString());
-
-            object = gson.fromJson(input.toString(), JsonObject.class);
-            type = object.get("type").getAsString();
-        } catch (JsonSyntaxException e) {
-            log.error("JSON error in finishRegistration; input: {}", input, e);
+            // The only parse of the event; handlers bind their arguments from this tree
+            String event = input.toString();
+            metrics.count("requestChars", event.length());
+            object = metrics.time("parse", () -> jsonMapper.readTree(event));
+            type = object.get("type").asText();
+        } catch (IOException e) {
+            log.error("JSON error in handleRequest; input: {}", input, e);
             return e;
         }
-        log.debug("type: {}", type);
+        return handleEvent(type, object, input);
+    }
+
+    /**
+     * Runs one parsed event, for this handler and {@link StreamingApp}.
+     *
+     * @param input returned as is for unknown types
+     */
+    Object handleEvent(String type, JsonNode object, Object input) {
+        RequestLog requestLog = RequestLog.begin(type, logSampleRate);
+        log.debug("EVENT: {}", object);
+
+        // Serve all credential lookups of this invocation from one read per user
+        userStorage.begin();
+        Object result = null;
+        try {
+            result = metrics.time("handler", () -> dispatch(type, object, input));
+            if (result instanceof String) {
+                metrics.count("responseChars", ((String) result).length());
+            }
+            return result;
+        } finally {
+            metrics.time("commit", () -> {
+                userStorage.commit();
+                return null;
+            });
+            requestLog.end(result);
+            metrics.flush(type);
+        }
+    }
 
+    private Object dispatch(String type, JsonNode object, Object input) {
         switch (type) {
             case "startRegistration":
                 return startRegistration(object);
@@ -178,20 +460,123 @@ public class App implements RequestHandler<Object, Object> {
                 return removeRegistrationByUsername(object);
             case "removeAllRegistrations":
                 return removeAllRegistrations(object);
+            case "sweepExpiredRequests":
+                return sweepExpiredRequests(object);
+            case "migrateLegacyRegistrations":
+                return migrateLegacyRegistrations(object);
+            case "batch":
+                return batch(object);
             default:
                 return input;
         }
     }
 
-    Object startRegistration(JsonObject jsonRequest) {
+    /**
+     * Runs several operations in one invocation and returns their results in
+     * order, as a JSON array. Operations on the same username run one after
+     * another, in the given order; all others run concurrently. The
+     * registrations of every username in the batch are loaded up front with a
+     * single query.
+     *
+     * <p>Each element is the string the operation would have returned on its
+     * own, or <code>{"error": message}</code> if it failed.
+     */
+    Object batch(JsonNode jsonRequest) {
+        List<JsonNode> operations = new ArrayList<>();
+        for (JsonNode operation : jsonRequest.get("operations")) {
+            operations.add(operation);
+        }
+        log.trace("batch operations: {}", operations.size());
+
+        List<String> usernames = operations.stream()
+                .filter(operation -> operation.has("username") && !operation.get("username").isNull())
+                .map(operation -> operation.get("username").asText())
+                .distinct()
+                .collect(Collectors.toList());
+        if (!usernames.isEmpty()) {
+            userStorage.getRegistrationsByUsernames(usernames);
+        }
+
+        Map<String, List<Integer>> groups = new LinkedHashMap<>();
+        for (int i = 0; i < operations.size(); i++) {
+            JsonNode operation = operations.get(i);
+            String group = operation.has("username") && !operation.get("username").isNull()
+                    ? "username:" + operation.get("username").asText()
+                    : "operation:" + i;
+            groups.computeIfAbsent(group, key -> new ArrayList<>()).add(i);
+        }
+
+        Object[] results = new Object[operations.size()];
+        List<Future<?>> futures = new ArrayList<>();
+        // Operations log in the context of the batch, including whether it is sampled
+        Map<String, String> context = MDC.getCopyOfContextMap();
+        for (List<Integer> group : groups.values()) {
+            futures.add(executor.submit(() -> {
+                if (context != null) {
+                    MDC.setContextMap(context);
+                }
+                try {
+                    for (int i : group) {
+                        results[i] = batchOperation(operations.get(i));
+                    }
+                } finally {
+                    MDC.clear();
+                }
+            }));
+        }
+
+        try {
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return e;
+        } catch (ExecutionException e) {
+            log.error("batch operation failed", e.getCause());
+            return e.getCause();
+        }
 
-        String username = jsonRequest.get("username").getAsString();
-        String displayName = jsonRequest.get("displayName").getAsString();
-        boolean requireResidentKey = jsonRequest.get("requireResidentKey").getAsBoolean();
+        ArrayNode response = jsonMapper.createArrayNode();
+        for (Object result : results) {
+            if (result instanceof Throwable) {
+                response.addObject().put("error", ((Throwable) result).getMessage());
+            } else if (result instanceof String) {
+                response.add((String) result);
+            } else {
+                response.add(jsonMapper.valueToTree(result));
+            }
+        }
+        try {
+            return jsonMapper.writeValueAsString(response);
+        } catch (JsonProcessingException e) {
+            log.error("JSON error in batch", e);
+            return e;
+        }
+    }
+
+    private Object batchOperation(JsonNode operation) {
+        String type = operation.get("type").asText();
+        if (type.equals("batch")) {
+            return new Exception("Nested batch operations are not supported");
+        }
+        try {
+            return dispatch(type, operation, operation.toString());
+        } catch (RuntimeException e) {
+            log.error("batch operation {} failed", type, e);
+            return e;
+        }
+    }
+
+    Object startRegistration(JsonNode jsonRequest) {
+
+        String username = jsonRequest.get("username").asText();
+        String displayName = jsonRequest.get("displayName").asText();
+        boolean requireResidentKey = jsonRequest.get("requireResidentKey").asBoolean();
         AuthenticatorAttachment requireAuthenticatorAttachment = (jsonRequest.has("requireAuthenticatorAttachment"))
-                ? (resolveAuthenticatorAttachment(jsonRequest.get("requireAuthenticatorAttachment").getAsString()))
+                ? (resolveAuthenticatorAttachment(jsonRequest.get("requireAuthenticatorAttachment").asText()))
                 : null;
-        String uid = jsonRequest.get("uid").getAsString();
+        String uid = jsonRequest.get("uid").asText();
 
         log.trace(
                 "startRegistration username: {}, displayName: {}, requireResidentKey: {}, uid {}",
@@ -235,9 +620,17 @@ public class App implements RequestHandler<Object, Object> {
                                         .build())
                                 .build()));
         log.debug("request: {}", request);
-        registerRequestStorage.put(request.getRequestId(), request);
-
-        String registerRequestJson = gson.toJson(request, RegistrationRequest.class);
+        ByteArray requestId = registerRequestStorage.issue(request.getRequestId(), request);
+        request = new RegistrationRequest(
+                request.type,
+                request.username,
+                request.displayName,
+                request.credentialNickname,
+                request.requireResidentKey,
+                requestId,
+                request.publicKeyCredentialCreationOptions);
+
+        String registerRequestJson = Codecs.REGISTRATION_REQUEST.write(request);
         log.debug("registerRequestJson: {}", registerRequestJson);
 
         return registerRequestJson;
@@ -252,12 +645,13 @@ public class App implements RequestHandler<Object, Object> {
         return null;
     }
 
-    Object finishRegistration(JsonObject responseJson) {
+    Object finishRegistration(JsonNode responseJson) {
         log.debug("finishRegistration responseJson: {}", responseJson);
 
+        // Decoded before the request is taken, so that a malformed response does not use it up
         RegistrationResponse response;
         try {
-            response = jsonMapper.readValue(responseJson.toString(), RegistrationResponse.class);
+            response = metrics.time("decode", () -> Codecs.REGISTRATION_RESPONSE.readValue(responseJson));
         } catch (Exception e) {
             log.error("JSON error in finishRegistration. Failed to decode response object.", e);
             return e;
@@ -265,45 +659,71 @@ public class App implements RequestHandler<Object, Object> {
 
         log.debug("response: {}", response);
 
-        RegistrationRequest request = registerRequestStorage.getIfPresent(response.getRequestId());
-        log.debug("request: {}", request);
-        registerRequestStorage.invalidate(response.getRequestId());
-
-        if (request == null) {
-            String msg = "fail finishRegistration - no such registration in progress: {}" + response.getRequestId();
-            log.error(msg);
-            return new Exception(msg);
-        } else {
+        // The credential ID, which verification checks is not registered yet, is read while
+        // the request is taken; the stored icon, needed to store the registration, until it is verified
+        CompletableFuture<?> credentialPrefetch = prefetchCredential(response.getCredential().getId());
+        CompletableFuture<?> iconPrefetch = prefetchIcon(response);
+        try {
+            RegistrationRequest request;
             try {
-                com.yubico.webauthn.RegistrationResult registration = rp.finishRegistration(
-                        FinishRegistrationOptions.builder()
-                                .request(request.getPublicKeyCredentialCreationOptions())
-                                .response(response.getCredential())
-                                .build());
-                log.debug("registration: {}", registration);
-
-                return addRegistration(
-                        request.getPublicKeyCredentialCreationOptions().getUser(),
-                        response,
-                        registration,
-                        request);
-            } catch (RegistrationFailedException e) {
-                log.error("Registration failed!", e);
-                return e;
-            } catch (Exception e) {
-                log.error("Registration failed unexpectedly; this is likely a bug.", e);
-                return e;
+                request = registerRequestStorage.take(response.getRequestId());
+            } finally {
+                abandon(credentialPrefetch);
+            }
+            log.debug("request: {}", request);
+
+            if (request == null) {
+                String msg = "fail finishRegistration - no such registration in progress: {}" + response.getRequestId();
+                log.error(msg);
+                return new Exception(msg);
+            } else {
+                try {
+                    FinishRegistrationOptions finishRegistrationOptions = FinishRegistrationOptions.builder()
+                            .request(request.getPublicKeyCredentialCreationOptions())
+                            .response(response.getCredential())
+                            .build();
+                    com.yubico.webauthn.RegistrationResult registration = metrics.time("verify",
+                            () -> rp.finishRegistration(finishRegistrationOptions));
+                    log.debug("registration: {}", registration);
+
+                    abandon(iconPrefetch);
+                    return addRegistration(
+                            request.getPublicKeyCredentialCreationOptions().getUser(),
+                            response,
+                            registration,
+                            request);
+                } catch (RegistrationFailedException e) {
+                    log.error("Registration failed!", e);
+                    return e;
+                } catch (Exception e) {
+                    log.error("Registration failed unexpectedly; this is likely a bug.", e);
+                    return e;
+                }
             }
+        } finally {
+            abandon(iconPrefetch);
         }
     }
 
-    Object startAuthentication(JsonObject jsonRequest) {
-        JsonElement jsonElement = jsonRequest.get("username");
-        Optional<String> username = Optional.ofNullable(jsonElement).map(JsonElement::getAsString);
+    /**
+     * Checks the username filter, if any, before the database.
+     */
+    private boolean mightExist(String username) {
+        boolean result = usernameFilter.map(filter -> filter.mightExist(username)).orElse(true);
+        if (!result) {
+            metrics.count("usernameFilterRejections", 1);
+        }
+        return result;
+    }
+
+    Object startAuthentication(JsonNode jsonRequest) {
+        Optional<String> username = Optional.ofNullable(jsonRequest.get("username"))
+                .filter(node -> !node.isNull())
+                .map(JsonNode::asText);
 
         log.debug("startAuthentication username: {}", username);
 
-        if (username.isPresent() && !userStorage.userExists(username.get())) {
+        if (username.isPresent() && !(mightExist(username.get()) && userStorage.userExists(username.get()))) {
             String msg = "The username \"" + username + "\" is not registered.";
             return new Exception(msg);
         } else {
@@ -316,30 +736,38 @@ public class App implements RequestHandler<Object, Object> {
                                     .build()));
 
             log.debug("request: {}", request);
-            assertRequestStorage.put(request.getRequestId(), request);
+            ByteArray requestId = assertRequestStorage.issue(request.getRequestId(), request);
+            request = new AssertionRequestWrapper(requestId, request.getRequest());
 
-            String authRequestJson = gson.toJson(request, AssertionRequestWrapper.class);
+            String authRequestJson = Codecs.ASSERTION_REQUEST.write(request);
             log.debug("authRequestJson: {}", authRequestJson);
 
             return authRequestJson;
         }
     }
 
-    Object finishAuthentication(JsonObject responseJson) {
+    Object finishAuthentication(JsonNode responseJson) {
         log.debug("finishAuthentication responseJson: {}", responseJson);
 
+        // Decoded before the request is taken, so that a malformed response does not use it up
         final AssertionResponse response;
         try {
-            response = jsonMapper.readValue(responseJson.toString(), AssertionResponse.class);
+            response = metrics.time("decode", () -> Codecs.ASSERTION_RESPONSE.readValue(responseJson));
         } catch (Exception e) {
             log.error("Assertion failed! Failed to decode response object", e);
             return e;
         }
         log.debug("finishAuthentication response: {}", response);
 
-        AssertionRequestWrapper request = assertRequestStorage.getIfPresent(response.getRequestId());
+        // The credential is read while the request is taken
+        CompletableFuture<?> prefetch = prefetchCredential(response.getCredential().getId());
+        final AssertionRequestWrapper request;
+        try {
+            request = assertRequestStorage.take(response.getRequestId());
+        } finally {
+            abandon(prefetch);
+        }
         log.debug("finishAuthentication request: {}", request);
-        assertRequestStorage.invalidate(response.getRequestId());
 
         if (request == null) {
             String msg = "Assertion failed!" + "No such assertion in progress: " + response.getRequestId();
@@ -353,11 +781,7 @@ public class App implements RequestHandler<Object, Object> {
                         .build();
                 log.debug("finishAuthentication finishAssertionOptions: {}", finishAssertionOptions);
 
-                AssertionResult result = rp.finishAssertion(
-                        FinishAssertionOptions.builder()
-                                .request(request.getRequest())
-                                .response(response.getCredential())
-                                .build());
+                AssertionResult result = metrics.time("verify", () -> rp.finishAssertion(finishAssertionOptions));
 
                 if (result.isSuccess()) {
                     try {
@@ -387,8 +811,71 @@ public class App implements RequestHandler<Object, Object> {
         }
     }
 
-    Object getCredentialIdsForUsername(JsonObject jsonRequest) {
-        String username = jsonRequest.get("username").getAsString();
+    /**
+     * Starts reading the rows of a credential into the unit of work, for the
+     * {@link com.yubico.webauthn.CredentialRepository} callbacks of the
+     * ceremony. A failure is only logged; the callbacks then read the rows
+     * themselves.
+     */
+    private CompletableFuture<?> prefetchCredential(ByteArray credentialId) {
+        return inParallel(() -> metrics.time("prefetch",
+                () -> userStorage.getRegistrationsByCredentialId(credentialId)))
+                .exceptionally(e -> {
+                    log.warn("Failed to prefetch credential {}", credentialId, e);
+                    return null;
+                });
+    }
+
+    /**
+     * Starts reading the stored icon of the authenticator model the response
+     * names, if the metadata knows it, so that {@link #metadataReference}
+     * finds it cached. A failure is only logged.
+     */
+    private CompletableFuture<?> prefetchIcon(RegistrationResponse response) {
+        Optional<String> aaguid = response.getCredential().getResponse().getAttestation().getAuthenticatorData()
+                .getAttestedCredentialData()
+                .flatMap(data -> metadata.getIndex().findByAaguid(data.getAaguid()))
+                .map(AttestationRegistration::getAaguid);
+        if (!aaguid.isPresent()) {
+            return null;
+        }
+        return inParallel(() -> metrics.time("iconPrefetch", () -> iconStorage.get(aaguid.get())))
+                .exceptionally(e -> {
+                    log.warn("Failed to prefetch icon of {}", aaguid.get(), e);
+                    return null;
+                });
+    }
+
+    /**
+     * Runs a step on {@link #stepExecutor}, in the logging context of the
+     * caller.
+     */
+    private static <T> CompletableFuture<T> inParallel(Supplier<T> step) {
+        Map<String, String> context = MDC.getCopyOfContextMap();
+        return CompletableFuture.supplyAsync(() -> {
+            if (context != null) {
+                MDC.setContextMap(context);
+            }
+            try {
+                return step.get();
+            } finally {
+                MDC.clear();
+            }
+        }, stepExecutor);
+    }
+
+    /**
+     * Waits for a step started with {@link #inParallel} whose result is not
+     * needed, so that it does not outlive the invocation.
+     */
+    private static void abandon(CompletableFuture<?> step) {
+        if (step != null) {
+            step.handle((result, failure) -> null).join();
+        }
+    }
+
+    Object getCredentialIdsForUsername(JsonNode jsonRequest) {
+        String username = jsonRequest.get("username").asText();
         log.trace("getCredentialIdsForUsername username: {}", username);
 
         Collection<PublicKeyCredentialDescriptor> credentials = userStorage.getCredentialIdsForUsername(username);
@@ -400,24 +887,26 @@ public class App implements RequestHandler<Object, Object> {
         return credentialsRequestJson;
     }
 
-    Object getRegistrationsByUsername(JsonObject jsonRequest) {
-        String username = jsonRequest.get("username").getAsString();
+    Object getRegistrationsByUsername(JsonNode jsonRequest) {
+        String username = jsonRequest.get("username").asText();
         log.trace("getRegistrationsByUsername username: {}", username);
 
-        Collection<CredentialRegistration> credentials = userStorage.getRegistrationsByUsername(username);
+        Collection<CredentialRegistration> credentials = userStorage.getRegistrationsByUsername(username).stream()
+                .map(this::withMetadataIcon)
+                .collect(Collectors.toList());
         log.debug("credentials: {}", credentials);
 
-        String credentialsRequestJson = gson.toJson(credentials, Collection.class);
+        String credentialsRequestJson = Codecs.CREDENTIAL_REGISTRATIONS.write(credentials);
         log.debug("credentialsRequestJson: {}", credentialsRequestJson);
 
         return credentialsRequestJson;
 
     }
 
-    Object updateCredentialNickname(JsonObject jsonRequest) {
-        String username = jsonRequest.get("username").getAsString();
-        String credentialId = jsonRequest.get("credentialId").getAsString();
-        String nickname = jsonRequest.get("nickname").getAsString();
+    Object updateCredentialNickname(JsonNode jsonRequest) {
+        String username = jsonRequest.get("username").asText();
+        String credentialId = jsonRequest.get("credentialId").asText();
+        String nickname = jsonRequest.get("nickname").asText();
         log.debug("updateCredentialNickname username: {}, credentialId: {} nickname: {}", username, credentialId,
                 nickname);
 
@@ -431,9 +920,9 @@ public class App implements RequestHandler<Object, Object> {
         }
     }
 
-    Object removeRegistrationByUsername(JsonObject jsonRequest) {
-        String username = jsonRequest.get("username").getAsString();
-        String credentialId = jsonRequest.get("credentialId").getAsString();
+    Object removeRegistrationByUsername(JsonNode jsonRequest) {
+        String username = jsonRequest.get("username").asText();
+        String credentialId = jsonRequest.get("credentialId").asText();
         log.trace("removeRegistrationByUsername username: {}", username);
 
         try {
@@ -448,16 +937,56 @@ public class App implements RequestHandler<Object, Object> {
         }
     }
 
-    Object removeAllRegistrations(JsonObject jsonRequest) {
-        String username = jsonRequest.get("username").getAsString();
+    Object removeAllRegistrations(JsonNode jsonRequest) {
+        String username = jsonRequest.get("username").asText();
         log.trace("removeAllRegistrations username: {}", username);
 
         return userStorage.removeAllRegistrations(username);
     }
 
+    Object sweepExpiredRequests(JsonNode jsonRequest) {
+        int batchSize = jsonRequest.has("batchSize") ? jsonRequest.get("batchSize").asInt() : 500;
+        int maxBatches = jsonRequest.has("maxBatches") ? jsonRequest.get("maxBatches").asInt() : 20;
+        long pauseMillis = jsonRequest.has("pauseMillis") ? jsonRequest.get("pauseMillis").asLong() : 200;
+        log.trace("sweepExpiredRequests batchSize: {}, maxBatches: {}, pauseMillis: {}", batchSize, maxBatches, pauseMillis);
+
+        ExpiredRequestSweeper.Result result = requestSweeper.sweep(
+                Config.getRequestTtl(), batchSize, maxBatches, Duration.ofMillis(pauseMillis));
+
+        return gson.toJson(result);
+    }
+
+    /**
+     * Migrates one page of legacy registrations. The caller passes the
+     * <code>after</code> of each result to the next call, until
+     * <code>done</code>.
+     */
+    Object migrateLegacyRegistrations(JsonNode jsonRequest) {
+        Optional<RDSRegistrationStorage.LegacyCursor> after = Optional.ofNullable(jsonRequest.get("after"))
+                .filter(JsonNode::isObject)
+                .map(node -> new RDSRegistrationStorage.LegacyCursor(
+                        node.path("creationDate").asText(), node.path("credentialId").asText()));
+        int batchSize = jsonRequest.has("batchSize") ? jsonRequest.get("batchSize").asInt() : 200;
+        log.trace("migrateLegacyRegistrations after: {}, batchSize: {}", after, batchSize);
+
+        if (!rdsRegistrationStorage.isPresent()) {
+            return new Exception("Legacy registrations can only be migrated with RDS storage");
+        }
+        RDSRegistrationStorage.MigrationPage page = rdsRegistrationStorage.get()
+                .migrateLegacyRegistrations(after, batchSize);
+
+        ObjectNode result = jsonMapper.createObjectNode();
+        result.put("migrated", page.getRead());
+        page.getLast().ifPresent(last -> result.putObject("after")
+                .put("creationDate", last.getCreationDate())
+                .put("credentialId", last.getCredentialId()));
+        result.put("done", page.getRead() < batchSize);
+        return result.toString();
+    }
+
     private static ByteArray generateRandom(int length) {
         byte[] bytes = new byte[length];
-        random.nextBytes(bytes);
+        RandomSource.get().nextBytes(bytes);
         return new ByteArray(bytes);
     }
 
@@ -477,11 +1006,11 @@ public class App implements RequestHandler<Object, Object> {
             log.debug("addRegistration Evaluate AuthSelection: No attestation found");
             Optional<AuthenticatorSelectionCriteria> evaluate = request.publicKeyCredentialCreationOptions
                     .getAuthenticatorSelection();
-            log.debug("addRegistration Evaluate AuthSelection publicKeyCreate: {}", gson.toJson(evaluate));
+            log.debug("addRegistration Evaluate AuthSelection publicKeyCreate: {}", RequestLog.json(evaluate));
 
             if (evaluate.isPresent() && evaluate.get().getAuthenticatorAttachment().isPresent()) {
                 log.debug("addRegistration Evaluate AuthSelection found, checking authattachment value2: {}",
-                        gson.toJson(evaluate.get().getAuthenticatorAttachment().get()));
+                        evaluate.get().getAuthenticatorAttachment().get());
                 if (evaluate.get().getAuthenticatorAttachment().get() == AuthenticatorAttachment.PLATFORM) {
                     nickname = Optional.ofNullable("My Trusted Device");
                 }
@@ -529,68 +1058,43 @@ public class App implements RequestHandler<Object, Object> {
                 userIdentity,
                 nickname,
                 credential);
-        userStorage.addRegistrationByUsername(userIdentity.getName(), reg);
+        userStorage.addRegistrationByUsername(userIdentity.getName(),
+                reg.withAttestationMetadata(attestationMetadata.map(this::metadataReference)));
+        usernameFilter.ifPresent(filter -> filter.add(userIdentity.getName()));
         return reg;
     }
 
-    private Optional<AttestationRegistration> buildAttestationResult(RegistrationResult result) {
-        log.debug("buildAttestationResult() result aaguid: {}", result.getAaguid().getHex());
-
-        // Find MDS entries based on both the AAGUID and TrustRootCert provided during
-        // Attestation
-        Set<MetadataBLOBPayloadEntry> entries = mds.findEntries(result);
-        log.debug("buildAttestationResult() number of entries found in entries: {}", entries.size());
-        log.debug("buildAttestationResult() entries found in entries: {}", gson.toJson(entries));
-
-        // If entries is empty, try through only the AAGUID, this allows Windows Hello
-        // to work
-        if (entries.size() == 0) {
-            log.debug("buildAttestationResult() No entries found, attempting by AAGUID only");
-            entries = mds.findEntries(new AAGUID(result.getAaguid()));
-            log.debug("buildAttestationResult() number of entries found  in entries AAGUID: {}", entries.size());
-            log.debug("buildAttestationResult() entries found  in entries AAGUID: {}", gson.toJson(entries));
+    /**
+     * Moves the icon, usually a data URI of several KB, to the icon storage
+     * under the AAGUID, unless a different icon is stored there already; see
+     * {@link #withMetadataIcon}.
+     */
+    private AttestationRegistration metadataReference(AttestationRegistration attestation) {
+        if (attestation.getAaguid() == null || attestation.getIcon() == null) {
+            return attestation;
         }
+        String stored = iconStorage.putIfAbsent(attestation.getAaguid(), attestation.getIcon());
+        return stored.equals(attestation.getIcon()) ? attestation.withIcon(null) : attestation;
+    }
 
-        List<MetadataBLOBPayloadEntry> entriesAaguid = entries.stream()
-                .filter(ent -> ent.getAaguid().isPresent()
-                        && ent.getAaguid().get().asHexString().equals(result.getAaguid().getHex()))
-                .collect(Collectors.toList());
-
-        log.debug("buildAttestationResult() entries found in filter for AAGUID: {}", entriesAaguid.size());
-
-        Optional<MetadataStatement> entriesFinal;
-        if (entriesAaguid.size() == 0) {
-            entriesFinal = entries.stream().findAny().flatMap(MetadataBLOBPayloadEntry::getMetadataStatement);
-        } else {
-            entriesFinal = entriesAaguid.get(0).getMetadataStatement();
-        }
-
-        AttestationRegistration attResult = null;
-        if (entriesFinal.isPresent()) {
-            MetadataStatement entryValue = entriesFinal.get();
-            Optional<AAGUID> aaguid = entryValue.getAaguid();
-            Optional<AAID> aaid = entryValue.getAaid();
-            Optional<Set<AttachmentHint>> attachmentHint = entryValue.getAttachmentHint();
-            Optional<String> icon = entryValue.getIcon();
-            Optional<String> description = entryValue.getDescription();
-            Optional<Set<AuthenticatorTransport>> authenticatorTransport;
-            if (entryValue.getAuthenticatorGetInfo().isPresent()) {
-                authenticatorTransport = entryValue.getAuthenticatorGetInfo().get().getTransports();
-            } else {
-                authenticatorTransport = Optional.empty();
-            }
-
-            attResult = AttestationRegistration.builder()
-                    .aaguid(aaguid.isPresent() ? aaguid.get().asGuidString() : null)
-                    .aaid(aaid.isPresent() ? aaid.get().getValue() : null)
-                    .attachmentHint(attachmentHint.isPresent() ? attachmentHint.get() : null)
-                    .icon(icon.isPresent() ? icon.get() : null)
-                    .description(description.isPresent() ? description.get() : null)
-                    .authenticatorTransport(authenticatorTransport.isPresent() ? authenticatorTransport.get() : null)
-                    .build();
-
-            log.debug("AttestationRegistration result: {}", attResult);
+    /**
+     * Fills in the icon of stored metadata from the icon storage.
+     */
+    private CredentialRegistration withMetadataIcon(CredentialRegistration reg) {
+        Optional<AttestationRegistration> attestation = reg.getAttestationMetadata();
+        if (attestation == null || !attestation.isPresent() || attestation.get().getIcon() != null
+                || attestation.get().getAaguid() == null) {
+            return reg;
         }
-        return Optional.ofNullable(attResult);
+        return iconStorage.get(attestation.get().getAaguid())
+                .map(icon -> reg.withAttestationMetadata(Optional.of(attestation.get().withIcon(icon))))
+                .orElse(reg);
+    }
+
+    Optional<AttestationRegistration> buildAttestationResult(RegistrationResult result) {
+        Optional<AttestationRegistration> attResult = metrics.time("metadataLookup",
+                () -> metadata.getIndex().find(result));
+        log.debug("AttestationRegistration result: {}", attResult);
+        return attResult;
     }
 }
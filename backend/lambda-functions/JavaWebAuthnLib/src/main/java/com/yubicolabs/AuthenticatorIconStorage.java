@@ -0,0 +1,22 @@
+package com.yubicolabs;
+
+import java.util.Optional;
+
+
+/**
+ * Authenticator icons, usually data URIs of several KB, stored once per AAGUID
+ * instead of in every registration of that authenticator model. An icon is
+ * kept as first seen; later metadata does not replace it.
+ */
+public interface AuthenticatorIconStorage {
+
+    Optional<String> get(String aaguid);
+
+    /**
+     * Stores the icon unless one is stored for the AAGUID already.
+     *
+     * @return the icon stored for the AAGUID
+     */
+    String putIfAbsent(String aaguid, String icon);
+
+}
@@ -0,0 +1,72 @@
+package com.yubicolabs;
+
+import com.amazonaws.ClientConfiguration;
+import com.amazonaws.retry.PredefinedBackoffStrategies;
+import com.amazonaws.retry.PredefinedRetryPolicies;
+import com.amazonaws.retry.RetryPolicy;
+import com.amazonaws.services.dynamodbv2.AmazonDynamoDB;
+import com.amazonaws.services.dynamodbv2.AmazonDynamoDBClientBuilder;
+import com.amazonaws.services.rdsdata.AWSRDSData;
+import com.amazonaws.services.rdsdata.AWSRDSDataClient;
+import com.google.common.base.Suppliers;
+import java.util.function.Supplier;
+
+
+/**
+ * The AWS service clients of the function, built once per container and
+ * shared by all storage classes, so that the challenge and credential queries
+ * reuse the same pooled, kept-alive connections.
+ */
+final class AwsClients {
+
+    private static final int MAX_CONNECTIONS = 16;
+    private static final int CONNECTION_TIMEOUT_MILLIS = 2_000;
+    private static final int SOCKET_TIMEOUT_MILLIS = 10_000;
+    private static final int REQUEST_TIMEOUT_MILLIS = 15_000;
+    private static final long CONNECTION_MAX_IDLE_MILLIS = 60_000;
+    private static final int MAX_ERROR_RETRY = 3;
+    private static final int RETRY_BASE_DELAY_MILLIS = 25;
+    private static final int RETRY_MAX_BACKOFF_MILLIS = 1_000;
+
+    private static final Supplier<AWSRDSData> rdsData = Suppliers.memoize(() -> AWSRDSDataClient.builder()
+        .withClientConfiguration(clientConfiguration())
+        .build());
+
+    private static final Supplier<AmazonDynamoDB> dynamoDB = Suppliers.memoize(() -> AmazonDynamoDBClientBuilder.standard()
+        .withClientConfiguration(clientConfiguration())
+        .build());
+
+    private AwsClients() {
+    }
+
+    static AWSRDSData rdsData() {
+        return rdsData.get();
+    }
+
+    static AmazonDynamoDB dynamoDB() {
+        return dynamoDB.get();
+    }
+
+    /**
+     * Short connect timeouts and up to three retries with full jitter, so
+     * that a stalled connection fails over quickly and retries from several
+     * containers do not line up. Idle connections are kept alive for reuse
+     * across invocations and validated before use after a SnapStart restore.
+     */
+    static ClientConfiguration clientConfiguration() {
+        return new ClientConfiguration()
+            .withMaxConnections(MAX_CONNECTIONS)
+            .withConnectionTimeout(CONNECTION_TIMEOUT_MILLIS)
+            .withSocketTimeout(SOCKET_TIMEOUT_MILLIS)
+            .withRequestTimeout(REQUEST_TIMEOUT_MILLIS)
+            .withTcpKeepAlive(true)
+            .withConnectionMaxIdleMillis(CONNECTION_MAX_IDLE_MILLIS)
+            .withValidateAfterInactivityMillis(1_000)
+            .withRetryPolicy(new RetryPolicy(
+                PredefinedRetryPolicies.DEFAULT_RETRY_CONDITION,
+                new PredefinedBackoffStrategies.FullJitterBackoffStrategy(RETRY_BASE_DELAY_MILLIS, RETRY_MAX_BACKOFF_MILLIS),
+                MAX_ERROR_RETRY,
+                false));
+    }
+
+}
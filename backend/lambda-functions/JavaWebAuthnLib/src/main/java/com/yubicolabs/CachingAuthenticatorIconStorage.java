@@ -0,0 +1,41 @@
+package com.yubicolabs;
+
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+
+/**
+ * In-process cache in front of another {@link AuthenticatorIconStorage}.
+ * Stored icons never change, so each AAGUID is read at most once per
+ * container. That includes AAGUIDs without an icon: an icon stored for one
+ * later by another container is only seen here after the container is
+ * replaced.
+ */
+public class CachingAuthenticatorIconStorage implements AuthenticatorIconStorage {
+
+    private final AuthenticatorIconStorage delegate;
+
+    private final ConcurrentMap<String, Optional<String>> icons = new ConcurrentHashMap<>();
+
+    public CachingAuthenticatorIconStorage(AuthenticatorIconStorage delegate) {
+        this.delegate = delegate;
+    }
+
+    @Override
+    public Optional<String> get(String aaguid) {
+        return icons.computeIfAbsent(aaguid, delegate::get);
+    }
+
+    @Override
+    public String putIfAbsent(String aaguid, String icon) {
+        Optional<String> cached = icons.get(aaguid);
+        if (cached != null && cached.isPresent()) {
+            return cached.get();
+        }
+        String stored = delegate.putIfAbsent(aaguid, icon);
+        icons.put(aaguid, Optional.of(stored));
+        return stored;
+    }
+
+}
@@ -0,0 +1,411 @@
+package com.yubicolabs;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.yubico.internal.util.CollectionUtil;
+import com.yubico.webauthn.AssertionResult;
+import com.yubico.webauthn.RegisteredCredential;
+import com.yubico.webauthn.data.ByteArray;
+import com.yubico.webauthn.data.PublicKeyCredentialDescriptor;
+import com.yubicolabs.data.CredentialKey;
+import com.yubicolabs.data.CredentialRegistration;
+import java.time.Clock;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import java.util.function.UnaryOperator;
+import java.util.stream.Collectors;
+import lombok.extern.slf4j.Slf4j;
+
+
+/**
+ * Read-through cache in front of another {@link RegistrationStorage}.
+ *
+ * <p>The first tier is a bounded in-process cache keyed by username and user
+ * handle. It lives as long as the Lambda container, so it is shared by all
+ * warm invocations. The optional second tier is a {@link KeyValueStore} shared
+ * by all containers, also keyed by credential ID.
+ *
+ * <p>Writes only clear the first tier of the container that made them. Other
+ * containers keep their entries until the TTL passes, so for that long
+ * {@link #getRegistrationsByUsername}, {@link #getRegistrationsByUserHandle}
+ * and what is derived from them there may be stale both ways: a credential
+ * removed elsewhere is still listed, and one registered elsewhere is missing,
+ * including from the <code>excludeCredentials</code> of a registration
+ * started on that container. The first tier is therefore off unless
+ * {@link Config#getCredentialCacheSize()} is set.
+ *
+ * <p>Reads that must see other containers' writes skip the first tier:
+ * credentials are looked up for verification ({@link #lookup},
+ * {@link #lookupAll}, {@link #getRegistrationsByCredentialId}) in the second
+ * tier or the delegate, and the credential keys, {@link #userExists} and
+ * {@link #getRegistrationByUsernameAndCredentialId}, which the removal and
+ * renaming of a credential start from, in the delegate. Writes replace second
+ * tier entries with a tombstone rather than deleting them, and entries are
+ * only added where there is none, so a concurrent read of the old rows cannot
+ * put them back.
+ */
+@Slf4j
+public class CachingRegistrationStorage implements RegistrationStorage {
+
+    private static final String TOMBSTONE = "-";
+
+    private final Clock clock = Clock.systemDefaultZone();
+
+    private final RegistrationStorage delegate;
+    private final Optional<KeyValueStore> sharedCache;
+    private final Duration ttl;
+
+    private final Cache<String, Collection<CredentialRegistration>> byUsername;
+    private final Cache<ByteArray, Collection<CredentialRegistration>> byUserHandle;
+
+    public CachingRegistrationStorage(RegistrationStorage delegate, long maximumSize, Duration ttl, Optional<KeyValueStore> sharedCache) {
+        this.delegate = delegate;
+        this.sharedCache = sharedCache;
+        this.ttl = ttl;
+        this.byUsername = newCache(maximumSize, ttl);
+        this.byUserHandle = newCache(maximumSize, ttl);
+    }
+
+    private static <K> Cache<K, Collection<CredentialRegistration>> newCache(long maximumSize, Duration ttl) {
+        return CacheBuilder.newBuilder()
+            .maximumSize(maximumSize)
+            .expireAfterWrite(ttl.toMillis(), TimeUnit.MILLISECONDS)
+            .build();
+    }
+
+    @Override
+    public Collection<CredentialRegistration> getRegistrationsByUsername(String username) {
+        return cached(byUsername, username, "username:" + username,
+            () -> delegate.getRegistrationsByUsername(username));
+    }
+
+    @Override
+    public Map<String, Collection<CredentialRegistration>> getRegistrationsByUsernames(Collection<String> usernames) {
+        Map<String, Collection<CredentialRegistration>> result = new HashMap<>();
+        List<String> missing = new ArrayList<>();
+        for (String username : usernames) {
+            Collection<CredentialRegistration> regs = byUsername.getIfPresent(username);
+            if (regs == null) {
+                regs = getShared("username:" + username).orElse(null);
+                if (regs != null) {
+                    byUsername.put(username, Collections.unmodifiableList(new ArrayList<>(regs)));
+                }
+            }
+            if (regs == null) {
+                missing.add(username);
+            } else {
+                result.put(username, regs);
+            }
+        }
+
+        if (!missing.isEmpty()) {
+            delegate.getRegistrationsByUsernames(missing).forEach((username, regs) -> {
+                if (!regs.isEmpty()) {
+                    putShared("username:" + username, regs);
+                    byUsername.put(username, Collections.unmodifiableList(new ArrayList<>(regs)));
+                }
+                result.put(username, regs);
+            });
+        }
+        return result;
+    }
+
+    /**
+     * Not cached, see the class documentation. The delegate reads the keys
+     * without the registrations.
+     */
+    @Override
+    public Collection<CredentialKey> getCredentialKeysByUsername(String username) {
+        return delegate.getCredentialKeysByUsername(username);
+    }
+
+    @Override
+    public Collection<CredentialKey> getCredentialKeysByUserHandle(ByteArray userHandle) {
+        return delegate.getCredentialKeysByUserHandle(userHandle);
+    }
+
+    @Override
+    public boolean userExists(String username) {
+        return delegate.userExists(username);
+    }
+
+    @Override
+    public Collection<CredentialRegistration> getRegistrationsByUserHandle(ByteArray userHandle) {
+        return cached(byUserHandle, userHandle, "userHandle:" + userHandle.getBase64Url(),
+            () -> delegate.getRegistrationsByUserHandle(userHandle));
+    }
+
+    /**
+     * Not cached in the first tier, see the class documentation.
+     */
+    @Override
+    public Collection<CredentialRegistration> getRegistrationsByCredentialId(ByteArray credentialId) {
+        String sharedKey = "credentialId:" + credentialId.getBase64Url();
+        Optional<Collection<CredentialRegistration>> shared = getShared(sharedKey);
+        if (shared.isPresent()) {
+            return shared.get();
+        }
+        Collection<CredentialRegistration> result = delegate.getRegistrationsByCredentialId(credentialId);
+        if (!result.isEmpty()) {
+            putShared(sharedKey, result);
+        }
+        return result;
+    }
+
+    /**
+     * Not cached, see the class documentation.
+     */
+    @Override
+    public Optional<CredentialRegistration> getRegistrationByUsernameAndCredentialId(String username, ByteArray id) {
+        return delegate.getRegistrationByUsernameAndCredentialId(username, id);
+    }
+
+    @Override
+    public Set<PublicKeyCredentialDescriptor> getCredentialIdsForUsername(String username) {
+        return getCredentialKeysByUsername(username).stream()
+            .map(CredentialKey::toDescriptor)
+            .collect(Collectors.toSet());
+    }
+
+    @Override
+    public Optional<String> getUsernameForUserHandle(ByteArray userHandle) {
+        return getRegistrationsByUserHandle(userHandle).stream()
+            .findAny()
+            .map(CredentialRegistration::getUsername);
+    }
+
+    @Override
+    public Optional<ByteArray> getUserHandleForUsername(String username) {
+        return getRegistrationsByUsername(username).stream()
+            .findAny()
+            .map(reg -> reg.getUserIdentity().getId());
+    }
+
+    @Override
+    public Optional<RegisteredCredential> lookup(ByteArray credentialId, ByteArray userHandle) {
+        return getRegistrationsByCredentialId(credentialId).stream()
+            .filter(reg -> userHandle.equals(reg.getUserIdentity().getId()))
+            .findAny()
+            .map(CachingRegistrationStorage::toRegisteredCredential);
+    }
+
+    @Override
+    public Set<RegisteredCredential> lookupAll(ByteArray credentialId) {
+        return CollectionUtil.immutableSet(
+            getRegistrationsByCredentialId(credentialId).stream()
+                .map(CachingRegistrationStorage::toRegisteredCredential)
+                .collect(Collectors.toSet()));
+    }
+
+    @Override
+    public boolean addRegistrationByUsername(String username, CredentialRegistration reg) {
+        try {
+            return delegate.addRegistrationByUsername(username, reg);
+        } finally {
+            invalidate(username, Collections.singleton(reg));
+        }
+    }
+
+    @Override
+    public void updateSignatureCount(AssertionResult result) {
+        delegate.updateSignatureCount(result);
+        refresh(result.getUsername(), result.getUserHandle(), result.getCredentialId(), reg -> reg
+            .withSignatureCount(Math.max(reg.getSignatureCount(), result.getSignatureCount()))
+            .withLastUsedTime(clock.instant()));
+    }
+
+    @Override
+    public void updateSignatureCounts(Collection<AssertionResult> results) {
+        delegate.updateSignatureCounts(results);
+        for (AssertionResult result : results) {
+            refresh(result.getUsername(), result.getUserHandle(), result.getCredentialId(), reg -> reg
+                .withSignatureCount(Math.max(reg.getSignatureCount(), result.getSignatureCount()))
+                .withLastUsedTime(clock.instant()));
+        }
+    }
+
+    @Override
+    public boolean updateRegistration(String username, ByteArray credentialId, CredentialRegistration reg) {
+        boolean updated = delegate.updateRegistration(username, credentialId, reg);
+        refresh(username, reg.getUserIdentity().getId(), credentialId, cached -> reg);
+        return updated;
+    }
+
+    @Override
+    public void updateCredentialNickname(String username, ByteArray credentialId, String nickname) {
+        Collection<CredentialRegistration> known = getRegistrationsByUsername(username);
+        try {
+            delegate.updateCredentialNickname(username, credentialId, nickname);
+        } finally {
+            invalidate(username, known);
+        }
+    }
+
+    @Override
+    public boolean removeRegistrationByUsername(String username, CredentialRegistration credentialRegistration) {
+        try {
+            return delegate.removeRegistrationByUsername(username, credentialRegistration);
+        } finally {
+            invalidate(username, Collections.singleton(credentialRegistration));
+        }
+    }
+
+    @Override
+    public boolean removeAllRegistrations(String username) {
+        Collection<CredentialRegistration> known = getRegistrationsByUsername(username);
+        try {
+            return delegate.removeAllRegistrations(username);
+        } finally {
+            invalidate(username, known);
+        }
+    }
+
+    /**
+     * Keeps the local tier warm for the next login on this container, but
+     * replaces the shared copies with tombstones rather than racing other
+     * containers on them.
+     */
+    private void refresh(String username, ByteArray userHandle, ByteArray credentialId, UnaryOperator<CredentialRegistration> update) {
+        for (Cache<?, Collection<CredentialRegistration>> cache : caches()) {
+            updateCached(cache, credentialId, update);
+        }
+        invalidateShared(Arrays.asList(
+            "username:" + username,
+            "userHandle:" + userHandle.getBase64Url(),
+            "credentialId:" + credentialId.getBase64Url()));
+    }
+
+    private <K> Collection<CredentialRegistration> cached(
+            Cache<K, Collection<CredentialRegistration>> cache,
+            K key,
+            String sharedKey,
+            Supplier<Collection<CredentialRegistration>> loader) {
+        Collection<CredentialRegistration> result = cache.getIfPresent(key);
+        if (result != null) {
+            return result;
+        }
+
+        result = getShared(sharedKey).orElse(null);
+        if (result == null) {
+            result = loader.get();
+            if (!result.isEmpty()) {
+                putShared(sharedKey, result);
+            }
+        }
+
+        if (!result.isEmpty()) {
+            cache.put(key, Collections.unmodifiableList(new ArrayList<>(result)));
+        }
+        return result;
+    }
+
+    /**
+     * Drops every cached entry that contains a registration of the given user,
+     * in both tiers.
+     */
+    private void invalidate(String username, Collection<CredentialRegistration> known) {
+        Set<CredentialRegistration> affected = new HashSet<>(known);
+        Collection<CredentialRegistration> cachedForUser = byUsername.getIfPresent(username);
+        if (cachedForUser != null) {
+            affected.addAll(cachedForUser);
+        }
+
+        byUsername.invalidate(username);
+        for (Cache<?, Collection<CredentialRegistration>> cache : caches()) {
+            cache.asMap().values().removeIf(regs -> regs.stream()
+                .anyMatch(reg -> username.equals(reg.getUsername())));
+        }
+
+        Set<String> keys = new HashSet<>();
+        keys.add("username:" + username);
+        for (CredentialRegistration reg : affected) {
+            keys.add("userHandle:" + reg.getUserIdentity().getId().getBase64Url());
+            keys.add("credentialId:" + reg.getCredential().getCredentialId().getBase64Url());
+        }
+        invalidateShared(keys);
+    }
+
+    /**
+     * A tombstone lasts as long as an entry would, so that no read that started
+     * before the write can put the old rows back while they could be served.
+     */
+    private void invalidateShared(Collection<String> keys) {
+        if (!sharedCache.isPresent()) {
+            return;
+        }
+        for (String key : keys) {
+            try {
+                sharedCache.get().put(key, TOMBSTONE, ttl);
+            } catch (Exception e) {
+                log.warn("Failed to invalidate shared cache key {}", key, e);
+            }
+        }
+    }
+
+    private Optional<Collection<CredentialRegistration>> getShared(String key) {
+        if (!sharedCache.isPresent()) {
+            return Optional.empty();
+        }
+        try {
+            return sharedCache.get().get(key)
+                .filter(value -> !TOMBSTONE.equals(value))
+                .map(Codecs.CREDENTIAL_REGISTRATIONS::read);
+        } catch (Exception e) {
+            log.warn("Failed to read shared cache key {}", key, e);
+            return Optional.empty();
+        }
+    }
+
+    private void putShared(String key, Collection<CredentialRegistration> regs) {
+        if (!sharedCache.isPresent()) {
+            return;
+        }
+        try {
+            sharedCache.get().putIfAbsent(key, Codecs.CREDENTIAL_REGISTRATIONS.write(regs), ttl);
+        } catch (Exception e) {
+            log.warn("Failed to write shared cache key {}", key, e);
+        }
+    }
+
+    private static <K> void updateCached(
+            Cache<K, Collection<CredentialRegistration>> cache,
+            ByteArray credentialId,
+            UnaryOperator<CredentialRegistration> update) {
+        for (Map.Entry<K, Collection<CredentialRegistration>> entry : cache.asMap().entrySet()) {
+            Collection<CredentialRegistration> regs = entry.getValue();
+            if (regs.stream().anyMatch(reg -> credentialId.equals(reg.getCredential().getCredentialId()))) {
+                cache.asMap().replace(entry.getKey(), regs, Collections.unmodifiableList(regs.stream()
+                    .map(reg -> credentialId.equals(reg.getCredential().getCredentialId()) ? update.apply(reg) : reg)
+                    .collect(Collectors.toList())));
+            }
+        }
+    }
+
+    private List<Cache<?, Collection<CredentialRegistration>>> caches() {
+        List<Cache<?, Collection<CredentialRegistration>>> caches = new ArrayList<>();
+        caches.add(byUsername);
+        caches.add(byUserHandle);
+        return caches;
+    }
+
+    private static RegisteredCredential toRegisteredCredential(CredentialRegistration registration) {
+        return RegisteredCredential.builder()
+            .credentialId(registration.getCredential().getCredentialId())
+            .userHandle(registration.getUserIdentity().getId())
+            .publicKeyCose(registration.getCredential().getPublicKeyCose())
+            .signatureCount(registration.getSignatureCount())
+            .build();
+    }
+
+}
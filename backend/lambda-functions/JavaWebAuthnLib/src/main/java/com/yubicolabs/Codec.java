@@ -0,0 +1,37 @@
+package com.yubicolabs;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import com.google.gson.TypeAdapter;
+import com.google.gson.reflect.TypeToken;
+import java.io.IOException;
+
+
+/**
+ * Gson reader and writer for one type, looked up once instead of on every
+ * call.
+ */
+public final class Codec<T> {
+
+    private final TypeAdapter<T> adapter;
+
+    Codec(Gson gson, TypeToken<T> type) {
+        this.adapter = gson.getAdapter(type);
+    }
+
+    public String write(T value) {
+        return adapter.toJson(value);
+    }
+
+    public T read(String json) {
+        if (json == null) {
+            return null;
+        }
+        try {
+            return adapter.fromJson(json);
+        } catch (IOException e) {
+            throw new JsonParseException(e);
+        }
+    }
+
+}
@@ -0,0 +1,64 @@
+package com.yubicolabs;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.reflect.TypeToken;
+import com.yubico.internal.util.JacksonCodecs;
+import com.yubicolabs.data.AssertionRequestWrapper;
+import com.yubicolabs.data.AssertionResponse;
+import com.yubicolabs.data.CredentialRegistration;
+import com.yubicolabs.data.RegistrationRequest;
+import com.yubicolabs.data.RegistrationResponse;
+import java.util.Collection;
+
+
+/**
+ * The JSON codecs shared by the function.
+ *
+ * <p>Events are parsed once, into a Jackson tree, and the WebAuthn responses
+ * are bound from that tree. Stored values and the responses to the Node
+ * functions keep Gson's format, which those functions and existing rows
+ * depend on, written compactly by one shared {@link Gson}.
+ */
+public final class Codecs {
+
+    private static final Gson gson = new GsonBuilder().create();
+
+    private static final ObjectMapper json = JacksonCodecs.json()
+        .disable(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES);
+
+    public static final Codec<CredentialRegistration> CREDENTIAL_REGISTRATION =
+        codecFor(TypeToken.get(CredentialRegistration.class));
+    public static final Codec<Collection<CredentialRegistration>> CREDENTIAL_REGISTRATIONS =
+        codecFor(new TypeToken<Collection<CredentialRegistration>>() {});
+    public static final Codec<RegistrationRequest> REGISTRATION_REQUEST =
+        codecFor(TypeToken.get(RegistrationRequest.class));
+    public static final Codec<AssertionRequestWrapper> ASSERTION_REQUEST =
+        codecFor(TypeToken.get(AssertionRequestWrapper.class));
+
+    static final ObjectReader REGISTRATION_RESPONSE = json.readerFor(RegistrationResponse.class);
+    static final ObjectReader ASSERTION_RESPONSE = json.readerFor(AssertionResponse.class);
+
+    private Codecs() {
+    }
+
+    public static Gson gson() {
+        return gson;
+    }
+
+    public static ObjectMapper json() {
+        return json;
+    }
+
+    public static <T> Codec<T> codecFor(Class<T> type) {
+        return codecFor(TypeToken.get(type));
+    }
+
+    public static <T> Codec<T> codecFor(TypeToken<T> type) {
+        return new Codec<>(gson, type);
+    }
+
+}
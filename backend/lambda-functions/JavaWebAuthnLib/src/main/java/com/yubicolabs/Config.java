@@ -1,6 +1,8 @@
 package com.yubicolabs;
 
 import com.yubico.webauthn.data.RelyingPartyIdentity;
+import java.time.Duration;
+import java.util.Base64;
 import java.util.Optional;
 import java.util.Set;
 import java.util.stream.Collectors;
@@ -12,21 +14,110 @@ import lombok.extern.slf4j.Slf4j;
 public class Config {
 
     private static final int DEFAULT_PORT = 8080;
+    private static final long DEFAULT_CREDENTIAL_CACHE_SIZE = 0;
+    private static final Duration DEFAULT_CREDENTIAL_CACHE_TTL = Duration.ofSeconds(60);
+    private static final String DEFAULT_REQUEST_STORAGE = "rds";
+    private static final Duration DEFAULT_REQUEST_TTL = Duration.ofHours(1);
+    private static final Duration DEFAULT_MDS_REFRESH_INTERVAL = Duration.ofHours(6);
+    private static final double DEFAULT_LOG_SAMPLE_RATE = 0.0;
+    private static final String DEFAULT_METRICS_NAMESPACE = "WebAuthnKit";
+    private static final String DEFAULT_CREDENTIAL_STORAGE = "rds";
+    private static final int DEFAULT_JDBC_POOL_SIZE = 2;
 
     private final Set<String> origins;
     private final int port;
     private final RelyingPartyIdentity rpIdentity;
+    private final long credentialCacheSize;
+    private final Duration credentialCacheTtl;
+    private final Optional<String> sharedCacheTable;
+    private final String requestStorage;
+    private final Optional<String> requestTable;
+    private final Duration requestTtl;
+    private final Optional<byte[]> requestSealingKey;
+    private final boolean legacyCredentialFallback;
+    private final Duration mdsRefreshInterval;
+    private final double logSampleRate;
+    private final Optional<String> metricsNamespace;
+    private final String credentialStorage;
+    private final Optional<String> jdbcUrl;
+    private final Optional<String> jdbcUsername;
+    private final Optional<String> jdbcPassword;
+    private final int jdbcPoolSize;
+    private final Optional<Duration> signatureCountWriteBehind;
+    private final Optional<Duration> usernameFilterRefresh;
 
-    private Config(Set<String> origins, int port, RelyingPartyIdentity rpIdentity) {
+    private Config(
+        Set<String> origins,
+        int port,
+        RelyingPartyIdentity rpIdentity,
+        long credentialCacheSize,
+        Duration credentialCacheTtl,
+        Optional<String> sharedCacheTable,
+        String requestStorage,
+        Optional<String> requestTable,
+        Duration requestTtl,
+        Optional<byte[]> requestSealingKey,
+        boolean legacyCredentialFallback,
+        Duration mdsRefreshInterval,
+        double logSampleRate,
+        Optional<String> metricsNamespace,
+        String credentialStorage,
+        Optional<String> jdbcUrl,
+        Optional<String> jdbcUsername,
+        Optional<String> jdbcPassword,
+        int jdbcPoolSize,
+        Optional<Duration> signatureCountWriteBehind,
+        Optional<Duration> usernameFilterRefresh
+    ) {
         this.origins = origins;
         this.port = port;
         this.rpIdentity = rpIdentity;
+        this.credentialCacheSize = credentialCacheSize;
+        this.credentialCacheTtl = credentialCacheTtl;
+        this.sharedCacheTable = sharedCacheTable;
+        this.requestStorage = requestStorage;
+        this.requestTable = requestTable;
+        this.requestTtl = requestTtl;
+        this.requestSealingKey = requestSealingKey;
+        this.legacyCredentialFallback = legacyCredentialFallback;
+        this.mdsRefreshInterval = mdsRefreshInterval;
+        this.logSampleRate = logSampleRate;
+        this.metricsNamespace = metricsNamespace;
+        this.credentialStorage = credentialStorage;
+        this.jdbcUrl = jdbcUrl;
+        this.jdbcUsername = jdbcUsername;
+        this.jdbcPassword = jdbcPassword;
+        this.jdbcPoolSize = jdbcPoolSize;
+        this.signatureCountWriteBehind = signatureCountWriteBehind;
+        this.usernameFilterRefresh = usernameFilterRefresh;
     }
 
     private static Config instance;
     private static synchronized Config getInstance() {
         if (instance == null) {
-            instance = new Config(computeOrigins(), computePort(), computeRpIdentity());
+            instance = new Config(
+                computeOrigins(),
+                computePort(),
+                computeRpIdentity(),
+                computeCredentialCacheSize(),
+                computeCredentialCacheTtl(),
+                computeSharedCacheTable(),
+                computeRequestStorage(),
+                computeRequestTable(),
+                computeRequestTtl(),
+                computeRequestSealingKey(),
+                computeLegacyCredentialFallback(),
+                computeMdsRefreshInterval(),
+                computeLogSampleRate(),
+                computeMetricsNamespace(),
+                computeCredentialStorage(),
+                computeJdbcUrl(),
+                computeJdbcUsername(),
+                computeJdbcPassword(),
+                computeJdbcPoolSize(),
+                computeSignatureCountWriteBehind(),
+                computeUsernameFilterRefresh()
+            );
         }
         return instance;
     }
@@ -43,6 +134,141 @@ public class Config {
         return getInstance().rpIdentity;
     }
 
+    /**
+     * Maximum number of entries per key type in the in-process credential cache.
+     * Zero, the default, disables the cache: other containers' writes only
+     * reach its listings once they expire, see {@link CachingRegistrationStorage}.
+     */
+    public static long getCredentialCacheSize() {
+        return getInstance().credentialCacheSize;
+    }
+
+    /**
+     * How long credential cache entries live. For up to this long, a
+     * container's in-process listings of a user may still contain a credential
+     * removed by another container, or lack one registered by another
+     * container. Assertions and the removal or renaming of a credential are
+     * not affected, since they read the credential past the in-process cache.
+     */
+    public static Duration getCredentialCacheTtl() {
+        return getInstance().credentialCacheTtl;
+    }
+
+    /**
+     * DynamoDB table used as the shared credential cache tier, if any.
+     */
+    public static Optional<String> getSharedCacheTable() {
+        return getInstance().sharedCacheTable;
+    }
+
+    /**
+     * Backend for in-flight requests: <code>rds</code>, <code>jdbc</code>,
+     * <code>dynamodb</code>, <code>memory</code> or <code>sealed</code>.
+     */
+    public static String getRequestStorage() {
+        return getInstance().requestStorage;
+    }
+
+    public static Optional<String> getRequestTable() {
+        return getInstance().requestTable;
+    }
+
+    public static Duration getRequestTtl() {
+        return getInstance().requestTtl;
+    }
+
+    /**
+     * 256-bit AES key for <code>sealed</code> request storage.
+     */
+    public static Optional<byte[]> getRequestSealingKey() {
+        return getInstance().requestSealingKey;
+    }
+
+    /**
+     * Whether credential lookups also read the legacy
+     * <code>credentialRegistrations</code> table, for rows not yet in
+     * <code>webauthnCredentials</code>. Costs a query per lookup by username
+     * or user handle, so turn it off once all rows have been migrated.
+     */
+    public static boolean isLegacyCredentialFallback() {
+        return getInstance().legacyCredentialFallback;
+    }
+
+    /**
+     * How often the FIDO metadata BLOB is reloaded. The cached copy is only
+     * downloaded again once its next update date has passed.
+     */
+    public static Duration getMdsRefreshInterval() {
+        return getInstance().mdsRefreshInterval;
+    }
+
+    /**
+     * Fraction of requests, between 0 and 1, that log at DEBUG level
+     * whatever the configured level.
+     */
+    public static double getLogSampleRate() {
+        return getInstance().logSampleRate;
+    }
+
+    /**
+     * CloudWatch namespace of the Embedded Metric Format lines written per
+     * invocation; empty if they are turned off.
+     */
+    public static Optional<String> getMetricsNamespace() {
+        return getInstance().metricsNamespace;
+    }
+
+    /**
+     * Backend for credential registrations: <code>rds</code> for the RDS Data
+     * API or <code>jdbc</code> for direct connections to
+     * {@link #getJdbcUrl()}.
+     */
+    public static String getCredentialStorage() {
+        return getInstance().credentialStorage;
+    }
+
+    /**
+     * JDBC URL of the database, or of an RDS Proxy in front of it, for the
+     * <code>jdbc</code> backends.
+     */
+    public static Optional<String> getJdbcUrl() {
+        return getInstance().jdbcUrl;
+    }
+
+    public static Optional<String> getJdbcUsername() {
+        return getInstance().jdbcUsername;
+    }
+
+    public static Optional<String> getJdbcPassword() {
+        return getInstance().jdbcPassword;
+    }
+
+    /**
+     * Maximum connections per container. Lambda runs one invocation at a
+     * time, so this only needs to cover the concurrent operations of a batch.
+     */
+    public static int getJdbcPoolSize() {
+        return getInstance().jdbcPoolSize;
+    }
+
+    /**
+     * Interval for writing signature count updates in the background, see
+     * {@link WriteBehindRegistrationStorage}; empty if they are written before
+     * each response.
+     */
+    public static Optional<Duration> getSignatureCountWriteBehind() {
+        return getInstance().signatureCountWriteBehind;
+    }
+
+    /**
+     * How often the username filter, see {@link UsernameFilter}, may query
+     * for users registered by other containers; also the longest such a user
+     * may be turned away. Empty if the filter is off.
+     */
+    public static Optional<Duration> getUsernameFilterRefresh() {
+        return getInstance().usernameFilterRefresh;
+    }
+
     private static Set<String> computeOrigins() {
         // RVW: Remove the YUBICO_ prefix from env vars? Maybe even YUBICO_WEBAUTHN_ ?
         final Set<String> result = Stream.of(getEnv("YUBICO_WEBAUTHN_ALLOWED_ORIGINS").split(","))
@@ -59,6 +285,116 @@ public class Config {
             .orElse(DEFAULT_PORT);
     }
 
+    private static long computeCredentialCacheSize() {
+        return getOptionalEnv("YUBICO_WEBAUTHN_CREDENTIAL_CACHE_SIZE")
+            .map(Long::parseLong)
+            .orElse(DEFAULT_CREDENTIAL_CACHE_SIZE);
+    }
+
+    private static Duration computeCredentialCacheTtl() {
+        return getOptionalEnv("YUBICO_WEBAUTHN_CREDENTIAL_CACHE_TTL_SECONDS")
+            .map(Long::parseLong)
+            .map(Duration::ofSeconds)
+            .orElse(DEFAULT_CREDENTIAL_CACHE_TTL);
+    }
+
+    private static Optional<String> computeSharedCacheTable() {
+        return getOptionalEnv("YUBICO_WEBAUTHN_SHARED_CACHE_TABLE")
+            .filter(table -> !table.isEmpty());
+    }
+
+    private static String computeRequestStorage() {
+        return getOptionalEnv("YUBICO_WEBAUTHN_REQUEST_STORAGE")
+            .filter(storage -> !storage.isEmpty())
+            .orElse(DEFAULT_REQUEST_STORAGE);
+    }
+
+    private static Optional<String> computeRequestTable() {
+        return getOptionalEnv("YUBICO_WEBAUTHN_REQUEST_TABLE")
+            .filter(table -> !table.isEmpty());
+    }
+
+    private static Duration computeRequestTtl() {
+        return getOptionalEnv("YUBICO_WEBAUTHN_REQUEST_TTL_SECONDS")
+            .map(Long::parseLong)
+            .map(Duration::ofSeconds)
+            .orElse(DEFAULT_REQUEST_TTL);
+    }
+
+    private static boolean computeLegacyCredentialFallback() {
+        return getOptionalEnv("YUBICO_WEBAUTHN_LEGACY_CREDENTIAL_FALLBACK")
+            .map(Boolean::parseBoolean)
+            .orElse(true);
+    }
+
+    private static Duration computeMdsRefreshInterval() {
+        return getOptionalEnv("YUBICO_WEBAUTHN_MDS_REFRESH_INTERVAL_SECONDS")
+            .map(Long::parseLong)
+            .map(Duration::ofSeconds)
+            .orElse(DEFAULT_MDS_REFRESH_INTERVAL);
+    }
+
+    private static double computeLogSampleRate() {
+        return getOptionalEnv("YUBICO_WEBAUTHN_LOG_SAMPLE_RATE")
+            .map(Double::parseDouble)
+            .orElse(DEFAULT_LOG_SAMPLE_RATE);
+    }
+
+    private static Optional<String> computeMetricsNamespace() {
+        // Set to an empty string to turn metrics off
+        return Optional.of(getOptionalEnv("YUBICO_WEBAUTHN_METRICS_NAMESPACE").orElse(DEFAULT_METRICS_NAMESPACE))
+            .filter(namespace -> !namespace.isEmpty());
+    }
+
+    private static String computeCredentialStorage() {
+        return getOptionalEnv("YUBICO_WEBAUTHN_CREDENTIAL_STORAGE")
+            .filter(storage -> !storage.isEmpty())
+            .orElse(DEFAULT_CREDENTIAL_STORAGE);
+    }
+
+    private static Optional<String> computeJdbcUrl() {
+        return getOptionalEnv("YUBICO_WEBAUTHN_JDBC_URL")
+            .filter(url -> !url.isEmpty());
+    }
+
+    private static Optional<String> computeJdbcUsername() {
+        return getOptionalEnv("YUBICO_WEBAUTHN_JDBC_USERNAME")
+            .filter(username -> !username.isEmpty());
+    }
+
+    private static Optional<String> computeJdbcPassword() {
+        // Not read through getOptionalEnv, which logs the value
+        return Optional.ofNullable(System.getenv("YUBICO_WEBAUTHN_JDBC_PASSWORD"))
+            .filter(password -> !password.isEmpty());
+    }
+
+    private static int computeJdbcPoolSize() {
+        return getOptionalEnv("YUBICO_WEBAUTHN_JDBC_POOL_SIZE")
+            .map(Integer::parseInt)
+            .orElse(DEFAULT_JDBC_POOL_SIZE);
+    }
+
+    private static Optional<Duration> computeUsernameFilterRefresh() {
+        return getOptionalEnv("YUBICO_WEBAUTHN_USERNAME_FILTER_REFRESH_MILLIS")
+            .map(Long::parseLong)
+            .filter(millis -> millis > 0)
+            .map(Duration::ofMillis);
+    }
+
+    private static Optional<Duration> computeSignatureCountWriteBehind() {
+        return getOptionalEnv("YUBICO_WEBAUTHN_SIGNATURE_COUNT_WRITE_BEHIND_MILLIS")
+            .map(Long::parseLong)
+            .filter(millis -> millis > 0)
+            .map(Duration::ofMillis);
+    }
+
+    private static Optional<byte[]> computeRequestSealingKey() {
+        // Not read through getOptionalEnv, which logs the value
+        return Optional.ofNullable(System.getenv("YUBICO_WEBAUTHN_REQUEST_SEALING_KEY"))
+            .filter(key -> !key.isEmpty())
+            .map(Base64.getDecoder()::decode);
+    }
+
     private static RelyingPartyIdentity computeRpIdentity() {
         final RelyingPartyIdentity result = RelyingPartyIdentity.builder()
             .id(getEnv("YUBICO_WEBAUTHN_RP_ID"))
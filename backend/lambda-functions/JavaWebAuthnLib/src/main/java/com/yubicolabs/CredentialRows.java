@@ -0,0 +1,120 @@
+package com.yubicolabs;
+
+import com.yubico.webauthn.RegisteredCredential;
+import com.yubico.webauthn.data.AuthenticatorTransport;
+import com.yubico.webauthn.data.ByteArray;
+import com.yubico.webauthn.data.exception.Base64UrlException;
+import com.yubicolabs.data.CredentialDTO;
+import com.yubicolabs.data.CredentialKey;
+import com.yubicolabs.data.CredentialKeyDTO;
+import com.yubicolabs.data.CredentialRegistration;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+
+/**
+ * Conversion between {@link CredentialRegistration} and the columns of
+ * <code>webauthnCredentials</code>, shared by the Data API and JDBC backends.
+ * The public key, signature count and timestamps are columns of their own;
+ * the rest of the registration is kept in <code>registration</code>, see
+ * {@link RegistrationBlobs}. The transports of the authenticator are repeated
+ * in <code>transports</code>, so that {@link CredentialKey}s can be read
+ * without the blob.
+ */
+final class CredentialRows {
+
+    static final String COLUMNS = "credentialId, userHandle, username, publicKeyCose, signatureCount, registrationTime, lastUsedTime, lastUpdatedTime, registration, transports";
+
+    /** The columns of {@link CredentialKey}, read without the blob. */
+    static final String KEY_COLUMNS = "credentialId, userHandle, username, transports";
+
+    private CredentialRows() {
+    }
+
+    static CredentialDTO rowOf(CredentialRegistration reg) {
+        // Columns are authoritative for these, so keep them out of the blob
+        CredentialRegistration residual = reg
+            .withCredential(null)
+            .withRegistrationTime(null)
+            .withLastUsedTime(null)
+            .withLastUpdatedTime(null);
+
+        CredentialDTO row = new CredentialDTO();
+        row.credentialId = reg.getCredential().getCredentialId().getBase64Url();
+        row.userHandle = reg.getUserIdentity().getId().getBase64Url();
+        row.username = reg.getUsername();
+        row.publicKeyCose = reg.getCredential().getPublicKeyCose().getBase64Url();
+        row.signatureCount = reg.getSignatureCount();
+        row.registrationTime = toEpochMilli(reg.getRegistrationTime());
+        row.lastUsedTime = toEpochMilli(reg.getLastUsedTime());
+        row.lastUpdatedTime = toEpochMilli(reg.getLastUpdatedTime());
+        row.registration = RegistrationBlobs.write(residual);
+        row.transports = transportsColumnOf(CredentialKey.transportsOf(reg));
+        return row;
+    }
+
+    static CredentialKey keyOf(CredentialKeyDTO row) {
+        return new CredentialKey(
+            fromBase64Url(row.credentialId),
+            fromBase64Url(row.userHandle),
+            row.username,
+            transportsOf(row.transports));
+    }
+
+    /**
+     * Transport IDs, comma separated; null if there are none.
+     */
+    static String transportsColumnOf(Set<AuthenticatorTransport> transports) {
+        if (transports == null || transports.isEmpty()) {
+            return null;
+        }
+        return transports.stream()
+            .map(AuthenticatorTransport::getId)
+            .sorted()
+            .collect(Collectors.joining(","));
+    }
+
+    static Set<AuthenticatorTransport> transportsOf(String column) {
+        if (column == null || column.isEmpty()) {
+            return Collections.emptySet();
+        }
+        return Arrays.stream(column.split(","))
+            .map(AuthenticatorTransport::of)
+            .collect(Collectors.toSet());
+    }
+
+    static CredentialRegistration registrationOf(CredentialDTO row) {
+        CredentialRegistration residual = RegistrationBlobs.read(row.registration);
+        return residual
+            .withSignatureCount(row.signatureCount)
+            .withRegistrationTime(ofEpochMilli(row.registrationTime))
+            .withLastUsedTime(ofEpochMilli(row.lastUsedTime))
+            .withLastUpdatedTime(ofEpochMilli(row.lastUpdatedTime))
+            .withCredential(RegisteredCredential.builder()
+                .credentialId(fromBase64Url(row.credentialId))
+                .userHandle(fromBase64Url(row.userHandle))
+                .publicKeyCose(fromBase64Url(row.publicKeyCose))
+                .signatureCount(row.signatureCount)
+                .build());
+    }
+
+    private static Long toEpochMilli(Instant instant) {
+        return instant == null ? null : instant.toEpochMilli();
+    }
+
+    private static Instant ofEpochMilli(Long epochMilli) {
+        return epochMilli == null ? null : Instant.ofEpochMilli(epochMilli);
+    }
+
+    private static ByteArray fromBase64Url(String value) {
+        try {
+            return ByteArray.fromBase64Url(value);
+        } catch (Base64UrlException e) {
+            throw new IllegalStateException("Malformed base64url value in webauthnCredentials", e);
+        }
+    }
+
+}
@@ -0,0 +1,125 @@
+package com.yubicolabs;
+
+import com.amazonaws.services.dynamodbv2.AmazonDynamoDB;
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.amazonaws.services.dynamodbv2.model.ConditionalCheckFailedException;
+import com.amazonaws.services.dynamodbv2.model.DeleteItemRequest;
+import com.amazonaws.services.dynamodbv2.model.GetItemRequest;
+import com.amazonaws.services.dynamodbv2.model.PutItemRequest;
+import com.amazonaws.services.dynamodbv2.model.ReturnValue;
+import java.time.Clock;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import lombok.extern.slf4j.Slf4j;
+
+
+/**
+ * {@link KeyValueStore} backed by a DynamoDB table with a string partition key
+ * {@code _key} and TTL enabled on the numeric {@code expiresAt} attribute.
+ */
+@Slf4j
+public class DynamoDBKeyValueStore implements KeyValueStore {
+
+    static final String KEY = "_key";
+    static final String VALUE = "_value";
+    static final String EXPIRES_AT = "expiresAt";
+
+    private final Clock clock = Clock.systemUTC();
+
+    private final AmazonDynamoDB client;
+    private final String tableName;
+
+    public DynamoDBKeyValueStore(String tableName) {
+        this(AwsClients.dynamoDB(), tableName);
+    }
+
+    public DynamoDBKeyValueStore(AmazonDynamoDB client, String tableName) {
+        this.client = client;
+        this.tableName = tableName;
+    }
+
+    @Override
+    public Optional<String> get(String key) {
+        Map<String, AttributeValue> item = client.getItem(new GetItemRequest()
+            .withTableName(tableName)
+            .withKey(keyOf(key)))
+            .getItem();
+        return valueOf(item);
+    }
+
+    @Override
+    public void put(String key, String value, Duration ttl) {
+        client.putItem(new PutItemRequest()
+            .withTableName(tableName)
+            .withItem(itemOf(key, value, ttl)));
+    }
+
+    @Override
+    public boolean putIfAbsent(String key, String value, Duration ttl) {
+        // Items past their TTL may not have been removed yet, so they count as absent
+        Map<String, String> names = new HashMap<>();
+        names.put("#key", KEY);
+        names.put("#expiresAt", EXPIRES_AT);
+        try {
+            client.putItem(new PutItemRequest()
+                .withTableName(tableName)
+                .withItem(itemOf(key, value, ttl))
+                .withConditionExpression("attribute_not_exists(#key) OR #expiresAt <= :now")
+                .withExpressionAttributeNames(names)
+                .withExpressionAttributeValues(Collections.singletonMap(":now",
+                    new AttributeValue().withN(Long.toString(clock.instant().getEpochSecond())))));
+            return true;
+        } catch (ConditionalCheckFailedException e) {
+            return false;
+        }
+    }
+
+    @Override
+    public void delete(String key) {
+        client.deleteItem(new DeleteItemRequest()
+            .withTableName(tableName)
+            .withKey(keyOf(key)));
+    }
+
+    @Override
+    public Optional<String> take(String key) {
+        Map<String, AttributeValue> item = client.deleteItem(new DeleteItemRequest()
+            .withTableName(tableName)
+            .withKey(keyOf(key))
+            .withReturnValues(ReturnValue.ALL_OLD))
+            .getAttributes();
+        return valueOf(item);
+    }
+
+    private Map<String, AttributeValue> itemOf(String key, String value, Duration ttl) {
+        Map<String, AttributeValue> item = new HashMap<>(keyOf(key));
+        item.put(VALUE, new AttributeValue().withS(value));
+        item.put(EXPIRES_AT, new AttributeValue().withN(
+            Long.toString(clock.instant().plus(ttl).getEpochSecond())));
+        return item;
+    }
+
+    Map<String, AttributeValue> keyOf(String key) {
+        return Collections.singletonMap(KEY, new AttributeValue().withS(key));
+    }
+
+    /**
+     * DynamoDB removes expired items lazily, so an item may still be returned
+     * for a while after its TTL has passed.
+     */
+    Optional<String> valueOf(Map<String, AttributeValue> item) {
+        if (item == null || !item.containsKey(VALUE)) {
+            return Optional.empty();
+        }
+        AttributeValue expiresAt = item.get(EXPIRES_AT);
+        if (expiresAt != null && Long.parseLong(expiresAt.getN()) <= clock.instant().getEpochSecond()) {
+            log.debug("Ignoring expired item in {}", tableName);
+            return Optional.empty();
+        }
+        return Optional.of(item.get(VALUE).getS());
+    }
+
+}
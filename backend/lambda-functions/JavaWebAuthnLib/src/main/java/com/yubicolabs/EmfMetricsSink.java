@@ -0,0 +1,67 @@
+package com.yubicolabs;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import java.io.PrintStream;
+import java.time.Clock;
+import java.util.Map;
+
+
+/**
+ * Writes each invocation's metrics as one CloudWatch Embedded Metric Format
+ * line to standard output, from where Lambda ships it to CloudWatch Logs and
+ * CloudWatch extracts the metrics, with the request type as dimension.
+ *
+ * @see <a href="https://docs.aws.amazon.com/AmazonCloudWatch/latest/monitoring/CloudWatch_Embedded_Metric_Format_Specification.html">Embedded Metric Format</a>
+ */
+public class EmfMetricsSink implements MetricsSink {
+
+    private static final String DIMENSION = "type";
+
+    private final ObjectMapper jsonMapper = Codecs.json();
+    private final String namespace;
+    private final PrintStream out;
+    private final Clock clock;
+
+    public EmfMetricsSink(String namespace) {
+        this(namespace, System.out, Clock.systemUTC());
+    }
+
+    EmfMetricsSink(String namespace, PrintStream out, Clock clock) {
+        this.namespace = namespace;
+        this.out = out;
+        this.clock = clock;
+    }
+
+    @Override
+    public void emit(String requestType, Map<String, Double> millis, Map<String, Long> counts) {
+        out.println(render(requestType, millis, counts));
+    }
+
+    String render(String requestType, Map<String, Double> millis, Map<String, Long> counts) {
+        ObjectNode line = jsonMapper.createObjectNode();
+        ArrayNode metrics = jsonMapper.createArrayNode();
+
+        line.put(DIMENSION, requestType);
+        millis.forEach((name, value) -> {
+            metrics.addObject().put("Name", name).put("Unit", "Milliseconds");
+            line.put(name, value);
+        });
+        counts.forEach((name, value) -> {
+            metrics.addObject().put("Name", name).put("Unit", name.endsWith("Bytes") ? "Bytes" : "Count");
+            line.put(name, value);
+        });
+
+        ObjectNode directive = jsonMapper.createObjectNode();
+        directive.put("Namespace", namespace);
+        directive.putArray("Dimensions").addArray().add(DIMENSION);
+        directive.set("Metrics", metrics);
+
+        ObjectNode aws = line.putObject("_aws");
+        aws.put("Timestamp", clock.millis());
+        aws.putArray("CloudWatchMetrics").add(directive);
+        return line.toString();
+    }
+
+}
@@ -0,0 +1,55 @@
+package com.yubicolabs;
+
+import java.time.Duration;
+import lombok.Value;
+import lombok.extern.slf4j.Slf4j;
+
+
+/**
+ * Deletes expired registration and assertion requests in bounded batches,
+ * pausing between batches so the sweep does not compete with logins for the
+ * database. Invoked on a schedule rather than from the ceremony handlers.
+ */
+@Slf4j
+public class ExpiredRequestSweeper {
+
+    private final RequestStorage<?> registrationRequests;
+    private final RequestStorage<?> assertionRequests;
+
+    public ExpiredRequestSweeper(RequestStorage<?> registrationRequests, RequestStorage<?> assertionRequests) {
+        this.registrationRequests = registrationRequests;
+        this.assertionRequests = assertionRequests;
+    }
+
+    public Result sweep(Duration maxAge, int batchSize, int maxBatches, Duration pause) {
+        int registrations = sweep("registrationRequests", registrationRequests, maxAge, batchSize, maxBatches, pause);
+        int assertions = sweep("assertionRequests", assertionRequests, maxAge, batchSize, maxBatches, pause);
+        return new Result(registrations, assertions);
+    }
+
+    private int sweep(String name, RequestStorage<?> storage, Duration maxAge, int batchSize, int maxBatches, Duration pause) {
+        int total = 0;
+        for (int batch = 0; batch < maxBatches; batch++) {
+            int removed = storage.removeExpired(maxAge, batchSize);
+            total += removed;
+            if (removed < batchSize) {
+                break;
+            }
+            try {
+                Thread.sleep(pause.toMillis());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        log.info("Removed {} expired {}", total, name);
+        return total;
+    }
+
+    @Value
+    public static class Result {
+        int registrationRequests;
+        int assertionRequests;
+    }
+
+}
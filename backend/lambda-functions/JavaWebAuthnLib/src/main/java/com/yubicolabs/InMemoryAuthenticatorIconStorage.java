@@ -0,0 +1,27 @@
+package com.yubicolabs;
+
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+
+/**
+ * Process-local {@link AuthenticatorIconStorage}, for tests and for credential
+ * storage in memory.
+ */
+public class InMemoryAuthenticatorIconStorage implements AuthenticatorIconStorage {
+
+    private final ConcurrentMap<String, String> icons = new ConcurrentHashMap<>();
+
+    @Override
+    public Optional<String> get(String aaguid) {
+        return Optional.ofNullable(icons.get(aaguid));
+    }
+
+    @Override
+    public String putIfAbsent(String aaguid, String icon) {
+        String stored = icons.putIfAbsent(aaguid, icon);
+        return stored == null ? icon : stored;
+    }
+
+}
@@ -0,0 +1,97 @@
+package com.yubicolabs;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import lombok.Value;
+
+
+/**
+ * Process-local {@link KeyValueStore}. Expired entries are dropped when read and
+ * by {@link #removeExpired(int)}.
+ *
+ * <p>Only suitable where one container serves both halves of a ceremony, for
+ * example in tests or with reserved concurrency of one.
+ */
+public class InMemoryKeyValueStore implements KeyValueStore {
+
+    private final Clock clock;
+
+    private final ConcurrentMap<String, Entry> entries = new ConcurrentHashMap<>();
+
+    public InMemoryKeyValueStore() {
+        this(Clock.systemUTC());
+    }
+
+    InMemoryKeyValueStore(Clock clock) {
+        this.clock = clock;
+    }
+
+    @Override
+    public Optional<String> get(String key) {
+        return live(key, entries.get(key));
+    }
+
+    @Override
+    public void put(String key, String value, Duration ttl) {
+        entries.put(key, new Entry(value, clock.instant().plus(ttl)));
+    }
+
+    @Override
+    public boolean putIfAbsent(String key, String value, Duration ttl) {
+        Instant now = clock.instant();
+        Entry entry = new Entry(value, now.plus(ttl));
+        Entry existing = entries.putIfAbsent(key, entry);
+        if (existing == null) {
+            return true;
+        }
+        return !existing.expiresAt.isAfter(now) && entries.replace(key, existing, entry);
+    }
+
+    @Override
+    public void delete(String key) {
+        entries.remove(key);
+    }
+
+    @Override
+    public Optional<String> take(String key) {
+        return live(key, entries.remove(key));
+    }
+
+    @Override
+    public int removeExpired(int limit) {
+        Instant now = clock.instant();
+        int removed = 0;
+        for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+            if (removed >= limit) {
+                break;
+            }
+            if (!entry.getValue().expiresAt.isAfter(now) && entries.remove(entry.getKey(), entry.getValue())) {
+                removed++;
+            }
+        }
+        return removed;
+    }
+
+    private Optional<String> live(String key, Entry entry) {
+        if (entry == null) {
+            return Optional.empty();
+        }
+        if (!entry.expiresAt.isAfter(clock.instant())) {
+            entries.remove(key, entry);
+            return Optional.empty();
+        }
+        return Optional.of(entry.value);
+    }
+
+    @Value
+    private static class Entry {
+        String value;
+        Instant expiresAt;
+    }
+
+}
@@ -0,0 +1,36 @@
+package com.yubicolabs;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import lombok.Value;
+
+
+/**
+ * Keeps the emitted metrics, for tests and benchmarks.
+ */
+public class InMemoryMetricsSink implements MetricsSink {
+
+    @Value
+    public static class Emitted {
+        String requestType;
+        Map<String, Double> millis;
+        Map<String, Long> counts;
+    }
+
+    private final List<Emitted> emitted = new CopyOnWriteArrayList<>();
+
+    @Override
+    public void emit(String requestType, Map<String, Double> millis, Map<String, Long> counts) {
+        emitted.add(new Emitted(requestType, millis, counts));
+    }
+
+    public List<Emitted> getEmitted() {
+        return emitted;
+    }
+
+    public void clear() {
+        emitted.clear();
+    }
+
+}
@@ -0,0 +1,174 @@
+package com.yubicolabs;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.yubico.internal.util.CollectionUtil;
+import com.yubico.webauthn.AssertionResult;
+import com.yubico.webauthn.RegisteredCredential;
+import com.yubico.webauthn.data.ByteArray;
+import com.yubico.webauthn.data.PublicKeyCredentialDescriptor;
+import com.yubicolabs.data.CredentialRegistration;
+import java.time.Clock;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.NoSuchElementException;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import lombok.extern.slf4j.Slf4j;
+
+
+/**
+ * Process-local {@link RegistrationStorage}, used by tests and for running the
+ * function without a database.
+ */
+@Slf4j
+public class InMemoryRegistrationStorage implements RegistrationStorage {
+
+    private final Clock clock = Clock.systemDefaultZone();
+
+    private final Cache<String, Set<CredentialRegistration>> storage = CacheBuilder.newBuilder()
+        .maximumSize(1000)
+        .expireAfterAccess(1, TimeUnit.DAYS)
+        .build();
+
+    @Override
+    public synchronized boolean addRegistrationByUsername(String username, CredentialRegistration reg) {
+        try {
+            return storage.get(username, HashSet::new).add(reg);
+        } catch (ExecutionException e) {
+            log.error("Failed to add registration", e);
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    public synchronized Set<PublicKeyCredentialDescriptor> getCredentialIdsForUsername(String username) {
+        return getRegistrationsByUsername(username).stream()
+            .map(registration -> PublicKeyCredentialDescriptor.builder()
+                .id(registration.getCredential().getCredentialId())
+                .build())
+            .collect(Collectors.toSet());
+    }
+
+    @Override
+    public synchronized Collection<CredentialRegistration> getRegistrationsByUsername(String username) {
+        Set<CredentialRegistration> registrations = storage.getIfPresent(username);
+        return registrations == null ? new HashSet<>() : new HashSet<>(registrations);
+    }
+
+    @Override
+    public synchronized Collection<CredentialRegistration> getRegistrationsByUserHandle(ByteArray userHandle) {
+        return storage.asMap().values().stream()
+            .flatMap(Collection::stream)
+            .filter(registration -> userHandle.equals(registration.getUserIdentity().getId()))
+            .collect(Collectors.toList());
+    }
+
+    @Override
+    public synchronized Collection<CredentialRegistration> getRegistrationsByCredentialId(ByteArray credentialId) {
+        return storage.asMap().values().stream()
+            .flatMap(Collection::stream)
+            .filter(registration -> credentialId.equals(registration.getCredential().getCredentialId()))
+            .collect(Collectors.toList());
+    }
+
+    @Override
+    public synchronized Optional<String> getUsernameForUserHandle(ByteArray userHandle) {
+        return getRegistrationsByUserHandle(userHandle).stream()
+            .findAny()
+            .map(CredentialRegistration::getUsername);
+    }
+
+    @Override
+    public synchronized Optional<ByteArray> getUserHandleForUsername(String username) {
+        return getRegistrationsByUsername(username).stream()
+            .findAny()
+            .map(reg -> reg.getUserIdentity().getId());
+    }
+
+    @Override
+    public synchronized void updateSignatureCount(AssertionResult result) {
+        CredentialRegistration registration = getRegistrationByUsernameAndCredentialId(result.getUsername(), result.getCredentialId())
+            .orElseThrow(() -> new NoSuchElementException(String.format(
+                "Credential \"%s\" is not registered to user \"%s\"",
+                result.getCredentialId(), result.getUsername()
+            )));
+
+        Set<CredentialRegistration> regs = storage.getIfPresent(result.getUsername());
+        regs.remove(registration);
+        regs.add(registration.withSignatureCount(result.getSignatureCount()).withLastUsedTime(clock.instant()));
+    }
+
+    @Override
+    public synchronized boolean updateRegistration(String username, ByteArray credentialId, CredentialRegistration reg) {
+        Set<CredentialRegistration> regs = storage.getIfPresent(username);
+        if (regs == null || !regs.removeIf(credReg -> credentialId.equals(credReg.getCredential().getCredentialId()))) {
+            return false;
+        }
+        return regs.add(reg);
+    }
+
+    @Override
+    public synchronized void updateCredentialNickname(String username, ByteArray credentialId, String nickname) {
+        CredentialRegistration registration = getRegistrationByUsernameAndCredentialId(username, credentialId)
+            .orElseThrow(() -> new NoSuchElementException(String.format(
+                "Credential \"%s\" is not registered to user \"%s\"",
+                credentialId, username
+            )));
+
+        Set<CredentialRegistration> regs = storage.getIfPresent(username);
+        regs.remove(registration);
+        regs.add(registration
+            .withCredentialNickname(Optional.of(nickname))
+            .withLastUpdatedTime(clock.instant()));
+    }
+
+    @Override
+    public synchronized Optional<CredentialRegistration> getRegistrationByUsernameAndCredentialId(String username, ByteArray id) {
+        return getRegistrationsByUsername(username).stream()
+            .filter(credReg -> id.equals(credReg.getCredential().getCredentialId()))
+            .findFirst();
+    }
+
+    @Override
+    public synchronized boolean removeRegistrationByUsername(String username, CredentialRegistration credentialRegistration) {
+        Set<CredentialRegistration> regs = storage.getIfPresent(username);
+        return regs != null && regs.removeIf(reg -> reg.getCredential().getCredentialId()
+            .equals(credentialRegistration.getCredential().getCredentialId()));
+    }
+
+    @Override
+    public synchronized boolean removeAllRegistrations(String username) {
+        storage.invalidate(username);
+        return true;
+    }
+
+    @Override
+    public synchronized Optional<RegisteredCredential> lookup(ByteArray credentialId, ByteArray userHandle) {
+        return getRegistrationsByCredentialId(credentialId).stream()
+            .findAny()
+            .map(registration -> RegisteredCredential.builder()
+                .credentialId(registration.getCredential().getCredentialId())
+                .userHandle(registration.getUserIdentity().getId())
+                .publicKeyCose(registration.getCredential().getPublicKeyCose())
+                .signatureCount(registration.getSignatureCount())
+                .build());
+    }
+
+    @Override
+    public synchronized Set<RegisteredCredential> lookupAll(ByteArray credentialId) {
+        return CollectionUtil.immutableSet(
+            getRegistrationsByCredentialId(credentialId).stream()
+                .map(reg -> RegisteredCredential.builder()
+                    .credentialId(reg.getCredential().getCredentialId())
+                    .userHandle(reg.getUserIdentity().getId())
+                    .publicKeyCose(reg.getCredential().getPublicKeyCose())
+                    .signatureCount(reg.getSignatureCount())
+                    .build())
+                .collect(Collectors.toSet()));
+    }
+
+}
@@ -0,0 +1,148 @@
+package com.yubicolabs;
+
+import com.yubico.webauthn.AssertionResult;
+import com.yubico.webauthn.RegisteredCredential;
+import com.yubico.webauthn.data.ByteArray;
+import com.yubico.webauthn.data.PublicKeyCredentialDescriptor;
+import com.yubicolabs.data.CredentialKey;
+import com.yubicolabs.data.CredentialRegistration;
+import java.util.Collection;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+
+
+/**
+ * Times every call to another {@link RegistrationStorage} as phase
+ * <code>storage.&lt;method&gt;</code> and counts them in
+ * <code>storageCalls</code>.
+ */
+public class InstrumentedRegistrationStorage implements RegistrationStorage {
+
+    static final String CALLS = "storageCalls";
+
+    private final RegistrationStorage delegate;
+    private final Metrics metrics;
+
+    public InstrumentedRegistrationStorage(RegistrationStorage delegate, Metrics metrics) {
+        this.delegate = delegate;
+        this.metrics = metrics;
+    }
+
+    private <T> T call(String method, Metrics.Phase<T, RuntimeException> phase) {
+        metrics.count(CALLS, 1);
+        return metrics.time("storage." + method, phase);
+    }
+
+    @Override
+    public boolean addRegistrationByUsername(String username, CredentialRegistration reg) {
+        return call("addRegistrationByUsername", () -> delegate.addRegistrationByUsername(username, reg));
+    }
+
+    @Override
+    public Collection<CredentialRegistration> getRegistrationsByUsername(String username) {
+        return call("getRegistrationsByUsername", () -> delegate.getRegistrationsByUsername(username));
+    }
+
+    @Override
+    public Optional<CredentialRegistration> getRegistrationByUsernameAndCredentialId(String username, ByteArray id) {
+        return call("getRegistrationByUsernameAndCredentialId",
+            () -> delegate.getRegistrationByUsernameAndCredentialId(username, id));
+    }
+
+    @Override
+    public Collection<CredentialRegistration> getRegistrationsByUserHandle(ByteArray userHandle) {
+        return call("getRegistrationsByUserHandle", () -> delegate.getRegistrationsByUserHandle(userHandle));
+    }
+
+    @Override
+    public Collection<CredentialRegistration> getRegistrationsByCredentialId(ByteArray credentialId) {
+        return call("getRegistrationsByCredentialId", () -> delegate.getRegistrationsByCredentialId(credentialId));
+    }
+
+    @Override
+    public Map<String, Collection<CredentialRegistration>> getRegistrationsByUsernames(Collection<String> usernames) {
+        return call("getRegistrationsByUsernames", () -> delegate.getRegistrationsByUsernames(usernames));
+    }
+
+    @Override
+    public Collection<CredentialKey> getCredentialKeysByUsername(String username) {
+        return call("getCredentialKeysByUsername", () -> delegate.getCredentialKeysByUsername(username));
+    }
+
+    @Override
+    public Collection<CredentialKey> getCredentialKeysByUserHandle(ByteArray userHandle) {
+        return call("getCredentialKeysByUserHandle", () -> delegate.getCredentialKeysByUserHandle(userHandle));
+    }
+
+    @Override
+    public boolean userExists(String username) {
+        return call("userExists", () -> delegate.userExists(username));
+    }
+
+    @Override
+    public boolean removeRegistrationByUsername(String username, CredentialRegistration credentialRegistration) {
+        return call("removeRegistrationByUsername",
+            () -> delegate.removeRegistrationByUsername(username, credentialRegistration));
+    }
+
+    @Override
+    public boolean removeAllRegistrations(String username) {
+        return call("removeAllRegistrations", () -> delegate.removeAllRegistrations(username));
+    }
+
+    @Override
+    public void updateSignatureCount(AssertionResult result) {
+        call("updateSignatureCount", () -> {
+            delegate.updateSignatureCount(result);
+            return null;
+        });
+    }
+
+    @Override
+    public void updateSignatureCounts(Collection<AssertionResult> results) {
+        call("updateSignatureCounts", () -> {
+            delegate.updateSignatureCounts(results);
+            return null;
+        });
+    }
+
+    @Override
+    public boolean updateRegistration(String username, ByteArray credentialId, CredentialRegistration reg) {
+        return call("updateRegistration", () -> delegate.updateRegistration(username, credentialId, reg));
+    }
+
+    @Override
+    public void updateCredentialNickname(String username, ByteArray credentialId, String nickname) {
+        call("updateCredentialNickname", () -> {
+            delegate.updateCredentialNickname(username, credentialId, nickname);
+            return null;
+        });
+    }
+
+    @Override
+    public Set<PublicKeyCredentialDescriptor> getCredentialIdsForUsername(String username) {
+        return call("getCredentialIdsForUsername", () -> delegate.getCredentialIdsForUsername(username));
+    }
+
+    @Override
+    public Optional<ByteArray> getUserHandleForUsername(String username) {
+        return call("getUserHandleForUsername", () -> delegate.getUserHandleForUsername(username));
+    }
+
+    @Override
+    public Optional<String> getUsernameForUserHandle(ByteArray userHandle) {
+        return call("getUsernameForUserHandle", () -> delegate.getUsernameForUserHandle(userHandle));
+    }
+
+    @Override
+    public Optional<RegisteredCredential> lookup(ByteArray credentialId, ByteArray userHandle) {
+        return call("lookup", () -> delegate.lookup(credentialId, userHandle));
+    }
+
+    @Override
+    public Set<RegisteredCredential> lookupAll(ByteArray credentialId) {
+        return call("lookupAll", () -> delegate.lookupAll(credentialId));
+    }
+
+}
@@ -0,0 +1,56 @@
+package com.yubicolabs;
+
+import com.yubico.webauthn.data.ByteArray;
+import java.time.Duration;
+
+
+/**
+ * Times every call to another {@link RequestStorage} as phase
+ * <code>&lt;name&gt;.&lt;method&gt;</code> and counts them in
+ * <code>requestStorageCalls</code>.
+ */
+public class InstrumentedRequestStorage<V> implements RequestStorage<V> {
+
+    static final String CALLS = "requestStorageCalls";
+
+    private final RequestStorage<V> delegate;
+    private final String name;
+    private final Metrics metrics;
+
+    public InstrumentedRequestStorage(RequestStorage<V> delegate, String name, Metrics metrics) {
+        this.delegate = delegate;
+        this.name = name;
+        this.metrics = metrics;
+    }
+
+    private <T> T call(String method, Metrics.Phase<T, RuntimeException> phase) {
+        metrics.count(CALLS, 1);
+        return metrics.time(name + "." + method, phase);
+    }
+
+    @Override
+    public ByteArray issue(ByteArray key, V value) {
+        return call("issue", () -> delegate.issue(key, value));
+    }
+
+    @Override
+    public V getIfPresent(ByteArray key) {
+        return call("getIfPresent", () -> delegate.getIfPresent(key));
+    }
+
+    @Override
+    public boolean invalidate(ByteArray key) {
+        return call("invalidate", () -> delegate.invalidate(key));
+    }
+
+    @Override
+    public V take(ByteArray key) {
+        return call("take", () -> delegate.take(key));
+    }
+
+    @Override
+    public int removeExpired(Duration maxAge, int limit) {
+        return call("removeExpired", () -> delegate.removeExpired(maxAge, limit));
+    }
+
+}
@@ -0,0 +1,32 @@
+package com.yubicolabs;
+
+import java.util.Optional;
+
+
+/**
+ * {@link AuthenticatorIconStorage} in the <code>authenticatorIcons</code> table
+ * over JDBC, with the same rows as {@link RdsAuthenticatorIconStorage}.
+ */
+public class JdbcAuthenticatorIconStorage implements AuthenticatorIconStorage {
+
+    private final JdbcDatabase database;
+
+    public JdbcAuthenticatorIconStorage(JdbcDatabase database) {
+        this.database = database;
+    }
+
+    @Override
+    public Optional<String> get(String aaguid) {
+        return database.query("SELECT icon FROM authenticatorIcons WHERE aaguid = ?",
+                row -> row.getString("icon"), aaguid)
+            .stream()
+            .findFirst();
+    }
+
+    @Override
+    public String putIfAbsent(String aaguid, String icon) {
+        database.update("INSERT IGNORE INTO authenticatorIcons (aaguid, icon) VALUES (?, ?)", aaguid, icon);
+        return get(aaguid).orElse(icon);
+    }
+
+}
@@ -0,0 +1,131 @@
+package com.yubicolabs;
+
+import com.zaxxer.hikari.HikariConfig;
+import com.zaxxer.hikari.HikariDataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import javax.sql.DataSource;
+
+
+/**
+ * The Aurora database of the JDBC storage classes, reached over pooled
+ * connections. One instance is injected into all of them.
+ */
+public class JdbcDatabase {
+
+    @FunctionalInterface
+    public interface RowMapper<T> {
+        T map(ResultSet row) throws SQLException;
+    }
+
+    private final DataSource dataSource;
+
+    public JdbcDatabase(DataSource dataSource) {
+        this.dataSource = dataSource;
+    }
+
+    /**
+     * A small pool for {@link Config#getJdbcUrl()}, set up to work behind RDS
+     * Proxy: prepared statements are cached on the client rather than the
+     * server, since server-side statements pin the proxy connection, and
+     * session state is tracked locally instead of queried. Connections are
+     * validated before use, so that those in a SnapStart snapshot are
+     * replaced, and retired before the proxy or server would drop them.
+     */
+    public static JdbcDatabase fromConfig() {
+        HikariConfig config = new HikariConfig();
+        config.setPoolName("webauthn-jdbc");
+        config.setJdbcUrl(Config.getJdbcUrl().orElseThrow(() -> new IllegalStateException(
+            "YUBICO_WEBAUTHN_JDBC_URL is required for jdbc storage")));
+        Config.getJdbcUsername().ifPresent(config::setUsername);
+        Config.getJdbcPassword().ifPresent(config::setPassword);
+        config.setMaximumPoolSize(Config.getJdbcPoolSize());
+        config.setMinimumIdle(1);
+        config.setConnectionTimeout(TimeUnit.SECONDS.toMillis(2));
+        config.setValidationTimeout(TimeUnit.SECONDS.toMillis(1));
+        config.setMaxLifetime(TimeUnit.MINUTES.toMillis(10));
+        // Open connections on first use rather than failing initialization
+        config.setInitializationFailTimeout(-1);
+
+        config.addDataSourceProperty("cachePrepStmts", "true");
+        config.addDataSourceProperty("prepStmtCacheSize", "64");
+        config.addDataSourceProperty("prepStmtCacheSqlLimit", "2048");
+        config.addDataSourceProperty("useServerPrepStmts", "false");
+        config.addDataSourceProperty("useLocalSessionState", "true");
+        config.addDataSourceProperty("cacheServerConfiguration", "true");
+        config.addDataSourceProperty("elideSetAutoCommits", "true");
+        config.addDataSourceProperty("rewriteBatchedStatements", "true");
+        config.addDataSourceProperty("tcpKeepAlive", "true");
+        config.addDataSourceProperty("connectTimeout", "2000");
+        config.addDataSourceProperty("socketTimeout", "10000");
+        return new JdbcDatabase(new HikariDataSource(config));
+    }
+
+    public <T> List<T> query(String sql, RowMapper<T> mapper, Object... params) {
+        try (Connection connection = dataSource.getConnection();
+             PreparedStatement statement = prepare(connection, sql, params);
+             ResultSet rows = statement.executeQuery()) {
+            List<T> result = new ArrayList<>();
+            while (rows.next()) {
+                result.add(mapper.map(rows));
+            }
+            return result;
+        } catch (SQLException e) {
+            throw new RuntimeException("Query failed: " + sql, e);
+        }
+    }
+
+    /**
+     * @return the number of rows changed
+     */
+    public int update(String sql, Object... params) {
+        try (Connection connection = dataSource.getConnection();
+             PreparedStatement statement = prepare(connection, sql, params)) {
+            return statement.executeUpdate();
+        } catch (SQLException e) {
+            throw new RuntimeException("Update failed: " + sql, e);
+        }
+    }
+
+    /**
+     * Runs one statement once per parameter set, in a single round trip.
+     */
+    public void batch(String sql, List<Object[]> paramSets) {
+        if (paramSets.isEmpty()) {
+            return;
+        }
+        try (Connection connection = dataSource.getConnection();
+             PreparedStatement statement = connection.prepareStatement(sql)) {
+            for (Object[] params : paramSets) {
+                bind(statement, params);
+                statement.addBatch();
+            }
+            statement.executeBatch();
+        } catch (SQLException e) {
+            throw new RuntimeException("Batch failed: " + sql, e);
+        }
+    }
+
+    private static PreparedStatement prepare(Connection connection, String sql, Object[] params) throws SQLException {
+        PreparedStatement statement = connection.prepareStatement(sql);
+        try {
+            bind(statement, params);
+            return statement;
+        } catch (SQLException e) {
+            statement.close();
+            throw e;
+        }
+    }
+
+    private static void bind(PreparedStatement statement, Object[] params) throws SQLException {
+        for (int i = 0; i < params.length; i++) {
+            statement.setObject(i + 1, params[i]);
+        }
+    }
+
+}
@@ -0,0 +1,302 @@
+package com.yubicolabs;
+
+import com.yubico.internal.util.CollectionUtil;
+import com.yubico.webauthn.AssertionResult;
+import com.yubico.webauthn.RegisteredCredential;
+import com.yubico.webauthn.data.ByteArray;
+import com.yubico.webauthn.data.PublicKeyCredentialDescriptor;
+import com.yubicolabs.data.CredentialDTO;
+import com.yubicolabs.data.CredentialKey;
+import com.yubicolabs.data.CredentialKeyDTO;
+import com.yubicolabs.data.CredentialRegistration;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.Clock;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Optional;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.stream.Collectors;
+
+
+/**
+ * Credential storage in the <code>webauthnCredentials</code> table over JDBC,
+ * with the same rows as {@link RDSRegistrationStorage}. Does not read the
+ * legacy <code>credentialRegistrations</code> table; run
+ * <code>migrateLegacyRegistrations</code> with the <code>rds</code> backend
+ * before switching.
+ */
+public class JdbcRegistrationStorage implements RegistrationStorage, UsernameSource {
+
+    private static final int MAX_IN_LIST = 100;
+
+    private static final String SELECT = "SELECT " + CredentialRows.COLUMNS + " FROM webauthnCredentials";
+    private static final String SELECT_KEYS = "SELECT " + CredentialRows.KEY_COLUMNS + " FROM webauthnCredentials";
+
+    private final Clock clock = Clock.systemDefaultZone();
+
+    private final JdbcDatabase database;
+
+    public JdbcRegistrationStorage(JdbcDatabase database) {
+        this.database = database;
+    }
+
+    @Override
+    public Collection<CredentialRegistration> getRegistrationsByCredentialId(ByteArray credentialId) {
+        return select(SELECT + " WHERE credentialId = ?", credentialId.getBase64Url());
+    }
+
+    @Override
+    public Collection<CredentialRegistration> getRegistrationsByUsername(String username) {
+        return select(SELECT + " WHERE username = ?", username);
+    }
+
+    @Override
+    public Collection<CredentialRegistration> getRegistrationsByUserHandle(ByteArray userHandle) {
+        return select(SELECT + " WHERE userHandle = ?", userHandle.getBase64Url());
+    }
+
+    @Override
+    public boolean userExists(String username) {
+        return !database.query("SELECT username FROM webauthnCredentials WHERE username = ? LIMIT 1",
+            rs -> rs.getString(1), username).isEmpty();
+    }
+
+    @Override
+    public long usernameCount() {
+        return database.query("SELECT COUNT(DISTINCT username) FROM webauthnCredentials",
+            rs -> rs.getLong(1)).get(0);
+    }
+
+    @Override
+    public List<String> usernamesAfter(String after, int limit) {
+        return database.query(
+            "SELECT DISTINCT username FROM webauthnCredentials WHERE username > ? ORDER BY username LIMIT ?",
+            rs -> rs.getString(1), after == null ? "" : after, limit);
+    }
+
+    @Override
+    public List<String> usernamesRegisteredSince(Instant since) {
+        return database.query("SELECT DISTINCT username FROM webauthnCredentials WHERE registrationTime >= ?",
+            rs -> rs.getString(1), since.toEpochMilli());
+    }
+
+    /**
+     * Loads the users in chunks of <code>IN (...)</code> queries instead of one
+     * query per user.
+     */
+    @Override
+    public Map<String, Collection<CredentialRegistration>> getRegistrationsByUsernames(Collection<String> usernames) {
+        // Matches the case-insensitive collation of the username column
+        Map<String, Collection<CredentialRegistration>> found = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        List<String> distinct = usernames.stream().distinct().collect(Collectors.toList());
+
+        for (int from = 0; from < distinct.size(); from += MAX_IN_LIST) {
+            List<String> chunk = distinct.subList(from, Math.min(from + MAX_IN_LIST, distinct.size()));
+            String placeholders = chunk.stream().map(username -> "?").collect(Collectors.joining(", "));
+            select(SELECT + " WHERE username IN (" + placeholders + ")", chunk.toArray())
+                .forEach(reg -> found.computeIfAbsent(reg.getUsername(), username -> new ArrayList<>()).add(reg));
+        }
+
+        Map<String, Collection<CredentialRegistration>> result = new HashMap<>();
+        for (String username : distinct) {
+            result.put(username, found.getOrDefault(username, new ArrayList<>()));
+        }
+        return result;
+    }
+
+    @Override
+    public Optional<CredentialRegistration> getRegistrationByUsernameAndCredentialId(String username, ByteArray id) {
+        return getRegistrationsByUsername(username).stream()
+            .filter(credReg -> id.equals(credReg.getCredential().getCredentialId()))
+            .findFirst();
+    }
+
+    @Override
+    public boolean addRegistrationByUsername(String username, CredentialRegistration reg) {
+        CredentialDTO row = CredentialRows.rowOf(reg);
+        database.update(
+            "INSERT INTO webauthnCredentials (" + CredentialRows.COLUMNS + ") VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?)",
+            row.credentialId,
+            row.userHandle,
+            row.username,
+            row.publicKeyCose,
+            row.signatureCount,
+            row.registrationTime,
+            row.lastUsedTime,
+            row.lastUpdatedTime,
+            row.registration,
+            row.transports);
+        return true;
+    }
+
+    @Override
+    public boolean updateRegistration(String username, ByteArray credentialId, CredentialRegistration reg) {
+        CredentialDTO row = CredentialRows.rowOf(reg);
+        database.update(
+            "UPDATE webauthnCredentials SET signatureCount = GREATEST(signatureCount, ?), lastUsedTime = ?, lastUpdatedTime = ?, registration = ? WHERE credentialId = ? AND username = ?",
+            row.signatureCount,
+            row.lastUsedTime,
+            row.lastUpdatedTime,
+            row.registration,
+            credentialId.getBase64Url(),
+            username);
+        return true;
+    }
+
+    @Override
+    public void updateCredentialNickname(String username, ByteArray credentialId, String nickname) {
+        CredentialRegistration registration = getRegistrationByUsernameAndCredentialId(username, credentialId)
+            .orElseThrow(() -> new NoSuchElementException(String.format(
+                "Credential \"%s\" is not registered to user \"%s\"",
+                credentialId, username
+            )));
+
+        updateRegistration(
+            username,
+            credentialId,
+            registration
+                .withCredentialNickname(Optional.of(nickname))
+                .withLastUpdatedTime(clock.instant())
+        );
+    }
+
+    /**
+     * Writes only the counter and last-used columns, without reading the row
+     * first. The counter never moves backwards, so the highest count wins when
+     * two logins with the same credential race.
+     */
+    @Override
+    public void updateSignatureCount(AssertionResult result) {
+        database.update(
+            "UPDATE webauthnCredentials SET signatureCount = GREATEST(signatureCount, ?), lastUsedTime = ? WHERE credentialId = ? AND username = ?",
+            result.getSignatureCount(),
+            clock.instant().toEpochMilli(),
+            result.getCredentialId().getBase64Url(),
+            result.getUsername());
+    }
+
+    /**
+     * Writes all updates as one JDBC batch.
+     */
+    @Override
+    public void updateSignatureCounts(Collection<AssertionResult> results) {
+        long now = clock.instant().toEpochMilli();
+        database.batch(
+            "UPDATE webauthnCredentials SET signatureCount = GREATEST(signatureCount, ?), lastUsedTime = ? WHERE credentialId = ? AND username = ?",
+            results.stream()
+                .map(result -> new Object[] {
+                    result.getSignatureCount(),
+                    now,
+                    result.getCredentialId().getBase64Url(),
+                    result.getUsername() })
+                .collect(Collectors.toList()));
+    }
+
+    @Override
+    public boolean removeRegistrationByUsername(String username, CredentialRegistration credentialRegistration) {
+        database.update("DELETE FROM webauthnCredentials WHERE username = ? AND credentialId = ?",
+            username, credentialRegistration.getCredential().getCredentialId().getBase64Url());
+        return true;
+    }
+
+    @Override
+    public boolean removeAllRegistrations(String username) {
+        database.update("DELETE FROM webauthnCredentials WHERE username = ?", username);
+        return true;
+    }
+
+    @Override
+    public Collection<CredentialKey> getCredentialKeysByUsername(String username) {
+        return selectKeys(SELECT_KEYS + " WHERE username = ?", username);
+    }
+
+    @Override
+    public Collection<CredentialKey> getCredentialKeysByUserHandle(ByteArray userHandle) {
+        return selectKeys(SELECT_KEYS + " WHERE userHandle = ?", userHandle.getBase64Url());
+    }
+
+    @Override
+    public Set<PublicKeyCredentialDescriptor> getCredentialIdsForUsername(String username) {
+        return getCredentialKeysByUsername(username).stream()
+            .map(CredentialKey::toDescriptor)
+            .collect(Collectors.toSet());
+    }
+
+    @Override
+    public Optional<String> getUsernameForUserHandle(ByteArray userHandle) {
+        return getCredentialKeysByUserHandle(userHandle).stream()
+            .findAny()
+            .map(CredentialKey::getUsername);
+    }
+
+    @Override
+    public Optional<ByteArray> getUserHandleForUsername(String username) {
+        return getCredentialKeysByUsername(username).stream()
+            .findAny()
+            .map(CredentialKey::getUserHandle);
+    }
+
+    @Override
+    public Optional<RegisteredCredential> lookup(ByteArray credentialId, ByteArray userHandle) {
+        return getRegistrationsByCredentialId(credentialId).stream()
+            .findAny()
+            .map(CredentialRegistration::getCredential);
+    }
+
+    @Override
+    public Set<RegisteredCredential> lookupAll(ByteArray credentialId) {
+        return CollectionUtil.immutableSet(
+            getRegistrationsByCredentialId(credentialId).stream()
+                .map(CredentialRegistration::getCredential)
+                .collect(Collectors.toSet()));
+    }
+
+    private List<CredentialRegistration> select(String sql, Object... params) {
+        return database.query(sql, JdbcRegistrationStorage::rowOf, params).stream()
+            .map(CredentialRows::registrationOf)
+            .collect(Collectors.toList());
+    }
+
+    private List<CredentialKey> selectKeys(String sql, Object... params) {
+        return database.query(sql, JdbcRegistrationStorage::keyRowOf, params).stream()
+            .map(CredentialRows::keyOf)
+            .collect(Collectors.toList());
+    }
+
+    private static CredentialKeyDTO keyRowOf(ResultSet rows) throws SQLException {
+        CredentialKeyDTO row = new CredentialKeyDTO();
+        row.credentialId = rows.getString("credentialId");
+        row.userHandle = rows.getString("userHandle");
+        row.username = rows.getString("username");
+        row.transports = rows.getString("transports");
+        return row;
+    }
+
+    private static CredentialDTO rowOf(ResultSet rows) throws SQLException {
+        CredentialDTO row = new CredentialDTO();
+        row.credentialId = rows.getString("credentialId");
+        row.userHandle = rows.getString("userHandle");
+        row.username = rows.getString("username");
+        row.publicKeyCose = rows.getString("publicKeyCose");
+        row.signatureCount = rows.getLong("signatureCount");
+        row.registrationTime = getLong(rows, "registrationTime");
+        row.lastUsedTime = getLong(rows, "lastUsedTime");
+        row.lastUpdatedTime = getLong(rows, "lastUpdatedTime");
+        row.registration = rows.getString("registration");
+        row.transports = rows.getString("transports");
+        return row;
+    }
+
+    private static Long getLong(ResultSet rows, String column) throws SQLException {
+        long value = rows.getLong(column);
+        return rows.wasNull() ? null : value;
+    }
+
+}
@@ -0,0 +1,76 @@
+package com.yubicolabs;
+
+import com.google.gson.Gson;
+import com.yubico.webauthn.data.ByteArray;
+import java.time.Duration;
+import java.util.List;
+
+
+/**
+ * {@link RequestStorage} in the <code>assertionRequests</code> or
+ * <code>registrationRequests</code> table over JDBC. Rows are the same as
+ * those of {@link RdsRequestStorage}, so both backends can share the tables.
+ * Requests older than <code>ttl</code> are neither read nor taken, whether or
+ * not {@link ExpiredRequestSweeper} has deleted them yet.
+ */
+public class JdbcRequestStorage<V> implements RequestStorage<V> {
+
+    // TIMESTAMPADD rather than DATE_SUB, which H2 does not have
+    private static final String NOT_EXPIRED = " AND creationDate >= TIMESTAMPADD(SECOND, ?, NOW())";
+
+    private final Gson gson = Codecs.gson();
+
+    private final JdbcDatabase database;
+    private final String table;
+    private final Codec<V> codec;
+    private final Duration ttl;
+
+    public JdbcRequestStorage(JdbcDatabase database, String table, Class<V> type, Duration ttl) {
+        this.database = database;
+        this.table = table;
+        this.codec = Codecs.codecFor(type);
+        this.ttl = ttl;
+    }
+
+    @Override
+    public ByteArray issue(ByteArray key, V value) {
+        database.update("INSERT INTO " + table + " (_key, _value) VALUES (?, ?)", gson.toJson(key), codec.write(value));
+        return key;
+    }
+
+    @Override
+    public V getIfPresent(ByteArray key) {
+        List<String> values = database.query("SELECT _value FROM " + table + " WHERE _key = ?" + NOT_EXPIRED,
+            row -> row.getString(1), gson.toJson(key), -ttl.getSeconds());
+        return values.isEmpty() ? null : codec.read(values.get(0));
+    }
+
+    @Override
+    public boolean invalidate(ByteArray key) {
+        database.update("DELETE FROM " + table + " WHERE _key = ?", gson.toJson(key));
+        return true;
+    }
+
+    /**
+     * Reads the request, then deletes it; only the caller whose delete
+     * removed the row gets the request.
+     */
+    @Override
+    public V take(ByteArray key) {
+        V value = getIfPresent(key);
+        if (value == null) {
+            return null;
+        }
+        int deleted = database.update("DELETE FROM " + table + " WHERE _key = ?" + NOT_EXPIRED,
+            gson.toJson(key), -ttl.getSeconds());
+        return deleted > 0 ? value : null;
+    }
+
+    @Override
+    public int removeExpired(Duration maxAge, int limit) {
+        return database.update(
+            "DELETE FROM " + table + " WHERE creationDate < TIMESTAMPADD(SECOND, ?, NOW()) LIMIT ?",
+            -maxAge.getSeconds(), limit);
+    }
+
+}
@@ -0,0 +1,66 @@
+package com.yubicolabs;
+
+import com.yubico.webauthn.data.ByteArray;
+import java.time.Duration;
+import lombok.extern.slf4j.Slf4j;
+
+
+/**
+ * {@link RequestStorage} on top of a {@link KeyValueStore}, relying on the
+ * store's own expiry instead of purging old rows.
+ */
+@Slf4j
+public class KeyValueRequestStorage<V> implements RequestStorage<V> {
+
+    private final KeyValueStore store;
+    private final String prefix;
+    private final Codec<V> codec;
+    private final Duration ttl;
+
+    public KeyValueRequestStorage(KeyValueStore store, String prefix, Class<V> type, Duration ttl) {
+        this.store = store;
+        this.prefix = prefix;
+        this.codec = Codecs.codecFor(type);
+        this.ttl = ttl;
+    }
+
+    @Override
+    public ByteArray issue(ByteArray key, V value) {
+        store.put(keyOf(key), codec.write(value), ttl);
+        return key;
+    }
+
+    @Override
+    public V getIfPresent(ByteArray key) {
+        return store.get(keyOf(key))
+            .map(codec::read)
+            .orElse(null);
+    }
+
+    @Override
+    public boolean invalidate(ByteArray key) {
+        store.delete(keyOf(key));
+        return true;
+    }
+
+    @Override
+    public V take(ByteArray key) {
+        log.debug("take key: {}", key);
+        return store.take(keyOf(key))
+            .map(codec::read)
+            .orElse(null);
+    }
+
+    /**
+     * Entries carry their own expiry, so <code>maxAge</code> is not used here.
+     */
+    @Override
+    public int removeExpired(Duration maxAge, int limit) {
+        return store.removeExpired(limit);
+    }
+
+    private String keyOf(ByteArray key) {
+        return prefix + ":" + key.getBase64Url();
+    }
+
+}
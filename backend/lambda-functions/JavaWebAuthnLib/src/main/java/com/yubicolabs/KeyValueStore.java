@@ -0,0 +1,38 @@
+package com.yubicolabs;
+
+import java.time.Duration;
+import java.util.Optional;
+
+/**
+ * Minimal string key-value store with per-entry expiry.
+ */
+public interface KeyValueStore {
+    Optional<String> get(String key);
+
+    void put(String key, String value, Duration ttl);
+
+    /**
+     * Stores the entry only if the key is absent or expired.
+     *
+     * @return <code>true</code> if the entry was stored
+     */
+    boolean putIfAbsent(String key, String value, Duration ttl);
+
+    void delete(String key);
+
+    /**
+     * Atomically removes the entry and returns its value, so that at most one
+     * caller ever sees it.
+     */
+    Optional<String> take(String key);
+
+    /**
+     * Deletes at most <code>limit</code> expired entries, for stores that do not
+     * expire entries on their own.
+     *
+     * @return the number of entries deleted
+     */
+    default int removeExpired(int limit) {
+        return 0;
+    }
+}
@@ -0,0 +1,323 @@
+package com.yubicolabs;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.yubico.fido.metadata.AAGUID;
+import com.yubico.fido.metadata.AAID;
+import com.yubico.fido.metadata.AttachmentHint;
+import com.yubico.fido.metadata.AuthenticatorGetInfo;
+import com.yubico.fido.metadata.FidoMetadataService;
+import com.yubico.fido.metadata.MetadataBLOBPayloadEntry;
+import com.yubico.fido.metadata.MetadataStatement;
+import com.yubico.internal.util.CertificateParser;
+import com.yubico.webauthn.RegistrationResult;
+import com.yubico.webauthn.data.AuthenticatorTransport;
+import com.yubico.webauthn.data.ByteArray;
+import com.yubico.webauthn.data.exception.HexException;
+import com.yubicolabs.data.AttestationRegistration;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import lombok.extern.slf4j.Slf4j;
+
+
+/**
+ * Lookup of the {@link AttestationRegistration} stored with a new credential,
+ * by AAGUID, AAID or attestation certificate key identifier. Built once per
+ * metadata BLOB, so that registrations do not scan the BLOB entries. Not
+ * modified once built; a new BLOB gets a new index.
+ */
+@Slf4j
+final class MetadataIndex {
+
+    static final MetadataIndex EMPTY = new MetadataIndex();
+
+    /** X.509 extension holding the AAGUID in FIDO2 attestation certificates. */
+    private static final String AAGUID_EXTENSION = "1.3.6.1.4.1.45724.1.1.4";
+
+    private final Map<ByteArray, AttestationRegistration> byAaguid = new HashMap<>();
+    private final Map<String, AttestationRegistration> byAaid = new HashMap<>();
+    private final Map<String, AttestationRegistration> byCertificateKeyIdentifier = new HashMap<>();
+
+    private MetadataIndex() {
+    }
+
+    /**
+     * @param mds may be null if the metadata could not be loaded
+     */
+    static MetadataIndex of(FidoMetadataService mds) {
+        if (mds == null) {
+            return EMPTY;
+        }
+        MetadataIndex index = new MetadataIndex();
+        for (MetadataBLOBPayloadEntry entry : mds.findEntries(entry -> true)) {
+            if (!entry.getMetadataStatement().isPresent()) {
+                continue;
+            }
+            AttestationRegistration registration = registrationOf(entry.getMetadataStatement().get());
+
+            // Where the BLOB lists an authenticator more than once, the first entry wins
+            entry.getAaguid().ifPresent(aaguid -> index.byAaguid.putIfAbsent(aaguid.getValue(), registration));
+            entry.getAaid().ifPresent(aaid -> index.byAaid.putIfAbsent(aaid.getValue(), registration));
+            entry.getAttestationCertificateKeyIdentifiers().ifPresent(identifiers -> identifiers.forEach(
+                identifier -> index.byCertificateKeyIdentifier.putIfAbsent(identifier.toLowerCase(), registration)));
+        }
+        log.debug("Indexed metadata: {} AAGUIDs, {} AAIDs, {} certificate key identifiers",
+            index.byAaguid.size(), index.byAaid.size(), index.byCertificateKeyIdentifier.size());
+        return index;
+    }
+
+    /**
+     * Indexes the devices of the bundled Yubico vendor metadata
+     * (<code>metadata.json</code>) by the AAGUIDs in their selectors.
+     */
+    static MetadataIndex ofVendorMetadata(JsonObject metadata) {
+        MetadataIndex index = new MetadataIndex();
+        for (JsonElement element : metadata.getAsJsonArray("devices")) {
+            JsonObject device = element.getAsJsonObject();
+            for (JsonElement selector : device.getAsJsonArray("selectors")) {
+                JsonObject parameters = selector.getAsJsonObject().getAsJsonObject("parameters");
+                if (parameters == null
+                        || !AAGUID_EXTENSION.equals(parameters.get("key").getAsString())
+                        || !parameters.has("value")
+                        || !parameters.get("value").isJsonObject()) {
+                    continue;
+                }
+                try {
+                    ByteArray aaguid = ByteArray.fromHex(
+                        parameters.getAsJsonObject("value").get("value").getAsString());
+                    index.byAaguid.putIfAbsent(aaguid, AttestationRegistration.builder()
+                        .aaguid(new AAGUID(aaguid).asGuidString())
+                        .icon(device.has("imageUrl") ? device.get("imageUrl").getAsString() : null)
+                        .description(device.get("displayName").getAsString())
+                        .authenticatorTransport(device.has("transports")
+                            ? transportsOf(device.get("transports").getAsInt())
+                            : null)
+                        .build());
+                } catch (HexException e) {
+                    log.warn("Invalid AAGUID in bundled metadata for {}", device.get("displayName"), e);
+                }
+            }
+        }
+        log.debug("Indexed bundled metadata: {} AAGUIDs", index.byAaguid.size());
+        return index;
+    }
+
+    /**
+     * Looks up the authenticator by its AAGUID, then by the key identifiers of
+     * its attestation certificates, which is how U2F authenticators are
+     * listed.
+     */
+    Optional<AttestationRegistration> find(RegistrationResult result) {
+        AttestationRegistration registration = byAaguid.get(result.getAaguid());
+        if (registration != null) {
+            return Optional.of(registration);
+        }
+
+        Optional<List<X509Certificate>> trustPath = result.getAttestationTrustPath();
+        if (trustPath.isPresent()) {
+            for (X509Certificate certificate : trustPath.get()) {
+                Optional<AttestationRegistration> byCertificate = findByCertificate(certificate);
+                if (byCertificate.isPresent()) {
+                    return byCertificate;
+                }
+            }
+        }
+        return Optional.empty();
+    }
+
+    Optional<AttestationRegistration> findByAaguid(ByteArray aaguid) {
+        return Optional.ofNullable(byAaguid.get(aaguid));
+    }
+
+    Optional<AttestationRegistration> findByAaid(String aaid) {
+        return Optional.ofNullable(byAaid.get(aaid));
+    }
+
+    Optional<AttestationRegistration> findByCertificateKeyIdentifier(String keyIdentifier) {
+        return Optional.ofNullable(byCertificateKeyIdentifier.get(keyIdentifier.toLowerCase()));
+    }
+
+    private Optional<AttestationRegistration> findByCertificate(X509Certificate certificate) {
+        if (byCertificateKeyIdentifier.isEmpty()) {
+            return Optional.empty();
+        }
+        try {
+            return findByCertificateKeyIdentifier(
+                new ByteArray(CertificateParser.computeSubjectKeyIdentifier(certificate)).getHex());
+        } catch (Exception e) {
+            log.debug("Could not compute the key identifier of an attestation certificate", e);
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * Writes the index in the binary form read by {@link #readFrom}. Each
+     * distinct registration is written once and referred to by number.
+     */
+    void writeTo(DataOutputStream out) throws IOException {
+        Map<AttestationRegistration, Integer> numbers = new IdentityHashMap<>();
+        List<AttestationRegistration> registrations = new ArrayList<>();
+        for (Map<?, AttestationRegistration> map : Arrays.asList(byAaguid, byAaid, byCertificateKeyIdentifier)) {
+            for (AttestationRegistration registration : map.values()) {
+                if (!numbers.containsKey(registration)) {
+                    numbers.put(registration, registrations.size());
+                    registrations.add(registration);
+                }
+            }
+        }
+
+        out.writeInt(registrations.size());
+        for (AttestationRegistration registration : registrations) {
+            writeString(out, registration.getAaguid());
+            writeString(out, registration.getAaid());
+            writeString(out, registration.getIcon());
+            writeString(out, registration.getDescription());
+            writeStrings(out, registration.getAttachmentHint() == null ? null
+                : registration.getAttachmentHint().stream().map(Enum::name).collect(Collectors.toList()));
+            writeStrings(out, registration.getAuthenticatorTransport() == null ? null
+                : registration.getAuthenticatorTransport().stream()
+                    .map(AuthenticatorTransport::getId)
+                    .collect(Collectors.toList()));
+        }
+
+        out.writeInt(byAaguid.size());
+        for (Map.Entry<ByteArray, AttestationRegistration> entry : byAaguid.entrySet()) {
+            out.write(entry.getKey().getBytes());
+            out.writeInt(numbers.get(entry.getValue()));
+        }
+        for (Map<String, AttestationRegistration> map : Arrays.asList(byAaid, byCertificateKeyIdentifier)) {
+            out.writeInt(map.size());
+            for (Map.Entry<String, AttestationRegistration> entry : map.entrySet()) {
+                writeString(out, entry.getKey());
+                out.writeInt(numbers.get(entry.getValue()));
+            }
+        }
+    }
+
+    static MetadataIndex readFrom(DataInputStream in) throws IOException {
+        AttestationRegistration[] registrations = new AttestationRegistration[in.readInt()];
+        for (int i = 0; i < registrations.length; i++) {
+            registrations[i] = AttestationRegistration.builder()
+                .aaguid(readString(in))
+                .aaid(readString(in))
+                .icon(readString(in))
+                .description(readString(in))
+                .attachmentHint(readStrings(in, AttachmentHint::valueOf))
+                .authenticatorTransport(readStrings(in, AuthenticatorTransport::of))
+                .build();
+        }
+
+        MetadataIndex index = new MetadataIndex();
+        for (int i = in.readInt(); i > 0; i--) {
+            byte[] aaguid = new byte[16];
+            in.readFully(aaguid);
+            index.byAaguid.put(new ByteArray(aaguid), registrations[in.readInt()]);
+        }
+        for (Map<String, AttestationRegistration> map : Arrays.asList(index.byAaid, index.byCertificateKeyIdentifier)) {
+            for (int i = in.readInt(); i > 0; i--) {
+                map.put(readString(in), registrations[in.readInt()]);
+            }
+        }
+        return index;
+    }
+
+    int size() {
+        return byAaguid.size() + byAaid.size() + byCertificateKeyIdentifier.size();
+    }
+
+    /**
+     * Strings are written as a length and UTF-8 bytes, since icons exceed the
+     * 64 KiB limit of {@link DataOutputStream#writeUTF}. Null is length -1.
+     */
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+        } else {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void writeStrings(DataOutputStream out, Collection<String> values) throws IOException {
+        if (values == null) {
+            out.writeInt(-1);
+        } else {
+            out.writeInt(values.size());
+            for (String value : values) {
+                writeString(out, value);
+            }
+        }
+    }
+
+    private static <T> Set<T> readStrings(DataInputStream in, Function<String, T> parse) throws IOException {
+        int size = in.readInt();
+        if (size < 0) {
+            return null;
+        }
+        Set<T> values = new HashSet<>();
+        for (int i = 0; i < size; i++) {
+            values.add(parse.apply(readString(in)));
+        }
+        return values;
+    }
+
+    /**
+     * Decodes the U2F transport bit field of the vendor metadata.
+     */
+    private static Set<AuthenticatorTransport> transportsOf(int bits) {
+        Set<AuthenticatorTransport> transports = new HashSet<>();
+        if ((bits & 2) != 0) {
+            transports.add(AuthenticatorTransport.BLE);
+        }
+        if ((bits & 4) != 0) {
+            transports.add(AuthenticatorTransport.USB);
+        }
+        if ((bits & 8) != 0) {
+            transports.add(AuthenticatorTransport.NFC);
+        }
+        if ((bits & 16) != 0) {
+            transports.add(AuthenticatorTransport.INTERNAL);
+        }
+        return transports;
+    }
+
+    private static AttestationRegistration registrationOf(MetadataStatement statement) {
+        return AttestationRegistration.builder()
+            .aaguid(statement.getAaguid().map(AAGUID::asGuidString).orElse(null))
+            .aaid(statement.getAaid().map(AAID::getValue).orElse(null))
+            .attachmentHint(statement.getAttachmentHint().orElse(null))
+            .icon(statement.getIcon().orElse(null))
+            .description(statement.getDescription().orElse(null))
+            .authenticatorTransport(statement.getAuthenticatorGetInfo()
+                .flatMap(AuthenticatorGetInfo::getTransports)
+                .orElse(null))
+            .build();
+    }
+
+}
@@ -0,0 +1,108 @@
+package com.yubicolabs;
+
+import com.yubico.fido.metadata.FidoMetadataService;
+import com.yubico.fido.metadata.MetadataBLOB;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.time.LocalDate;
+import java.util.Optional;
+import lombok.Value;
+import lombok.extern.slf4j.Slf4j;
+
+
+/**
+ * The {@link MetadataIndex} of a verified FIDO metadata BLOB, written at build
+ * time and bundled as <code>mds-snapshot.bin</code>, so that a fresh container
+ * has the metadata without downloading and parsing the BLOB. The build only
+ * makes one with <code>-DmdsSnapshot</code>; without it the BLOB is only
+ * downloaded at runtime, see {@link RefreshingMetadataService}.
+ *
+ * <p>Layout: magic, format version, BLOB number, next update (epoch day),
+ * then the index as written by {@link MetadataIndex#writeTo}.
+ */
+@Slf4j
+@Value
+class MetadataSnapshot {
+
+    static final String RESOURCE_PATH = "/mds-snapshot.bin";
+
+    private static final int MAGIC = 0x57414b4d; // "WAKM"
+    private static final int VERSION = 1;
+
+    int blobNumber;
+    LocalDate nextUpdate;
+    MetadataIndex index;
+
+    void writeTo(OutputStream out) throws IOException {
+        DataOutputStream data = new DataOutputStream(new BufferedOutputStream(out));
+        data.writeInt(MAGIC);
+        data.writeInt(VERSION);
+        data.writeInt(blobNumber);
+        data.writeLong(nextUpdate.toEpochDay());
+        index.writeTo(data);
+        data.flush();
+    }
+
+    static MetadataSnapshot readFrom(InputStream in) throws IOException {
+        DataInputStream data = new DataInputStream(new BufferedInputStream(in));
+        if (data.readInt() != MAGIC) {
+            throw new IOException("Not a metadata snapshot");
+        }
+        int version = data.readInt();
+        if (version != VERSION) {
+            throw new IOException("Unsupported metadata snapshot version: " + version);
+        }
+        int blobNumber = data.readInt();
+        LocalDate nextUpdate = LocalDate.ofEpochDay(data.readLong());
+        return new MetadataSnapshot(blobNumber, nextUpdate, MetadataIndex.readFrom(data));
+    }
+
+    /**
+     * @return the snapshot bundled with the function, if the build made one
+     */
+    static Optional<MetadataSnapshot> loadBundled() {
+        try (InputStream in = MetadataSnapshot.class.getResourceAsStream(RESOURCE_PATH)) {
+            if (in == null) {
+                log.info("No bundled metadata snapshot, using the vendor metadata until the BLOB is downloaded");
+                return Optional.empty();
+            }
+            return Optional.of(readFrom(in));
+        } catch (IOException e) {
+            log.warn("Failed to read bundled metadata snapshot", e);
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * Build step: downloads and verifies the BLOB, keeping the download in
+     * the cache directory, and writes its snapshot to the output file.
+     */
+    public static void main(String[] args) throws Exception {
+        if (args.length != 2) {
+            throw new IllegalArgumentException("Usage: MetadataSnapshot <output file> <cache directory>");
+        }
+        File output = new File(args[0]);
+        File cacheDir = new File(args[1]);
+
+        MetadataBLOB blob = RefreshingMetadataService.download(cacheDir);
+        FidoMetadataService mds = FidoMetadataService.builder().useBlob(blob).build();
+
+        MetadataSnapshot snapshot = new MetadataSnapshot(
+            blob.getPayload().getNo(),
+            blob.getPayload().getNextUpdate(),
+            MetadataIndex.of(mds));
+        try (OutputStream out = new FileOutputStream(output)) {
+            snapshot.writeTo(out);
+        }
+        log.info("Wrote metadata snapshot of BLOB {} with {} keys to {}",
+            snapshot.getBlobNumber(), snapshot.getIndex().size(), output);
+    }
+
+}
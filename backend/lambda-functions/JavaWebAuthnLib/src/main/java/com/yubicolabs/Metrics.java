@@ -0,0 +1,64 @@
+package com.yubicolabs;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+
+/**
+ * Phase timings and counters of the current invocation, handed to a
+ * {@link MetricsSink} when it ends. Lambda runs one invocation per container
+ * at a time, so one instance is shared by the handler and the storage
+ * wrappers; it is thread-safe for the concurrent operations of a batch.
+ */
+public final class Metrics {
+
+    @FunctionalInterface
+    public interface Phase<T, E extends Exception> {
+        T run() throws E;
+    }
+
+    private final MetricsSink sink;
+    private final Map<String, LongAdder> nanos = new ConcurrentHashMap<>();
+    private final Map<String, LongAdder> counts = new ConcurrentHashMap<>();
+
+    public Metrics(MetricsSink sink) {
+        this.sink = sink;
+    }
+
+    /**
+     * Runs <code>phase</code> and adds its duration to <code>name</code>.
+     */
+    public <T, E extends Exception> T time(String name, Phase<T, E> phase) throws E {
+        long start = System.nanoTime();
+        try {
+            return phase.run();
+        } finally {
+            nanos.computeIfAbsent(name, key -> new LongAdder()).add(System.nanoTime() - start);
+        }
+    }
+
+    public void count(String name, long delta) {
+        counts.computeIfAbsent(name, key -> new LongAdder()).add(delta);
+    }
+
+    /**
+     * Hands what was recorded since the last flush to the sink and starts over.
+     */
+    public void flush(String requestType) {
+        Map<String, Double> millis = new TreeMap<>();
+        for (String name : nanos.keySet()) {
+            millis.put(name, nanos.remove(name).sum() / 1e6);
+        }
+        Map<String, Long> counters = new TreeMap<>();
+        for (String name : counts.keySet()) {
+            counters.put(name, counts.remove(name).sum());
+        }
+        if (!millis.isEmpty() || !counters.isEmpty()) {
+            sink.emit(requestType, Collections.unmodifiableMap(millis), Collections.unmodifiableMap(counters));
+        }
+    }
+
+}
@@ -0,0 +1,20 @@
+package com.yubicolabs;
+
+import java.util.Map;
+
+
+/**
+ * Where {@link Metrics} sends the measurements of each invocation.
+ */
+public interface MetricsSink {
+
+    MetricsSink NONE = (requestType, millis, counts) -> { };
+
+    /**
+     * @param requestType the <code>type</code> of the event
+     * @param millis total milliseconds spent per phase
+     * @param counts counters; names ending in <code>Bytes</code> are sizes
+     */
+    void emit(String requestType, Map<String, Double> millis, Map<String, Long> counts);
+
+}
@@ -1,77 +1,95 @@
 package com.yubicolabs;
 
+import com.amazon.rdsdata.client.Executor;
 import com.amazon.rdsdata.client.RdsDataClient;
-import com.amazonaws.services.rdsdata.AWSRDSData;
-import com.amazonaws.services.rdsdata.AWSRDSDataClient;
 import com.google.gson.Gson;
-import com.google.gson.GsonBuilder;
 import com.yubico.internal.util.CollectionUtil;
 import com.yubico.webauthn.AssertionResult;
 import com.yubico.webauthn.CredentialRepository;
 import com.yubico.webauthn.RegisteredCredential;
 import com.yubico.webauthn.data.ByteArray;
 import com.yubico.webauthn.data.PublicKeyCredentialDescriptor;
+import com.yubicolabs.data.CountDTO;
+import com.yubicolabs.data.CredentialDTO;
+import com.yubicolabs.data.CredentialKey;
+import com.yubicolabs.data.CredentialKeyDTO;
 import com.yubicolabs.data.CredentialRegistration;
+import com.yubicolabs.data.LegacyRegistrationDTO;
 import com.yubicolabs.data.RegistrationDTO;
+import com.yubicolabs.data.UsernameDTO;
 import java.time.Clock;
+import java.time.Instant;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.NoSuchElementException;
 import java.util.Optional;
 import java.util.Set;
+import java.util.TreeMap;
 import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 import lombok.Data;
+import lombok.Value;
 import lombok.extern.slf4j.Slf4j;
 
 
-
+/**
+ * Credential storage in the <code>webauthnCredentials</code> table, keyed by
+ * base64url credential ID with indexes on user handle and username, through
+ * the RDS Data API. See {@link CredentialRows} for the columns.
+ *
+ * <p>Registrations still only present in the legacy
+ * <code>credentialRegistrations</code> table are copied over by
+ * {@link #migrateLegacyRegistrations(Optional, int)}. While legacy fallback is
+ * enabled, lookups by username or user handle also merge in, and copy over,
+ * the legacy rows not migrated yet, and lookups by credential ID fall back to
+ * the legacy table.
+ */
 @Slf4j
-public class RDSRegistrationStorage implements RegistrationStorage, CredentialRepository {
+public class RDSRegistrationStorage implements RegistrationStorage, CredentialRepository, UsernameSource {
+
+    private static final int MAX_IN_LIST = 100;
 
-    private static final String RESOURCE_ARN = System.getenv("DBAuroraClusterArn");
-    private static final String SECRET_ARN = System.getenv("DBSecretsStoreArn");
-    private static final String DATABASE = System.getenv("DatabaseName");
+    private static final String COLUMNS = CredentialRows.COLUMNS;
 
     private final Clock clock = Clock.systemDefaultZone();
-    private final Gson gson = new GsonBuilder().create();
+    private final Gson gson = Codecs.gson();
 
     private final RdsDataClient client;
+    private final boolean legacyFallback;
 
-    public RDSRegistrationStorage() {
-        AWSRDSData rdsData = AWSRDSDataClient.builder().build();
-        client = RdsDataClient.builder()
-            .rdsDataService(rdsData)
-            .database(DATABASE)
-            .resourceArn(RESOURCE_ARN)
-            .secretArn(SECRET_ARN)
-            .build();
+    public RDSRegistrationStorage(RdsDatabase database) {
+        this(database, Config.isLegacyCredentialFallback());
     }
 
-    private Collection<CredentialRegistration> getByCredentialId(ByteArray credentialId) {
-
-        String keyJsonOutput = gson.toJson(credentialId);
+    public RDSRegistrationStorage(RdsDatabase database, boolean legacyFallback) {
+        this.client = database.getClient();
+        this.legacyFallback = legacyFallback;
+    }
 
-        final String SQL = "SELECT registration FROM credentialRegistrations WHERE credentialId = :keyJsonOutput";
+    @Override
+    public Collection<CredentialRegistration> getRegistrationsByCredentialId(ByteArray credentialId) {
+        final String SQL = "SELECT " + COLUMNS + " FROM webauthnCredentials WHERE credentialId = :key";
 
-        return client.forSql(SQL)
-            .withParamSets(new GetParams(keyJsonOutput))
-            .execute()
-            .mapToList(RegistrationDTO.class)
-            .stream()
-            .map(r -> gson.fromJson(r.registration, CredentialRegistration.class))
-            .collect(Collectors.toList());
+        List<CredentialRegistration> result = select(SQL, credentialId.getBase64Url());
+        return result.isEmpty() ? withLegacy(result, "credentialId", gson.toJson(credentialId)) : result;
     }
 
-    private boolean updateRegistration(String username, ByteArray credentialId, CredentialRegistration reg) {
-        String usernameJsonOutput = gson.toJson(username);
-        String credentialIdJsonOutput = gson.toJson(credentialId);
-        String registrationJsonOutput = gson.toJson(reg);
-
-        String SQL = "UPDATE credentialRegistrations SET registration= :registrationJsonOutput WHERE username= :usernameJsonOutput AND credentialId= :credentialIdJsonOutput";
+    @Override
+    public boolean updateRegistration(String username, ByteArray credentialId, CredentialRegistration reg) {
+        final String SQL = "UPDATE webauthnCredentials SET signatureCount = GREATEST(signatureCount, :signatureCount), lastUsedTime = :lastUsedTime, lastUpdatedTime = :lastUpdatedTime, registration = :registration WHERE credentialId = :credentialId AND username = :username";
 
+        CredentialParams params = paramsOf(reg);
         client.forSql(SQL)
-            .withParamSets(new UpdateParams(registrationJsonOutput, usernameJsonOutput, credentialIdJsonOutput))
+            .withParamSets(new UpdateParams(
+                params.signatureCount,
+                params.lastUsedTime,
+                params.lastUpdatedTime,
+                params.registration,
+                credentialId.getBase64Url(),
+                username))
             .execute();
 
         return true;
@@ -96,15 +114,10 @@ public class RDSRegistrationStorage implements RegistrationStorage, CredentialRe
 
     @Override
     public boolean addRegistrationByUsername(String username, CredentialRegistration reg) {
-        String usernameJsonOutput = gson.toJson(username);
-        String userHandleJsonOutput = gson.toJson(reg.getUserIdentity().getId());
-        String credentialIdJsonOutput = gson.toJson(reg.getCredential().getCredentialId());
-        String registrationJsonOutput = gson.toJson(reg);
-
-        final String SQL = "INSERT INTO credentialRegistrations (username, userHandle, credentialId, registration) VALUES(:usernameJsonOutput, :userHandleJsonOutput, :credentialIdJsonOutput, :registrationJsonOutput)";
+        final String SQL = "INSERT INTO webauthnCredentials (" + COLUMNS + ") VALUES (:credentialId, :userHandle, :username, :publicKeyCose, :signatureCount, :registrationTime, :lastUsedTime, :lastUpdatedTime, :registration, :transports)";
 
         client.forSql(SQL)
-            .withParamSets(new AddParams(usernameJsonOutput, userHandleJsonOutput, credentialIdJsonOutput, registrationJsonOutput))
+            .withParamSets(paramsOf(reg))
             .execute();
 
         return true;
@@ -112,70 +125,182 @@ public class RDSRegistrationStorage implements RegistrationStorage, CredentialRe
 
     @Override
     public Set<PublicKeyCredentialDescriptor> getCredentialIdsForUsername(String username) {
-        return getRegistrationsByUsername(username).stream()
-            .map(registration -> PublicKeyCredentialDescriptor.builder()
-                .id(registration.getCredential().getCredentialId())
-                .build())
+        return getCredentialKeysByUsername(username).stream()
+            .map(CredentialKey::toDescriptor)
             .collect(Collectors.toSet());
     }
 
+    @Override
+    public Collection<CredentialKey> getCredentialKeysByUsername(String username) {
+        final String SQL = "SELECT " + CredentialRows.KEY_COLUMNS + " FROM webauthnCredentials WHERE username = :key";
+
+        return withLegacyKeys(selectKeys(SQL, username), "username", gson.toJson(username));
+    }
+
+    @Override
+    public Collection<CredentialKey> getCredentialKeysByUserHandle(ByteArray userHandle) {
+        final String SQL = "SELECT " + CredentialRows.KEY_COLUMNS + " FROM webauthnCredentials WHERE userHandle = :key";
+
+        return withLegacyKeys(selectKeys(SQL, userHandle.getBase64Url()), "userHandle", gson.toJson(userHandle));
+    }
+
     @Override
     public Collection<CredentialRegistration> getRegistrationsByUsername(String username) {
-        String keyJsonOutput = gson.toJson(username);
+        final String SQL = "SELECT " + COLUMNS + " FROM webauthnCredentials WHERE username = :key";
 
-        final String SQL = "SELECT registration FROM credentialRegistrations WHERE username = :keyJsonOutput";
+        return withLegacy(select(SQL, username), "username", gson.toJson(username));
+    }
+
+    /**
+     * Checks for a row without reading any registration; with legacy fallback,
+     * a user found only in the legacy table is imported as on other lookups.
+     */
+    @Override
+    public boolean userExists(String username) {
+        final String SQL = "SELECT username FROM webauthnCredentials WHERE username = :key LIMIT 1";
+
+        List<UsernameDTO> found = client.forSql(SQL)
+            .withParamSets(new KeyParams(username))
+            .execute()
+            .mapToList(UsernameDTO.class);
+        if (found.isEmpty()) {
+            return !withLegacy(new ArrayList<>(), "username", gson.toJson(username)).isEmpty();
+        }
+        return !found.isEmpty();
+    }
+
+    @Override
+    public long usernameCount() {
+        final String SQL = "SELECT COUNT(DISTINCT username) AS count FROM webauthnCredentials";
 
         return client.forSql(SQL)
-            .withParamSets(new GetParams(keyJsonOutput))
             .execute()
-            .mapToList(RegistrationDTO.class)
+            .mapToSingle(CountDTO.class)
+            .count;
+    }
+
+    @Override
+    public List<String> usernamesAfter(String after, int limit) {
+        final String SQL = "SELECT DISTINCT username FROM webauthnCredentials WHERE username > :after ORDER BY username LIMIT :limit";
+
+        return client.forSql(SQL)
+            .withParamSets(new UsernamePageParams(after == null ? "" : after, limit))
+            .execute()
+            .mapToList(UsernameDTO.class)
             .stream()
-            .map(r -> gson.fromJson(r.registration, CredentialRegistration.class))
+            .map(UsernameDTO::getUsername)
             .collect(Collectors.toList());
     }
 
     @Override
-    public Collection<CredentialRegistration> getRegistrationsByUserHandle(ByteArray userHandle) {
-        String keyJsonOutput = gson.toJson(userHandle);
-
-        final String SQL = "SELECT registration FROM credentialRegistrations WHERE userHandle = :keyJsonOutput";
+    public List<String> usernamesRegisteredSince(Instant since) {
+        final String SQL = "SELECT DISTINCT username FROM webauthnCredentials WHERE registrationTime >= :since";
 
         return client.forSql(SQL)
-            .withParamSets(new GetParams(keyJsonOutput))
+            .withParamSets(new SinceParams(since.toEpochMilli()))
             .execute()
-            .mapToList(RegistrationDTO.class)
+            .mapToList(UsernameDTO.class)
             .stream()
-            .map(r -> gson.fromJson(r.registration, CredentialRegistration.class))
+            .map(UsernameDTO::getUsername)
             .collect(Collectors.toList());
     }
 
+    /**
+     * Loads the users in chunks of <code>IN (...)</code> queries instead of one
+     * query per user.
+     */
+    @Override
+    public Map<String, Collection<CredentialRegistration>> getRegistrationsByUsernames(Collection<String> usernames) {
+        // Matches the case-insensitive collation of the username column
+        Map<String, List<CredentialRegistration>> found = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        List<String> distinct = usernames.stream().distinct().collect(Collectors.toList());
+
+        for (int from = 0; from < distinct.size(); from += MAX_IN_LIST) {
+            List<String> chunk = distinct.subList(from, Math.min(from + MAX_IN_LIST, distinct.size()));
+            String placeholders = IntStream.range(0, chunk.size())
+                .mapToObj(i -> ":username" + i)
+                .collect(Collectors.joining(", "));
+            final String SQL = "SELECT " + COLUMNS + " FROM webauthnCredentials WHERE username IN (" + placeholders + ")";
+
+            Executor executor = client.forSql(SQL);
+            for (int i = 0; i < chunk.size(); i++) {
+                executor = executor.withParameter("username" + i, chunk.get(i));
+            }
+            executor.execute()
+                .mapToList(CredentialDTO.class)
+                .stream()
+                .map(CredentialRows::registrationOf)
+                .forEach(reg -> found.computeIfAbsent(reg.getUsername(), username -> new ArrayList<>()).add(reg));
+        }
+
+        Map<String, Collection<CredentialRegistration>> result = new HashMap<>();
+        for (String username : distinct) {
+            List<CredentialRegistration> regs = found.getOrDefault(username, new ArrayList<>());
+            result.put(username, withLegacy(regs, "username", gson.toJson(username)));
+        }
+        return result;
+    }
+
+    @Override
+    public Collection<CredentialRegistration> getRegistrationsByUserHandle(ByteArray userHandle) {
+        final String SQL = "SELECT " + COLUMNS + " FROM webauthnCredentials WHERE userHandle = :key";
+
+        return withLegacy(select(SQL, userHandle.getBase64Url()), "userHandle", gson.toJson(userHandle));
+    }
+
     @Override
     public Optional<String> getUsernameForUserHandle(ByteArray userHandle) {
-        return getRegistrationsByUserHandle(userHandle).stream()
+        return getCredentialKeysByUserHandle(userHandle).stream()
             .findAny()
-            .map(CredentialRegistration::getUsername);
+            .map(CredentialKey::getUsername);
     }
 
     @Override
     public Optional<ByteArray> getUserHandleForUsername(String username) {
-        return getRegistrationsByUsername(username).stream()
+        return getCredentialKeysByUsername(username).stream()
             .findAny()
-            .map(reg -> reg.getUserIdentity().getId());
+            .map(CredentialKey::getUserHandle);
     }
 
+    /**
+     * Writes only the counter and last-used columns, without reading the row
+     * first. The counter never moves backwards, so the highest count wins when
+     * two logins with the same credential race.
+     */
     @Override
     public void updateSignatureCount(AssertionResult result) {
-        CredentialRegistration registration = getRegistrationByUsernameAndCredentialId(result.getUsername(), result.getCredentialId())
-            .orElseThrow(() -> new NoSuchElementException(String.format(
-                "Credential \"%s\" is not registered to user \"%s\"",
-                result.getCredentialId(), result.getUsername()
-            )));
+        final String SQL = "UPDATE webauthnCredentials SET signatureCount = GREATEST(signatureCount, :signatureCount), lastUsedTime = :lastUsedTime WHERE credentialId = :credentialId AND username = :username";
 
-        updateRegistration(
-            result.getUsername(),
-            result.getCredentialId(),
-            registration.withSignatureCount(result.getSignatureCount()).withLastUsedTime(clock.instant())
-        );
+        client.forSql(SQL)
+            .withParamSets(new SignatureCountParams(
+                result.getSignatureCount(),
+                clock.instant().toEpochMilli(),
+                result.getCredentialId().getBase64Url(),
+                result.getUsername()))
+            .execute();
+    }
+
+    /**
+     * Writes all updates as one batch statement.
+     */
+    @Override
+    public void updateSignatureCounts(Collection<AssertionResult> results) {
+        if (results.isEmpty()) {
+            return;
+        }
+
+        final String SQL = "UPDATE webauthnCredentials SET signatureCount = GREATEST(signatureCount, :signatureCount), lastUsedTime = :lastUsedTime WHERE credentialId = :credentialId AND username = :username";
+
+        long now = clock.instant().toEpochMilli();
+        client.forSql(SQL)
+            .withParamSets(results.stream()
+                .map(result -> new SignatureCountParams(
+                    result.getSignatureCount(),
+                    now,
+                    result.getCredentialId().getBase64Url(),
+                    result.getUsername()))
+                .toArray())
+            .execute();
     }
 
     @Override
@@ -187,92 +312,301 @@ public class RDSRegistrationStorage implements RegistrationStorage, CredentialRe
 
     @Override
     public boolean removeRegistrationByUsername(String username, CredentialRegistration credentialRegistration) {
-        String usernameJsonOutput = gson.toJson(username);
-        String credentialIdJsonOutput = gson.toJson(credentialRegistration.getCredential().getCredentialId());
-
-        final String SQL = "DELETE FROM credentialRegistrations WHERE username= :usernameJsonOutput AND credentialId= :credentialIdJsonOutput";
+        final String SQL = "DELETE FROM webauthnCredentials WHERE username = :username AND credentialId = :credentialId";
 
         client.forSql(SQL)
-            .withParamSets(new DeleteRegistrationParams(usernameJsonOutput, credentialIdJsonOutput))
+            .withParamSets(new DeleteRegistrationParams(
+                username,
+                credentialRegistration.getCredential().getCredentialId().getBase64Url()))
             .execute();
 
+        if (legacyFallback) {
+            final String LEGACY_SQL = "DELETE FROM credentialRegistrations WHERE username = :username AND credentialId = :credentialId";
+
+            client.forSql(LEGACY_SQL)
+                .withParamSets(new DeleteRegistrationParams(
+                    gson.toJson(username),
+                    gson.toJson(credentialRegistration.getCredential().getCredentialId())))
+                .execute();
+        }
+
         return true;
     }
 
     @Override
     public boolean removeAllRegistrations(String username) {
-        String usernameJsonOutput = gson.toJson(username);
-
-        final String SQL = "DELETE FROM credentialRegistrations WHERE username= :usernameJsonOutput";
+        final String SQL = "DELETE FROM webauthnCredentials WHERE username = :key";
 
         client.forSql(SQL)
-            .withParamSets(new DeleteAllParams(usernameJsonOutput))
+            .withParamSets(new KeyParams(username))
             .execute();
 
+        if (legacyFallback) {
+            final String LEGACY_SQL = "DELETE FROM credentialRegistrations WHERE username = :key";
+
+            client.forSql(LEGACY_SQL)
+                .withParamSets(new KeyParams(gson.toJson(username)))
+                .execute();
+        }
+
         return true;
     }
 
     @Override
     public Optional<RegisteredCredential> lookup(ByteArray credentialId, ByteArray userHandle) {
-        Optional<CredentialRegistration> registrationMaybe = getByCredentialId(credentialId).stream()
+        Optional<CredentialRegistration> registrationMaybe = getRegistrationsByCredentialId(credentialId).stream()
             .findAny();
 
         log.debug("lookup credential ID: {}, user handle: {}; result: {}", credentialId, userHandle, registrationMaybe);
-        return registrationMaybe.flatMap(registration ->
-            Optional.of(
-                RegisteredCredential.builder()
-                    .credentialId(registration.getCredential().getCredentialId())
-                    .userHandle(registration.getUserIdentity().getId())
-                    .publicKeyCose(registration.getCredential().getPublicKeyCose())
-                    .signatureCount(registration.getSignatureCount())
-                    .build()
-            )
-        );
+        return registrationMaybe.map(CredentialRegistration::getCredential);
     }
 
     @Override
     public Set<RegisteredCredential> lookupAll(ByteArray credentialId) {
         return CollectionUtil.immutableSet(
-            getByCredentialId(credentialId).stream()
-                .map(reg -> RegisteredCredential.builder()
-                    .credentialId(reg.getCredential().getCredentialId())
-                    .userHandle(reg.getUserIdentity().getId())
-                    .publicKeyCose(reg.getCredential().getPublicKeyCose())
-                    .signatureCount(reg.getSignatureCount())
-                    .build()
-                )
+            getRegistrationsByCredentialId(credentialId).stream()
+                .map(CredentialRegistration::getCredential)
                 .collect(Collectors.toSet()));
     }
 
+    /**
+     * Copies one page of the legacy <code>credentialRegistrations</code> table
+     * into <code>webauthnCredentials</code>, skipping credentials that are
+     * already there. Safe to run repeatedly.
+     *
+     * <p>Pages follow the last row read rather than an offset, since legacy
+     * rows are still deleted while fallback is enabled, and a delete would
+     * shift an offset past rows not read yet.
+     *
+     * @param after the last row of the previous page, or empty for the first
+     *        page
+     */
+    public MigrationPage migrateLegacyRegistrations(Optional<LegacyCursor> after, int limit) {
+        final String SELECT = "SELECT registration, DATE_FORMAT(creationDate, '%Y-%m-%d %H:%i:%s') AS creationDate, credentialId FROM credentialRegistrations";
+        final String ORDER = " ORDER BY creationDate, BINARY credentialId LIMIT :limit";
+
+        List<LegacyRegistrationDTO> rows = after.isPresent()
+            ? client.forSql(SELECT + " WHERE (creationDate, BINARY credentialId) > (CAST(:creationDate AS DATETIME), BINARY :credentialId)" + ORDER)
+                .withParamSets(new CursorParams(after.get().getCreationDate(), after.get().getCredentialId(), limit))
+                .execute()
+                .mapToList(LegacyRegistrationDTO.class)
+            : client.forSql(SELECT + ORDER)
+                .withParamSets(new LimitParams(limit))
+                .execute()
+                .mapToList(LegacyRegistrationDTO.class);
+
+        insertIgnore(rows.stream()
+            .map(row -> Codecs.CREDENTIAL_REGISTRATION.read(row.registration))
+            .collect(Collectors.toList()));
+
+        Optional<LegacyCursor> last = after;
+        if (!rows.isEmpty()) {
+            LegacyRegistrationDTO row = rows.get(rows.size() - 1);
+            last = Optional.of(new LegacyCursor(row.creationDate, row.credentialId));
+        }
+        log.info("Migrated {} legacy credential registrations, up to {}", rows.size(), last);
+        return new MigrationPage(rows.size(), last);
+    }
+
+    /**
+     * A row of the legacy table, by the columns it is ordered on.
+     */
+    @Value
+    public static class LegacyCursor {
+        String creationDate;
+        String credentialId;
+    }
+
+    @Value
+    public static class MigrationPage {
+        /**
+         * Rows read; fewer than the limit means the end of the table was
+         * reached.
+         */
+        int read;
+        Optional<LegacyCursor> last;
+    }
+
+    private List<CredentialRegistration> select(String sql, String key) {
+        return client.forSql(sql)
+            .withParamSets(new KeyParams(key))
+            .execute()
+            .mapToList(CredentialDTO.class)
+            .stream()
+            .map(CredentialRows::registrationOf)
+            .collect(Collectors.toList());
+    }
+
+    private List<CredentialKey> selectKeys(String sql, String key) {
+        return client.forSql(sql)
+            .withParamSets(new KeyParams(key))
+            .execute()
+            .mapToList(CredentialKeyDTO.class)
+            .stream()
+            .map(CredentialRows::keyOf)
+            .collect(Collectors.toList());
+    }
+
+    private static List<CredentialKey> keysOf(Collection<CredentialRegistration> registrations) {
+        return registrations.stream()
+            .map(CredentialKey::of)
+            .collect(Collectors.toList());
+    }
+
+    /**
+     * With legacy fallback, adds the registrations of the same key in the
+     * legacy table that are not in <code>webauthnCredentials</code> yet, and
+     * copies those over. A user who registered a new credential after the
+     * upgrade still has their legacy ones until the migration reaches them.
+     */
+    private List<CredentialRegistration> withLegacy(List<CredentialRegistration> current, String column, String keyJsonOutput) {
+        if (!legacyFallback) {
+            return current;
+        }
+        Set<ByteArray> known = current.stream()
+            .map(reg -> reg.getCredential().getCredentialId())
+            .collect(Collectors.toSet());
+        List<CredentialRegistration> missing = importLegacy(column, keyJsonOutput, known);
+        if (missing.isEmpty()) {
+            return current;
+        }
+        List<CredentialRegistration> result = new ArrayList<>(current);
+        result.addAll(missing);
+        return result;
+    }
+
+    private List<CredentialKey> withLegacyKeys(List<CredentialKey> current, String column, String keyJsonOutput) {
+        if (!legacyFallback) {
+            return current;
+        }
+        Set<ByteArray> known = current.stream()
+            .map(CredentialKey::getCredentialId)
+            .collect(Collectors.toSet());
+        List<CredentialRegistration> missing = importLegacy(column, keyJsonOutput, known);
+        if (missing.isEmpty()) {
+            return current;
+        }
+        List<CredentialKey> result = new ArrayList<>(current);
+        result.addAll(keysOf(missing));
+        return result;
+    }
+
+    /**
+     * Looks up registrations in the legacy table, where keys are stored as
+     * JSON, and copies those not <code>known</code> into the new table.
+     *
+     * @return the registrations copied
+     */
+    private List<CredentialRegistration> importLegacy(String column, String keyJsonOutput, Set<ByteArray> known) {
+        final String SQL = "SELECT registration FROM credentialRegistrations WHERE " + column + " = :key";
+
+        List<CredentialRegistration> result = client.forSql(SQL)
+            .withParamSets(new KeyParams(keyJsonOutput))
+            .execute()
+            .mapToList(RegistrationDTO.class)
+            .stream()
+            .map(r -> Codecs.CREDENTIAL_REGISTRATION.read(r.registration))
+            .filter(reg -> !known.contains(reg.getCredential().getCredentialId()))
+            .collect(Collectors.toList());
+
+        if (!result.isEmpty()) {
+            log.debug("Importing {} legacy registrations by {}", result.size(), column);
+            insertIgnore(result);
+        }
+        return result;
+    }
+
+    private void insertIgnore(Collection<CredentialRegistration> registrations) {
+        if (registrations.isEmpty()) {
+            return;
+        }
+
+        final String SQL = "INSERT IGNORE INTO webauthnCredentials (" + COLUMNS + ") VALUES (:credentialId, :userHandle, :username, :publicKeyCose, :signatureCount, :registrationTime, :lastUsedTime, :lastUpdatedTime, :registration, :transports)";
+
+        client.forSql(SQL)
+            .withParamSets(registrations.stream().map(this::paramsOf).toArray())
+            .execute();
+    }
+
+    private CredentialParams paramsOf(CredentialRegistration reg) {
+        CredentialDTO row = CredentialRows.rowOf(reg);
+        return new CredentialParams(
+            row.credentialId,
+            row.userHandle,
+            row.username,
+            row.publicKeyCose,
+            row.signatureCount,
+            row.registrationTime,
+            row.lastUsedTime,
+            row.lastUpdatedTime,
+            row.registration,
+            row.transports);
+    }
+
     @Data
-    private static class GetParams {
-        public final String keyJsonOutput;
+    private static class UsernamePageParams {
+        public final String after;
+        public final long limit;
     }
 
     @Data
-    private static class AddParams {
-        public final String usernameJsonOutput;
-        public final String userHandleJsonOutput;
-        public final String credentialIdJsonOutput;
-        public final String registrationJsonOutput;
+    private static class SinceParams {
+        public final long since;
+    }
+
+    @Data
+    private static class KeyParams {
+        public final String key;
+    }
+
+    @Value
+    private static class LimitParams {
+        public final long limit;
+    }
+
+    @Value
+    private static class CursorParams {
+        public final String creationDate;
+        public final String credentialId;
+        public final long limit;
+    }
+
+    @Value
+    private static class CredentialParams {
+        public final String credentialId;
+        public final String userHandle;
+        public final String username;
+        public final String publicKeyCose;
+        public final long signatureCount;
+        public final Long registrationTime;
+        public final Long lastUsedTime;
+        public final Long lastUpdatedTime;
+        public final String registration;
+        public final String transports;
     }
 
     @Data
     private static class UpdateParams {
-        public final String registrationJsonOutput;
-        public final String usernameJsonOutput;
-        public final String credentialIdJsonOutput;
+        public final long signatureCount;
+        public final Long lastUsedTime;
+        public final Long lastUpdatedTime;
+        public final String registration;
+        public final String credentialId;
+        public final String username;
     }
 
     @Data
-    private static class DeleteRegistrationParams {
-        public final String usernameJsonOutput;
-        public final String credentialIdJsonOutput;
+    private static class SignatureCountParams {
+        public final long signatureCount;
+        public final long lastUsedTime;
+        public final String credentialId;
+        public final String username;
     }
 
     @Data
-    private static class DeleteAllParams {
-        public final String usernameJsonOutput;
+    private static class DeleteRegistrationParams {
+        public final String username;
+        public final String credentialId;
     }
 
 }
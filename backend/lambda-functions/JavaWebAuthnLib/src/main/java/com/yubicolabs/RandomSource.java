@@ -0,0 +1,25 @@
+package com.yubicolabs;
+
+import java.security.SecureRandom;
+
+
+/**
+ * Process-wide {@link SecureRandom}. Replaced after a SnapStart restore, so
+ * that containers restored from the same snapshot do not share its state.
+ */
+final class RandomSource {
+
+    private static volatile SecureRandom random = new SecureRandom();
+
+    private RandomSource() {
+    }
+
+    static SecureRandom get() {
+        return random;
+    }
+
+    static void reseed() {
+        random = new SecureRandom();
+    }
+
+}
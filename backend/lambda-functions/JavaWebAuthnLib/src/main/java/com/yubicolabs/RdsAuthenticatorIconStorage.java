@@ -0,0 +1,56 @@
+package com.yubicolabs;
+
+import com.amazon.rdsdata.client.RdsDataClient;
+import com.yubicolabs.data.AuthenticatorIconDTO;
+import java.util.List;
+import java.util.Optional;
+import lombok.Value;
+
+
+/**
+ * {@link AuthenticatorIconStorage} in the <code>authenticatorIcons</code> table
+ * over the RDS Data API.
+ */
+public class RdsAuthenticatorIconStorage implements AuthenticatorIconStorage {
+
+    private final RdsDataClient client;
+
+    public RdsAuthenticatorIconStorage(RdsDatabase database) {
+        this.client = database.getClient();
+    }
+
+    @Override
+    public Optional<String> get(String aaguid) {
+        final String SQL = "SELECT icon FROM authenticatorIcons WHERE aaguid = :aaguid";
+
+        List<AuthenticatorIconDTO> result = client.forSql(SQL)
+            .withParamSets(new KeyParams(aaguid))
+            .execute()
+            .mapToList(AuthenticatorIconDTO.class);
+
+        return result.stream().findFirst().map(row -> row.icon);
+    }
+
+    @Override
+    public String putIfAbsent(String aaguid, String icon) {
+        final String SQL = "INSERT IGNORE INTO authenticatorIcons (aaguid, icon) VALUES (:aaguid, :icon)";
+
+        client.forSql(SQL)
+            .withParamSets(new IconParams(aaguid, icon))
+            .execute();
+
+        return get(aaguid).orElse(icon);
+    }
+
+    @Value
+    private static class KeyParams {
+        public final String aaguid;
+    }
+
+    @Value
+    private static class IconParams {
+        public final String aaguid;
+        public final String icon;
+    }
+
+}
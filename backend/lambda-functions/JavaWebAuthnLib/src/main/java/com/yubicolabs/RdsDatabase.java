@@ -0,0 +1,62 @@
+package com.yubicolabs;
+
+import com.amazon.rdsdata.client.RdsDataClient;
+import com.amazonaws.services.rdsdata.AWSRDSData;
+import com.amazonaws.services.rdsdata.model.ExecuteStatementRequest;
+
+
+/**
+ * The Aurora database of the RDS storage classes, reached through the shared
+ * RDS Data API client. One instance is injected into all of them.
+ */
+public class RdsDatabase {
+
+    private final AWSRDSData rdsData;
+    private final RdsDataClient client;
+    private final String resourceArn;
+    private final String secretArn;
+    private final String database;
+
+    public RdsDatabase(AWSRDSData rdsData, String resourceArn, String secretArn, String database) {
+        this.rdsData = rdsData;
+        this.resourceArn = resourceArn;
+        this.secretArn = secretArn;
+        this.database = database;
+        this.client = RdsDataClient.builder()
+            .rdsDataService(rdsData)
+            .database(database)
+            .resourceArn(resourceArn)
+            .secretArn(secretArn)
+            .build();
+    }
+
+    /**
+     * The database named by the <code>DBAuroraClusterArn</code>,
+     * <code>DBSecretsStoreArn</code> and <code>DatabaseName</code> environment
+     * variables.
+     */
+    public static RdsDatabase fromEnvironment() {
+        return new RdsDatabase(
+            AwsClients.rdsData(),
+            System.getenv("DBAuroraClusterArn"),
+            System.getenv("DBSecretsStoreArn"),
+            System.getenv("DatabaseName"));
+    }
+
+    public RdsDataClient getClient() {
+        return client;
+    }
+
+    /**
+     * Runs a statement on the Data API directly, for results the client
+     * library does not expose, like the update count.
+     */
+    public Long executeUpdate(ExecuteStatementRequest statement) {
+        return rdsData.executeStatement(statement
+                .withResourceArn(resourceArn)
+                .withSecretArn(secretArn)
+                .withDatabase(database))
+            .getNumberOfRecordsUpdated();
+    }
+
+}
@@ -0,0 +1,137 @@
+package com.yubicolabs;
+
+import com.amazon.rdsdata.client.RdsDataClient;
+import com.amazonaws.services.rdsdata.model.ExecuteStatementRequest;
+import com.amazonaws.services.rdsdata.model.Field;
+import com.amazonaws.services.rdsdata.model.SqlParameter;
+import com.google.gson.Gson;
+import com.yubico.webauthn.data.ByteArray;
+import com.yubicolabs.data.StorageDTO;
+import java.time.Duration;
+import java.util.List;
+import lombok.Value;
+import lombok.extern.slf4j.Slf4j;
+
+
+/**
+ * {@link RequestStorage} in the <code>assertionRequests</code> or
+ * <code>registrationRequests</code> table over the RDS Data API. Requests
+ * older than <code>ttl</code> are neither read nor taken, whether or not
+ * {@link ExpiredRequestSweeper} has deleted them yet.
+ */
+@Slf4j
+public class RdsRequestStorage<V> implements RequestStorage<V> {
+
+    private static final String NOT_EXPIRED = " AND creationDate >= DATE_SUB( NOW( ) , INTERVAL :ttlSeconds SECOND )";
+
+    private final Gson gson = Codecs.gson();
+
+    private final RdsDatabase database;
+    private final RdsDataClient client;
+    private final String table;
+    private final Codec<V> codec;
+    private final Duration ttl;
+
+    public RdsRequestStorage(RdsDatabase database, String table, Class<V> type, Duration ttl) {
+        this.database = database;
+        this.client = database.getClient();
+        this.table = table;
+        this.codec = Codecs.codecFor(type);
+        this.ttl = ttl;
+    }
+
+    @Override
+    public ByteArray issue(ByteArray key, V value) {
+        final String SQL = "INSERT INTO " + table + " (_key, _value) VALUES( :keyJsonOutput, :valueJsonOutput)";
+
+        client.forSql(SQL)
+            .withParamSets(new PutParams(gson.toJson(key), codec.write(value)))
+            .execute();
+
+        return key;
+    }
+
+    @Override
+    public boolean invalidate(ByteArray key) {
+        final String SQL = "DELETE FROM " + table + " WHERE _key = :keyJsonOutput";
+
+        client.forSql(SQL)
+            .withParamSets(new KeyParams(gson.toJson(key)))
+            .execute();
+
+        return true;
+    }
+
+    @Override
+    public V getIfPresent(ByteArray key) {
+        log.debug("getIfPresent key: {}", key);
+
+        final String SQL = "SELECT _value FROM " + table + " WHERE _key = :keyJsonOutput" + NOT_EXPIRED;
+
+        List<StorageDTO> result = client.forSql(SQL)
+            .withParamSets(new LiveKeyParams(gson.toJson(key), ttl.getSeconds()))
+            .execute()
+            .mapToList(StorageDTO.class);
+
+        return result.isEmpty() ? null : codec.read(result.get(0)._value);
+    }
+
+    /**
+     * The Data API has no single statement for this, so the request is read and
+     * then deleted; only the caller whose delete removed the row gets the
+     * request.
+     */
+    @Override
+    public V take(ByteArray key) {
+        V value = getIfPresent(key);
+        if (value == null) {
+            return null;
+        }
+        final String SQL = "DELETE FROM " + table + " WHERE _key = :keyJsonOutput" + NOT_EXPIRED;
+
+        // Use the Data API directly, the client library does not expose the update count
+        Long deleted = database.executeUpdate(new ExecuteStatementRequest()
+            .withSql(SQL)
+            .withParameters(
+                new SqlParameter().withName("keyJsonOutput").withValue(new Field().withStringValue(gson.toJson(key))),
+                new SqlParameter().withName("ttlSeconds").withValue(new Field().withLongValue(ttl.getSeconds()))));
+
+        return deleted != null && deleted > 0 ? value : null;
+    }
+
+    /**
+     * Deletes at most <code>limit</code> requests older than <code>maxAge</code>.
+     * Runs outside the login path, see {@link ExpiredRequestSweeper}.
+     */
+    @Override
+    public int removeExpired(Duration maxAge, int limit) {
+        final String SQL = "DELETE FROM " + table + " WHERE creationDate < DATE_SUB( NOW( ) , INTERVAL :maxAgeSeconds SECOND ) LIMIT :limit";
+
+        // Use the Data API directly, the client library does not expose the update count
+        Long removed = database.executeUpdate(new ExecuteStatementRequest()
+            .withSql(SQL)
+            .withParameters(
+                new SqlParameter().withName("maxAgeSeconds").withValue(new Field().withLongValue(maxAge.getSeconds())),
+                new SqlParameter().withName("limit").withValue(new Field().withLongValue((long) limit))));
+
+        return removed == null ? 0 : removed.intValue();
+    }
+
+    @Value
+    private static class PutParams {
+        public final String keyJsonOutput;
+        public final String valueJsonOutput;
+    }
+
+    @Value
+    private static class KeyParams {
+        public final String keyJsonOutput;
+    }
+
+    @Value
+    private static class LiveKeyParams {
+        public final String keyJsonOutput;
+        public final long ttlSeconds;
+    }
+
+}
@@ -0,0 +1,211 @@
+package com.yubicolabs;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.yubico.fido.metadata.FidoMetadataDownloader;
+import com.yubico.fido.metadata.FidoMetadataService;
+import com.yubico.fido.metadata.MetadataBLOB;
+import com.yubico.webauthn.attestation.AttestationTrustSource;
+import com.yubico.webauthn.data.ByteArray;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.security.cert.CertificateFactory;
+import java.security.cert.X509Certificate;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import lombok.Value;
+import lombok.extern.slf4j.Slf4j;
+
+
+/**
+ * {@link AttestationTrustSource} backed by the FIDO metadata BLOB, which is
+ * downloaded and verified on a background thread and swapped in whole once
+ * ready. Until the first BLOB is loaded, and whenever none can be, the
+ * metadata bundled with the function is used: the index of the BLOB snapshot
+ * made at build time ({@link MetadataSnapshot}) if there is one, and the
+ * Yubico vendor metadata in <code>metadata.json</code> for trust roots and
+ * otherwise.
+ *
+ * <p>Lambda freezes the container between invocations, so refreshes run when
+ * the container is next used after they come due.
+ */
+@Slf4j
+public class RefreshingMetadataService implements AttestationTrustSource {
+
+    private static final String BUNDLED_METADATA_PATH = "/metadata.json";
+
+    private static final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(
+        new ThreadFactoryBuilder().setNameFormat("webauthn-mds-%d").setDaemon(true).build());
+
+    private final Callable<MetadataBLOB> loader;
+    private final Clock clock;
+    private final AtomicReference<Snapshot> current;
+    private final CountDownLatch firstLoad = new CountDownLatch(1);
+
+    /**
+     * One loaded BLOB, or the bundled metadata, with everything derived from it.
+     */
+    @Value
+    private static class Snapshot {
+        AttestationTrustSource trustSource;
+        MetadataIndex index;
+        Optional<LocalDate> nextUpdate;
+        Instant loadedAt;
+    }
+
+    RefreshingMetadataService(Callable<MetadataBLOB> loader, Clock clock) {
+        this.loader = loader;
+        this.clock = clock;
+        this.current = new AtomicReference<>(bundled(clock.instant()));
+    }
+
+    /**
+     * Loads the BLOB in the background now and then every
+     * <code>interval</code>.
+     */
+    public static RefreshingMetadataService start(Duration interval) {
+        RefreshingMetadataService service = new RefreshingMetadataService(
+            RefreshingMetadataService::download, Clock.systemUTC());
+        scheduler.scheduleWithFixedDelay(service::refresh, 0, interval.toMillis(), TimeUnit.MILLISECONDS);
+        return service;
+    }
+
+    /**
+     * Uses the given BLOB, without refreshing.
+     */
+    static RefreshingMetadataService of(MetadataBLOB blob) {
+        RefreshingMetadataService service = new RefreshingMetadataService(() -> blob, Clock.systemUTC());
+        service.refresh();
+        return service;
+    }
+
+    static MetadataBLOB download() throws Exception {
+        return download(new File("/tmp"));
+    }
+
+    /**
+     * Downloads the BLOB if the cached copy in <code>cacheDir</code> is
+     * missing or due for an update, and verifies its signature.
+     */
+    static MetadataBLOB download(File cacheDir) throws Exception {
+        return FidoMetadataDownloader.builder()
+            .expectLegalHeader(
+                "Retrieval and use of this BLOB indicates acceptance of the appropriate agreement located at https://fidoalliance.org/metadata/metadata-legal-terms/")
+            .useDefaultTrustRoot()
+            .useTrustRootCacheFile(new File(cacheDir, "fido-mds-trust-root-cache.bin"))
+            .useDefaultBlob()
+            .useBlobCacheFile(new File(cacheDir, "fido-mds-blob-cache.bin"))
+            .build()
+            .loadCachedBlob();
+    }
+
+    /**
+     * Loads the BLOB and swaps it in. On failure the current metadata is kept.
+     */
+    void refresh() {
+        try {
+            MetadataBLOB blob = loader.call();
+            FidoMetadataService mds = FidoMetadataService.builder()
+                .useBlob(blob)
+                .build();
+            LocalDate nextUpdate = blob.getPayload().getNextUpdate();
+            current.set(new Snapshot(mds, MetadataIndex.of(mds), Optional.of(nextUpdate), clock.instant()));
+            log.info("Loaded FIDO metadata BLOB {}, next update: {}", blob.getPayload().getNo(), nextUpdate);
+        } catch (Exception e) {
+            log.warn("Failed to load FIDO metadata BLOB, keeping metadata loaded at {}", getLoadedAt(), e);
+        } finally {
+            firstLoad.countDown();
+        }
+    }
+
+    /**
+     * Waits up to <code>timeout</code> for the first load attempt, for
+     * callers that prefer the BLOB over a quick start.
+     *
+     * @return whether the first load attempt has completed
+     */
+    public boolean awaitFirstLoad(Duration timeout) {
+        try {
+            return firstLoad.await(timeout.toMillis(), TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    @Override
+    public TrustRootsResult findTrustRoots(List<X509Certificate> attestationCertificateChain,
+            Optional<ByteArray> aaguid) {
+        return current.get().getTrustSource().findTrustRoots(attestationCertificateChain, aaguid);
+    }
+
+    public MetadataIndex getIndex() {
+        return current.get().getIndex();
+    }
+
+    /**
+     * When the loaded BLOB says a newer one will be published; empty for the
+     * bundled vendor metadata.
+     */
+    public Optional<LocalDate> getNextUpdate() {
+        return current.get().getNextUpdate();
+    }
+
+    public Instant getLoadedAt() {
+        return current.get().getLoadedAt();
+    }
+
+    private static Snapshot bundled(Instant now) {
+        try (InputStream in = RefreshingMetadataService.class.getResourceAsStream(BUNDLED_METADATA_PATH)) {
+            JsonObject metadata = new Gson().fromJson(
+                new InputStreamReader(in, StandardCharsets.UTF_8), JsonObject.class);
+
+            CertificateFactory certificateFactory = CertificateFactory.getInstance("X.509");
+            Set<X509Certificate> trustRoots = new HashSet<>();
+            for (JsonElement pem : metadata.getAsJsonArray("trustedCertificates")) {
+                trustRoots.add((X509Certificate) certificateFactory.generateCertificate(
+                    new ByteArrayInputStream(pem.getAsString().getBytes(StandardCharsets.US_ASCII))));
+            }
+            // The bundled roots publish no revocation lists
+            TrustRootsResult trustRootsResult = TrustRootsResult.builder()
+                .trustRoots(Collections.unmodifiableSet(trustRoots))
+                .enableRevocationChecking(false)
+                .build();
+
+            // Prefer the index of the BLOB snapshot made at build time, if any
+            Optional<MetadataSnapshot> buildSnapshot = MetadataSnapshot.loadBundled();
+            return new Snapshot(
+                (chain, aaguid) -> trustRootsResult,
+                buildSnapshot.map(MetadataSnapshot::getIndex)
+                    .orElseGet(() -> MetadataIndex.ofVendorMetadata(metadata)),
+                buildSnapshot.map(MetadataSnapshot::getNextUpdate),
+                now);
+        } catch (Exception e) {
+            log.error("Failed to load bundled metadata", e);
+            return new Snapshot(
+                (chain, aaguid) -> TrustRootsResult.builder().trustRoots(Collections.emptySet()).build(),
+                MetadataIndex.EMPTY,
+                Optional.empty(),
+                now);
+        }
+    }
+
+}
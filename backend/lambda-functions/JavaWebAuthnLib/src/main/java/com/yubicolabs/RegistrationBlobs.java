@@ -0,0 +1,237 @@
+package com.yubicolabs;
+
+import com.fasterxml.jackson.annotation.JsonFormat;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonPropertyOrder;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.yubico.fido.metadata.AttachmentHint;
+import com.yubico.webauthn.data.AuthenticatorSelectionCriteria;
+import com.yubico.webauthn.data.AuthenticatorTransport;
+import com.yubico.webauthn.data.ByteArray;
+import com.yubico.webauthn.data.PublicKeyCredentialCreationOptions;
+import com.yubico.webauthn.data.RelyingPartyIdentity;
+import com.yubico.webauthn.data.UserIdentity;
+import com.yubicolabs.data.AttestationRegistration;
+import com.yubicolabs.data.CredentialRegistration;
+import com.yubicolabs.data.RegistrationRequest;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+
+/**
+ * Encoding of the <code>registration</code> column of
+ * <code>webauthnCredentials</code>.
+ *
+ * <p>Registrations are written as a CBOR array, base64 encoded to fit the
+ * text column. It keeps only what is read after the ceremony: of the
+ * creation options, the relying party and the authenticator selection,
+ * which the web client shows. The challenge and the offered algorithms are
+ * dropped, and the user is taken from the registration. The first element
+ * of the array is the format version.
+ *
+ * <p>Rows written before this format hold Gson JSON, which always starts
+ * with <code>{</code>, a character base64 does not use. Such rows are still
+ * read, and are rewritten in this format with the next update.
+ */
+final class RegistrationBlobs {
+
+    static final int VERSION = 1;
+
+    private static final ObjectMapper cbor = new ObjectMapper(new CBORFactory());
+    private static final ObjectMapper json = Codecs.json();
+
+    private RegistrationBlobs() {
+    }
+
+    static String write(CredentialRegistration reg) {
+        try {
+            return Base64.getEncoder().encodeToString(cbor.writeValueAsBytes(blobOf(reg)));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    static CredentialRegistration read(String value) {
+        if (value == null) {
+            return null;
+        }
+        if (value.startsWith("{")) {
+            return Codecs.CREDENTIAL_REGISTRATION.read(value);
+        }
+        Blob blob;
+        try {
+            blob = cbor.readValue(Base64.getDecoder().decode(value), Blob.class);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        if (blob.version != VERSION) {
+            throw new IllegalStateException("Unknown registration format version: " + blob.version);
+        }
+        return registrationOf(blob);
+    }
+
+    private static Blob blobOf(CredentialRegistration reg) {
+        Blob blob = new Blob();
+        blob.version = VERSION;
+        blob.signatureCount = reg.getSignatureCount();
+        blob.username = reg.getUserIdentity().getName();
+        blob.displayName = reg.getUserIdentity().getDisplayName();
+        blob.userHandle = reg.getUserIdentity().getId().getBytes();
+        blob.nickname = reg.getCredentialNickname() == null ? null : reg.getCredentialNickname().orElse(null);
+
+        AttestationRegistration attestation = reg.getAttestationMetadata() == null
+            ? null
+            : reg.getAttestationMetadata().orElse(null);
+        if (attestation != null) {
+            blob.attested = true;
+            blob.aaguid = attestation.getAaguid();
+            blob.aaid = attestation.getAaid();
+            blob.attachmentHints = jsonValues(attestation.getAttachmentHint());
+            blob.icon = attestation.getIcon();
+            blob.description = attestation.getDescription();
+            blob.transports = jsonValues(attestation.getAuthenticatorTransport());
+        }
+
+        RegistrationRequest request = reg.getRegistrationRequest();
+        if (request != null) {
+            blob.requested = true;
+            blob.requestType = request.getType();
+            blob.requestCredentialNickname = request.getCredentialNickname();
+            blob.requireResidentKey = request.isRequireResidentKey();
+            blob.requestId = request.getRequestId() == null ? null : request.getRequestId().getBytes();
+
+            PublicKeyCredentialCreationOptions options = request.getPublicKeyCredentialCreationOptions();
+            if (options != null) {
+                blob.rpId = options.getRp().getId();
+                blob.rpName = options.getRp().getName();
+                blob.authenticatorSelection = options.getAuthenticatorSelection()
+                    .map(selection -> json.valueToTree(selection).toString())
+                    .orElse(null);
+            }
+        }
+        return blob;
+    }
+
+    private static CredentialRegistration registrationOf(Blob blob) {
+        UserIdentity user = UserIdentity.builder()
+            .name(blob.username)
+            .displayName(blob.displayName)
+            .id(new ByteArray(blob.userHandle))
+            .build();
+
+        Optional<AttestationRegistration> attestation = Optional.empty();
+        if (blob.attested) {
+            attestation = Optional.of(AttestationRegistration.builder()
+                .aaguid(blob.aaguid)
+                .aaid(blob.aaid)
+                .attachmentHint(fromJsonValues(blob.attachmentHints, AttachmentHint.class))
+                .icon(blob.icon)
+                .description(blob.description)
+                .authenticatorTransport(fromJsonValues(blob.transports, AuthenticatorTransport.class))
+                .build());
+        }
+
+        RegistrationRequest request = null;
+        if (blob.requested) {
+            PublicKeyCredentialCreationOptions options = null;
+            if (blob.rpId != null) {
+                options = PublicKeyCredentialCreationOptions.builder()
+                    .rp(RelyingPartyIdentity.builder().id(blob.rpId).name(blob.rpName).build())
+                    .user(user)
+                    .challenge(new ByteArray(new byte[0]))
+                    .pubKeyCredParams(Collections.emptyList())
+                    .authenticatorSelection(Optional.ofNullable(blob.authenticatorSelection)
+                        .map(RegistrationBlobs::readAuthenticatorSelection))
+                    .build();
+            }
+            request = new RegistrationRequest(
+                blob.requestType,
+                blob.username,
+                blob.displayName,
+                blob.requestCredentialNickname,
+                blob.requireResidentKey,
+                blob.requestId == null ? null : new ByteArray(blob.requestId),
+                options);
+        }
+
+        return CredentialRegistration.builder()
+            .signatureCount(blob.signatureCount)
+            .userIdentity(user)
+            .credentialNickname(Optional.ofNullable(blob.nickname))
+            .attestationMetadata(attestation)
+            .registrationRequest(request)
+            .build();
+    }
+
+    private static AuthenticatorSelectionCriteria readAuthenticatorSelection(String value) {
+        try {
+            return json.readValue(value, AuthenticatorSelectionCriteria.class);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static <T> List<String> jsonValues(Set<T> values) {
+        if (values == null) {
+            return null;
+        }
+        return values.stream()
+            .map(value -> json.convertValue(value, String.class))
+            .collect(Collectors.toList());
+    }
+
+    private static <T> Set<T> fromJsonValues(List<String> values, Class<T> type) {
+        if (values == null) {
+            return null;
+        }
+        return values.stream()
+            .map(value -> json.convertValue(value, type))
+            .collect(Collectors.toSet());
+    }
+
+    /**
+     * Fields are written by position; only append to the end, and bump
+     * {@link #VERSION} for any other change.
+     */
+    @JsonFormat(shape = JsonFormat.Shape.ARRAY)
+    @JsonPropertyOrder({
+        "version", "signatureCount", "username", "displayName", "userHandle", "nickname",
+        "attested", "aaguid", "aaid", "attachmentHints", "icon", "description", "transports",
+        "requested", "requestType", "requestCredentialNickname", "requireResidentKey", "requestId",
+        "rpId", "rpName", "authenticatorSelection"
+    })
+    @JsonInclude(JsonInclude.Include.ALWAYS)
+    static class Blob {
+        public int version;
+        public long signatureCount;
+        public String username;
+        public String displayName;
+        public byte[] userHandle;
+        public String nickname;
+
+        public boolean attested;
+        public String aaguid;
+        public String aaid;
+        public List<String> attachmentHints;
+        public String icon;
+        public String description;
+        public List<String> transports;
+
+        public boolean requested;
+        public String requestType;
+        public String requestCredentialNickname;
+        public boolean requireResidentKey;
+        public byte[] requestId;
+        public String rpId;
+        public String rpName;
+        public String authenticatorSelection;
+    }
+
+}
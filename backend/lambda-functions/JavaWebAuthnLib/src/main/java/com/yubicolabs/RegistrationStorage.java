@@ -3,9 +3,13 @@ package com.yubicolabs;
 import com.yubico.webauthn.AssertionResult;
 import com.yubico.webauthn.CredentialRepository;
 import com.yubico.webauthn.data.ByteArray;
+import com.yubicolabs.data.CredentialKey;
 import com.yubicolabs.data.CredentialRegistration;
 import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.Optional;
+import java.util.stream.Collectors;
 
 // RVW: This interface can probably be eliminated since there's only one implementation
 public interface RegistrationStorage extends CredentialRepository {
@@ -14,6 +18,35 @@ public interface RegistrationStorage extends CredentialRepository {
     Collection<CredentialRegistration> getRegistrationsByUsername(String username);
     Optional<CredentialRegistration> getRegistrationByUsernameAndCredentialId(String username, ByteArray userHandle);
     Collection<CredentialRegistration> getRegistrationsByUserHandle(ByteArray userHandle);
+    Collection<CredentialRegistration> getRegistrationsByCredentialId(ByteArray credentialId);
+
+    /**
+     * Registrations of several users at once. Every requested username is a
+     * key of the result, mapped to an empty collection if it has none.
+     */
+    default Map<String, Collection<CredentialRegistration>> getRegistrationsByUsernames(Collection<String> usernames) {
+        Map<String, Collection<CredentialRegistration>> result = new HashMap<>();
+        for (String username : usernames) {
+            result.put(username, getRegistrationsByUsername(username));
+        }
+        return result;
+    }
+
+    /**
+     * The identifiers of a user's registrations, for callers that need no
+     * more of them; backends read these without the registration blobs.
+     */
+    default Collection<CredentialKey> getCredentialKeysByUsername(String username) {
+        return getRegistrationsByUsername(username).stream()
+            .map(CredentialKey::of)
+            .collect(Collectors.toList());
+    }
+
+    default Collection<CredentialKey> getCredentialKeysByUserHandle(ByteArray userHandle) {
+        return getRegistrationsByUserHandle(userHandle).stream()
+            .map(CredentialKey::of)
+            .collect(Collectors.toList());
+    }
 
     default boolean userExists(String username) {
         return !getRegistrationsByUsername(username).isEmpty();
@@ -23,6 +56,16 @@ public interface RegistrationStorage extends CredentialRepository {
     boolean removeAllRegistrations(String username);
 
     void updateSignatureCount(AssertionResult result);
+
+    /**
+     * Several signature count updates at once, in one round trip where the
+     * backend supports it.
+     */
+    default void updateSignatureCounts(Collection<AssertionResult> results) {
+        results.forEach(this::updateSignatureCount);
+    }
+
+    boolean updateRegistration(String username, ByteArray credentialId, CredentialRegistration reg);
     
     void updateCredentialNickname(String username, ByteArray credentialId, String nickname);
 }
\ No newline at end of file
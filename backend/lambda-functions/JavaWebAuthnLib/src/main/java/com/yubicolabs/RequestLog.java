@@ -0,0 +1,71 @@
+package com.yubicolabs;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import lombok.extern.slf4j.Slf4j;
+import org.slf4j.MDC;
+
+
+/**
+ * Logging context of one invocation. Puts the event type in the MDC and, for
+ * the fraction of invocations given by {@link Config#getLogSampleRate()},
+ * <code>sampled=true</code>, which the log4j2 configuration uses to log those
+ * invocations at DEBUG. When ended, logs one line with the duration and
+ * outcome, also as MDC fields for the JSON layout.
+ */
+@Slf4j
+final class RequestLog {
+
+    static final String TYPE = "type";
+    static final String SAMPLED = "sampled";
+    static final String DURATION_MS = "durationMs";
+    static final String OUTCOME = "outcome";
+
+    private final String type;
+    private final long start;
+
+    private RequestLog(String type, long start) {
+        this.type = type;
+        this.start = start;
+    }
+
+    static RequestLog begin(String type, double sampleRate) {
+        MDC.put(TYPE, type);
+        if (sampleRate > 0 && ThreadLocalRandom.current().nextDouble() < sampleRate) {
+            MDC.put(SAMPLED, "true");
+        }
+        return new RequestLog(type, System.nanoTime());
+    }
+
+    /**
+     * @param result the handler's result; <code>null</code> if it threw
+     */
+    void end(Object result) {
+        long durationMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        String outcome = result == null || result instanceof Throwable ? "error" : "ok";
+        MDC.put(DURATION_MS, Long.toString(durationMs));
+        MDC.put(OUTCOME, outcome);
+        try {
+            log.info("Handled {} in {} ms: {}", type, durationMs, outcome);
+        } finally {
+            MDC.remove(TYPE);
+            MDC.remove(SAMPLED);
+            MDC.remove(DURATION_MS);
+            MDC.remove(OUTCOME);
+        }
+    }
+
+    /**
+     * @return an argument that renders <code>value</code> as JSON only if the
+     *     log event is written
+     */
+    static Object json(Object value) {
+        return new Object() {
+            @Override
+            public String toString() {
+                return Codecs.gson().toJson(value);
+            }
+        };
+    }
+
+}
@@ -0,0 +1,40 @@
+package com.yubicolabs;
+
+import com.yubico.webauthn.data.ByteArray;
+import java.time.Duration;
+
+/**
+ * Storage for in-flight registration and assertion requests, keyed by request
+ * ID, between the start and finish steps of a ceremony.
+ */
+public interface RequestStorage<V> {
+
+    /**
+     * Stores a new request and returns the ID the client must send back to
+     * finish it. Only differs from <code>key</code> for backends that encode
+     * the request into the ID itself.
+     */
+    ByteArray issue(ByteArray key, V value);
+
+    V getIfPresent(ByteArray key);
+
+    boolean invalidate(ByteArray key);
+
+    /**
+     * Returns the request and removes it in one step, so that a request can be
+     * finished at most once.
+     *
+     * @return the stored request, or <code>null</code> if there is none
+     */
+    V take(ByteArray key);
+
+    /**
+     * Deletes at most <code>limit</code> requests older than <code>maxAge</code>.
+     * Backends that expire entries on their own need not implement this.
+     *
+     * @return the number of requests deleted
+     */
+    default int removeExpired(Duration maxAge, int limit) {
+        return 0;
+    }
+}
@@ -0,0 +1,171 @@
+package com.yubicolabs;
+
+import com.yubico.webauthn.data.ByteArray;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.function.Function;
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import lombok.extern.slf4j.Slf4j;
+
+
+/**
+ * Stateless {@link RequestStorage}: the request is encrypted with AES-GCM into
+ * the request ID handed to the client, so nothing is written when a ceremony
+ * starts. The only write is a replay guard keyed by the challenge, made when
+ * the request is taken, which lets each request be finished at most once.
+ *
+ * <p>Token layout: version (1 byte), IV (12 bytes), then the ciphertext of the
+ * expiry time (8 bytes, epoch seconds) followed by the request as JSON.
+ */
+@Slf4j
+public class SealedRequestStorage<V> implements RequestStorage<V> {
+
+    private static final byte VERSION = 1;
+    private static final int IV_LENGTH = 12;
+    private static final int TAG_BITS = 128;
+    private static final String TRANSFORMATION = "AES/GCM/NoPadding";
+
+    private final SecretKey key;
+    private final KeyValueStore usedChallenges;
+    private final String prefix;
+    private final Codec<V> codec;
+    private final Function<V, ByteArray> challengeOf;
+    private final Duration ttl;
+    private final Clock clock;
+
+    public SealedRequestStorage(byte[] key, KeyValueStore usedChallenges, String prefix, Class<V> type,
+            Function<V, ByteArray> challengeOf, Duration ttl) {
+        this(key, usedChallenges, prefix, type, challengeOf, ttl, Clock.systemUTC());
+    }
+
+    SealedRequestStorage(byte[] key, KeyValueStore usedChallenges, String prefix, Class<V> type,
+            Function<V, ByteArray> challengeOf, Duration ttl, Clock clock) {
+        if (key.length != 32) {
+            throw new IllegalArgumentException("Request sealing key must be 32 bytes, was " + key.length);
+        }
+        this.key = new SecretKeySpec(key, "AES");
+        this.usedChallenges = usedChallenges;
+        this.prefix = prefix;
+        this.codec = Codecs.codecFor(type);
+        this.challengeOf = challengeOf;
+        this.ttl = ttl;
+        this.clock = clock;
+    }
+
+    @Override
+    public ByteArray issue(ByteArray key, V value) {
+        byte[] json = codec.write(value).getBytes(StandardCharsets.UTF_8);
+        byte[] plaintext = ByteBuffer.allocate(Long.BYTES + json.length)
+            .putLong(clock.instant().plus(ttl).getEpochSecond())
+            .put(json)
+            .array();
+
+        byte[] iv = new byte[IV_LENGTH];
+        RandomSource.get().nextBytes(iv);
+
+        try {
+            byte[] ciphertext = cipher(Cipher.ENCRYPT_MODE, iv).doFinal(plaintext);
+            return new ByteArray(ByteBuffer.allocate(1 + IV_LENGTH + ciphertext.length)
+                .put(VERSION)
+                .put(iv)
+                .put(ciphertext)
+                .array());
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("Failed to seal request", e);
+        }
+    }
+
+    @Override
+    public V getIfPresent(ByteArray key) {
+        V value = open(key);
+        if (value == null || isUsed(value)) {
+            return null;
+        }
+        return value;
+    }
+
+    @Override
+    public boolean invalidate(ByteArray key) {
+        V value = open(key);
+        return value != null && markUsed(value);
+    }
+
+    @Override
+    public V take(ByteArray key) {
+        log.debug("take key: {}", key);
+        V value = open(key);
+        if (value == null) {
+            return null;
+        }
+        if (!markUsed(value)) {
+            log.warn("Rejected replayed {} request", prefix);
+            return null;
+        }
+        return value;
+    }
+
+    /**
+     * Replay guard entries expire on their own, as long as the tokens they
+     * guard.
+     */
+    @Override
+    public int removeExpired(Duration maxAge, int limit) {
+        return usedChallenges.removeExpired(limit);
+    }
+
+    private V open(ByteArray token) {
+        byte[] bytes = token.getBytes();
+        if (bytes.length <= 1 + IV_LENGTH || bytes[0] != VERSION) {
+            log.debug("Not a sealed {} request", prefix);
+            return null;
+        }
+
+        ByteBuffer plaintext;
+        try {
+            byte[] iv = new byte[IV_LENGTH];
+            System.arraycopy(bytes, 1, iv, 0, IV_LENGTH);
+            plaintext = ByteBuffer.wrap(cipher(Cipher.DECRYPT_MODE, iv)
+                .doFinal(bytes, 1 + IV_LENGTH, bytes.length - 1 - IV_LENGTH));
+        } catch (GeneralSecurityException e) {
+            log.debug("Failed to open sealed {} request", prefix, e);
+            return null;
+        }
+
+        if (Instant.ofEpochSecond(plaintext.getLong()).isBefore(clock.instant())) {
+            log.debug("Sealed {} request has expired", prefix);
+            return null;
+        }
+
+        String json = new String(plaintext.array(), plaintext.position(), plaintext.remaining(),
+            StandardCharsets.UTF_8);
+        return codec.read(json);
+    }
+
+    private Cipher cipher(int mode, byte[] iv) throws GeneralSecurityException {
+        Cipher cipher = Cipher.getInstance(TRANSFORMATION);
+        cipher.init(mode, key, new GCMParameterSpec(TAG_BITS, iv));
+        // Binds the token to its request type
+        cipher.updateAAD(prefix.getBytes(StandardCharsets.UTF_8));
+        return cipher;
+    }
+
+    private boolean isUsed(V value) {
+        return usedChallenges.get(challengeKeyOf(value)).isPresent();
+    }
+
+    private boolean markUsed(V value) {
+        return usedChallenges.putIfAbsent(challengeKeyOf(value), "used", ttl);
+    }
+
+    private String challengeKeyOf(V value) {
+        return prefix + ":challenge:" + challengeOf.apply(value).getBase64Url();
+    }
+
+}
@@ -0,0 +1,101 @@
+package com.yubicolabs;
+
+import com.amazonaws.services.lambda.runtime.Context;
+import com.amazonaws.services.lambda.runtime.RequestStreamHandler;
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import lombok.extern.slf4j.Slf4j;
+
+
+/**
+ * Alternative entry point to {@link App}, selected with the handler
+ * <code>com.yubicolabs.StreamingApp::handleRequest</code>. The event is parsed
+ * straight from the invocation payload, without the runtime first binding it
+ * to maps, and the result is written straight to the response stream.
+ *
+ * <p>The Node callers send the event as a JSON string holding the event JSON.
+ * Such a payload is parsed from the characters of that string; a plain JSON
+ * object is parsed as is. Results are written as the runtime would have
+ * written them for {@link App}: strings as JSON strings, exceptions as an
+ * object with their <code>message</code>, and other objects as JSON.
+ */
+@Slf4j
+public class StreamingApp implements RequestStreamHandler {
+
+    private final App app;
+    private final ObjectMapper jsonMapper = Codecs.json();
+
+    public StreamingApp() {
+        this(new App());
+    }
+
+    StreamingApp(App app) {
+        this.app = app;
+    }
+
+    @Override
+    public void handleRequest(InputStream input, OutputStream output, Context context) throws IOException {
+        Object result;
+        try {
+            JsonNode event = readEvent(input);
+            JsonNode type = event.get("type");
+            if (type == null) {
+                throw new IOException("Event has no type");
+            }
+            result = app.handleEvent(type.asText(), event, event);
+        } catch (IOException e) {
+            log.error("JSON error in handleRequest", e);
+            result = e;
+        }
+        writeResult(result, output);
+    }
+
+    JsonNode readEvent(InputStream input) throws IOException {
+        try (JsonParser parser = jsonMapper.getFactory().createParser(input)) {
+            JsonToken first = parser.nextToken();
+            if (first == JsonToken.VALUE_STRING) {
+                // Parse the inner JSON from the parser's buffer, without making a String of it
+                try (JsonParser inner = jsonMapper.getFactory().createParser(
+                        parser.getTextCharacters(), parser.getTextOffset(), parser.getTextLength())) {
+                    return readObject(inner);
+                }
+            }
+            return readObject(parser);
+        }
+    }
+
+    private JsonNode readObject(JsonParser parser) throws IOException {
+        JsonNode event = jsonMapper.readTree(parser);
+        if (event == null || !event.isObject()) {
+            throw new IOException("Event is not a JSON object");
+        }
+        return event;
+    }
+
+    void writeResult(Object result, OutputStream output) throws IOException {
+        try (JsonGenerator generator = jsonMapper.getFactory().createGenerator(output, JsonEncoding.UTF8)) {
+            if (result == null) {
+                generator.writeNull();
+            } else if (result instanceof String) {
+                generator.writeString((String) result);
+            } else if (result instanceof Throwable) {
+                Throwable error = (Throwable) result;
+                generator.writeStartObject();
+                generator.writeStringField("message", error.getMessage());
+                generator.writeStringField("localizedMessage", error.getLocalizedMessage());
+                generator.writeStringField("errorType", error.getClass().getName());
+                generator.writeEndObject();
+            } else {
+                jsonMapper.writeValue(generator, result);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,422 @@
+package com.yubicolabs;
+
+import com.yubico.internal.util.CollectionUtil;
+import com.yubico.webauthn.AssertionResult;
+import com.yubico.webauthn.RegisteredCredential;
+import com.yubico.webauthn.data.ByteArray;
+import com.yubico.webauthn.data.PublicKeyCredentialDescriptor;
+import com.yubicolabs.data.CredentialKey;
+import com.yubicolabs.data.CredentialRegistration;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+import lombok.extern.slf4j.Slf4j;
+
+
+/**
+ * Request-scoped unit of work around another {@link RegistrationStorage}.
+ *
+ * <p>Between {@link #begin()} and {@link #commit()}, each user's rows are read
+ * from the delegate at most once and every {@link com.yubico.webauthn.CredentialRepository}
+ * callback is answered from memory. Callbacks that only need the credential
+ * IDs or user handle read those without the rows, unless the rows are
+ * already loaded. Rows read by credential ID, such as the one prefetched while
+ * an assertion request is taken, also answer the callbacks about that
+ * credential and its user. Signature count updates are deferred and
+ * written once per credential on commit. Other writes go straight through and
+ * make the scope forget what it read about the user written to, and only
+ * that user, since a batch runs the operations of other users concurrently
+ * in the same scope. Outside a scope, all calls go straight to the delegate.
+ */
+@Slf4j
+public class UnitOfWorkRegistrationStorage implements RegistrationStorage {
+
+    private final RegistrationStorage delegate;
+
+    private volatile Scope scope;
+
+    public UnitOfWorkRegistrationStorage(RegistrationStorage delegate) {
+        this.delegate = delegate;
+    }
+
+    public void begin() {
+        scope = new Scope();
+    }
+
+    /**
+     * Writes the deferred signature count updates and closes the scope. Write
+     * failures are logged, not thrown, since the ceremony has already
+     * succeeded.
+     */
+    public void commit() {
+        Scope finished = scope;
+        scope = null;
+        if (finished != null) {
+            finished.flush();
+        }
+    }
+
+    @Override
+    public Collection<CredentialRegistration> getRegistrationsByUsername(String username) {
+        Scope current = scope;
+        return current == null ? delegate.getRegistrationsByUsername(username) : current.forUsername(username);
+    }
+
+    @Override
+    public Map<String, Collection<CredentialRegistration>> getRegistrationsByUsernames(Collection<String> usernames) {
+        Scope current = scope;
+        return current == null ? delegate.getRegistrationsByUsernames(usernames) : current.forUsernames(usernames);
+    }
+
+    @Override
+    public Collection<CredentialRegistration> getRegistrationsByUserHandle(ByteArray userHandle) {
+        Scope current = scope;
+        return current == null ? delegate.getRegistrationsByUserHandle(userHandle) : current.forUserHandle(userHandle);
+    }
+
+    @Override
+    public Collection<CredentialRegistration> getRegistrationsByCredentialId(ByteArray credentialId) {
+        Scope current = scope;
+        return current == null ? delegate.getRegistrationsByCredentialId(credentialId) : current.forCredentialId(credentialId);
+    }
+
+    @Override
+    public Optional<CredentialRegistration> getRegistrationByUsernameAndCredentialId(String username, ByteArray id) {
+        return getRegistrationsByUsername(username).stream()
+            .filter(credReg -> id.equals(credReg.getCredential().getCredentialId()))
+            .findFirst();
+    }
+
+    @Override
+    public Collection<CredentialKey> getCredentialKeysByUsername(String username) {
+        Scope current = scope;
+        return current == null ? delegate.getCredentialKeysByUsername(username) : current.keysForUsername(username);
+    }
+
+    @Override
+    public Collection<CredentialKey> getCredentialKeysByUserHandle(ByteArray userHandle) {
+        Scope current = scope;
+        return current == null ? delegate.getCredentialKeysByUserHandle(userHandle) : current.keysForUserHandle(userHandle);
+    }
+
+    @Override
+    public boolean userExists(String username) {
+        return !getCredentialKeysByUsername(username).isEmpty();
+    }
+
+    @Override
+    public Set<PublicKeyCredentialDescriptor> getCredentialIdsForUsername(String username) {
+        return getCredentialKeysByUsername(username).stream()
+            .map(CredentialKey::toDescriptor)
+            .collect(Collectors.toSet());
+    }
+
+    /**
+     * Within a scope, loads the rows of the user unless their keys or a row
+     * read by credential ID are already known, since {@link #lookup} follows
+     * this callback in an assertion.
+     */
+    @Override
+    public Optional<String> getUsernameForUserHandle(ByteArray userHandle) {
+        Scope current = scope;
+        if (current == null) {
+            return delegate.getUsernameForUserHandle(userHandle);
+        }
+        Collection<CredentialKey> keys = current.keysByUserHandle.get(userHandle);
+        if (keys != null) {
+            return keys.stream().findAny().map(CredentialKey::getUsername);
+        }
+        Optional<CredentialRegistration> loaded = current.anyByCredentialId(
+            reg -> userHandle.equals(reg.getUserIdentity().getId()));
+        if (loaded.isPresent()) {
+            return loaded.map(CredentialRegistration::getUsername);
+        }
+        return current.forUserHandle(userHandle).stream()
+            .findAny()
+            .map(CredentialRegistration::getUsername);
+    }
+
+    /**
+     * Like {@link #getUsernameForUserHandle}.
+     */
+    @Override
+    public Optional<ByteArray> getUserHandleForUsername(String username) {
+        Scope current = scope;
+        if (current == null) {
+            return delegate.getUserHandleForUsername(username);
+        }
+        Collection<CredentialKey> keys = current.keysByUsername.get(username);
+        if (keys != null) {
+            return keys.stream().findAny().map(CredentialKey::getUserHandle);
+        }
+        Optional<CredentialRegistration> loaded = current.anyByCredentialId(
+            reg -> username.equals(reg.getUsername()));
+        if (loaded.isPresent()) {
+            return loaded.map(reg -> reg.getUserIdentity().getId());
+        }
+        return current.forUsername(username).stream()
+            .findAny()
+            .map(reg -> reg.getUserIdentity().getId());
+    }
+
+    /**
+     * Within a scope the credential is always read by its ID, never taken from
+     * rows read by username or user handle, which a cache below may serve
+     * after the credential was removed elsewhere; see
+     * {@link CachingRegistrationStorage}. The finish handler reads it ahead,
+     * while the request is taken.
+     */
+    @Override
+    public Optional<RegisteredCredential> lookup(ByteArray credentialId, ByteArray userHandle) {
+        Scope current = scope;
+        if (current == null) {
+            return delegate.lookup(credentialId, userHandle);
+        }
+        return current.forCredentialId(credentialId).stream()
+            .filter(reg -> userHandle.equals(reg.getUserIdentity().getId()))
+            .filter(reg -> credentialId.equals(reg.getCredential().getCredentialId()))
+            .findAny()
+            .map(UnitOfWorkRegistrationStorage::toRegisteredCredential);
+    }
+
+    @Override
+    public Set<RegisteredCredential> lookupAll(ByteArray credentialId) {
+        return CollectionUtil.immutableSet(
+            getRegistrationsByCredentialId(credentialId).stream()
+                .map(UnitOfWorkRegistrationStorage::toRegisteredCredential)
+                .collect(Collectors.toSet()));
+    }
+
+    @Override
+    public void updateSignatureCount(AssertionResult result) {
+        Scope current = scope;
+        if (current == null) {
+            delegate.updateSignatureCount(result);
+        } else {
+            current.pendingSignatureCounts.merge(result.getCredentialId(), result,
+                (a, b) -> a.getSignatureCount() >= b.getSignatureCount() ? a : b);
+        }
+    }
+
+    @Override
+    public boolean updateRegistration(String username, ByteArray credentialId, CredentialRegistration reg) {
+        try {
+            return delegate.updateRegistration(username, credentialId, reg);
+        } finally {
+            forget(username, credentialId, reg.getUserIdentity().getId());
+        }
+    }
+
+    @Override
+    public boolean addRegistrationByUsername(String username, CredentialRegistration reg) {
+        try {
+            return delegate.addRegistrationByUsername(username, reg);
+        } finally {
+            forget(username, reg.getCredential().getCredentialId(), reg.getUserIdentity().getId());
+        }
+    }
+
+    @Override
+    public void updateCredentialNickname(String username, ByteArray credentialId, String nickname) {
+        try {
+            delegate.updateCredentialNickname(username, credentialId, nickname);
+        } finally {
+            forget(username, credentialId, null);
+        }
+    }
+
+    @Override
+    public boolean removeRegistrationByUsername(String username, CredentialRegistration credentialRegistration) {
+        try {
+            return delegate.removeRegistrationByUsername(username, credentialRegistration);
+        } finally {
+            forget(username, credentialRegistration.getCredential().getCredentialId(),
+                credentialRegistration.getUserIdentity().getId());
+        }
+    }
+
+    @Override
+    public boolean removeAllRegistrations(String username) {
+        try {
+            return delegate.removeAllRegistrations(username);
+        } finally {
+            forget(username, null, null);
+        }
+    }
+
+    /**
+     * Forgets what the current scope has read about one user, keeping its
+     * pending writes and what it has read about other users.
+     */
+    private void forget(String username, ByteArray credentialId, ByteArray userHandle) {
+        Scope current = scope;
+        if (current != null) {
+            current.forget(username, credentialId, userHandle);
+        }
+    }
+
+    private static RegisteredCredential toRegisteredCredential(CredentialRegistration registration) {
+        return RegisteredCredential.builder()
+            .credentialId(registration.getCredential().getCredentialId())
+            .userHandle(registration.getUserIdentity().getId())
+            .publicKeyCose(registration.getCredential().getPublicKeyCose())
+            .signatureCount(registration.getSignatureCount())
+            .build();
+    }
+
+    private class Scope {
+        final Map<String, Collection<CredentialRegistration>> byUsername = new ConcurrentHashMap<>();
+        final Map<ByteArray, Collection<CredentialRegistration>> byUserHandle = new ConcurrentHashMap<>();
+        final Map<ByteArray, Collection<CredentialRegistration>> byCredentialId = new ConcurrentHashMap<>();
+        final Map<String, Collection<CredentialKey>> keysByUsername = new ConcurrentHashMap<>();
+        final Map<ByteArray, Collection<CredentialKey>> keysByUserHandle = new ConcurrentHashMap<>();
+        final Map<ByteArray, AssertionResult> pendingSignatureCounts = new ConcurrentHashMap<>();
+
+        Collection<CredentialRegistration> forUsername(String username) {
+            Collection<CredentialRegistration> regs = byUsername.get(username);
+            if (regs == null) {
+                regs = delegate.getRegistrationsByUsername(username);
+                byUsername.put(username, regs);
+                indexUserHandles(regs);
+            }
+            return regs;
+        }
+
+        Map<String, Collection<CredentialRegistration>> forUsernames(Collection<String> usernames) {
+            List<String> missing = usernames.stream()
+                .filter(username -> !byUsername.containsKey(username))
+                .distinct()
+                .collect(Collectors.toList());
+            if (!missing.isEmpty()) {
+                delegate.getRegistrationsByUsernames(missing).forEach((username, regs) -> {
+                    byUsername.put(username, regs);
+                    indexUserHandles(regs);
+                });
+            }
+
+            Map<String, Collection<CredentialRegistration>> result = new HashMap<>();
+            for (String username : usernames) {
+                result.put(username, forUsername(username));
+            }
+            return result;
+        }
+
+        Collection<CredentialRegistration> forUserHandle(ByteArray userHandle) {
+            Collection<CredentialRegistration> regs = byUserHandle.get(userHandle);
+            if (regs == null) {
+                regs = delegate.getRegistrationsByUserHandle(userHandle);
+                byUserHandle.put(userHandle, regs);
+                indexUsernames(regs);
+            }
+            return regs;
+        }
+
+        /**
+         * Derived from the user's rows if they are loaded, and otherwise read
+         * without them.
+         */
+        Collection<CredentialKey> keysForUsername(String username) {
+            Collection<CredentialRegistration> regs = byUsername.get(username);
+            if (regs != null) {
+                return keysOf(regs);
+            }
+            Collection<CredentialKey> keys = keysByUsername.get(username);
+            if (keys == null) {
+                keys = delegate.getCredentialKeysByUsername(username);
+                keysByUsername.put(username, keys);
+            }
+            return keys;
+        }
+
+        Collection<CredentialKey> keysForUserHandle(ByteArray userHandle) {
+            Collection<CredentialRegistration> regs = byUserHandle.get(userHandle);
+            if (regs != null) {
+                return keysOf(regs);
+            }
+            Collection<CredentialKey> keys = keysByUserHandle.get(userHandle);
+            if (keys == null) {
+                keys = delegate.getCredentialKeysByUserHandle(userHandle);
+                keysByUserHandle.put(userHandle, keys);
+            }
+            return keys;
+        }
+
+        private Collection<CredentialKey> keysOf(Collection<CredentialRegistration> regs) {
+            return regs.stream().map(CredentialKey::of).collect(Collectors.toList());
+        }
+
+        Collection<CredentialRegistration> forCredentialId(ByteArray credentialId) {
+            Collection<CredentialRegistration> regs = byCredentialId.get(credentialId);
+            if (regs == null) {
+                regs = delegate.getRegistrationsByCredentialId(credentialId);
+                byCredentialId.put(credentialId, regs);
+            }
+            return regs;
+        }
+
+        /**
+         * Any row already read by credential ID that matches. Enough for the
+         * callbacks that only need one row of a user.
+         */
+        Optional<CredentialRegistration> anyByCredentialId(Predicate<CredentialRegistration> matches) {
+            return byCredentialId.values().stream()
+                .flatMap(Collection::stream)
+                .filter(matches)
+                .findAny();
+        }
+
+        /*
+         * All rows of a user share one user handle, so a complete set of rows
+         * fetched by one key is also complete under the other.
+         */
+        private void indexUserHandles(Collection<CredentialRegistration> regs) {
+            regs.stream()
+                .collect(Collectors.groupingBy(reg -> reg.getUserIdentity().getId()))
+                .forEach(byUserHandle::putIfAbsent);
+        }
+
+        private void indexUsernames(Collection<CredentialRegistration> regs) {
+            regs.stream()
+                .collect(Collectors.groupingBy(CredentialRegistration::getUsername))
+                .forEach(byUsername::putIfAbsent);
+        }
+
+        /*
+         * Rows and keys read by user handle or credential ID are matched by
+         * username, since the user handle is not always known to the writer.
+         */
+        void forget(String username, ByteArray credentialId, ByteArray userHandle) {
+            byUsername.remove(username);
+            keysByUsername.remove(username);
+            byUserHandle.values().removeIf(regs -> regs.stream().anyMatch(reg -> username.equals(reg.getUsername())));
+            keysByUserHandle.values().removeIf(keys -> keys.stream().anyMatch(key -> username.equals(key.getUsername())));
+            byCredentialId.values().removeIf(regs -> regs.stream().anyMatch(reg -> username.equals(reg.getUsername())));
+            if (userHandle != null) {
+                byUserHandle.remove(userHandle);
+                keysByUserHandle.remove(userHandle);
+            }
+            if (credentialId != null) {
+                byCredentialId.remove(credentialId);
+            }
+        }
+
+        void flush() {
+            if (pendingSignatureCounts.isEmpty()) {
+                return;
+            }
+            try {
+                delegate.updateSignatureCounts(pendingSignatureCounts.values());
+            } catch (Exception e) {
+                log.error("Failed to update signature counts of credentials {}",
+                    pendingSignatureCounts.keySet(), e);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,145 @@
+package com.yubicolabs;
+
+import com.google.common.hash.BloomFilter;
+import com.google.common.hash.Funnels;
+import java.nio.charset.StandardCharsets;
+import java.text.Normalizer;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.Locale;
+import lombok.extern.slf4j.Slf4j;
+
+
+/**
+ * In-memory Bloom filter of the registered usernames, so that logins with
+ * unknown usernames can be turned away without a database query.
+ *
+ * <p>The filter is built from all usernames, rebuilt every
+ * <code>rebuildInterval</code> to drop removed users, and gains the users
+ * registered in this container as they are added. Users registered in other
+ * containers are picked up by a query for recent registrations, made when an
+ * unknown username comes in and the last such query is older than
+ * <code>refreshInterval</code>; between queries, the filter may not know a user
+ * registered elsewhere in that time. Whenever the filter cannot be built, every
+ * username is let through.
+ *
+ * <p>Usernames are compared case and accent insensitively, like the
+ * <code>username</code> column.
+ */
+@Slf4j
+final class UsernameFilter {
+
+    private static final int PAGE_SIZE = 10000;
+    private static final int MIN_EXPECTED_USERNAMES = 10000;
+    private static final double FALSE_POSITIVE_RATE = 0.01;
+
+    /** Allows for clock skew between containers and for registrations in flight. */
+    private static final Duration REFRESH_OVERLAP = Duration.ofMinutes(1);
+
+    private final UsernameSource source;
+    private final Duration refreshInterval;
+    private final Duration rebuildInterval;
+    private final Clock clock;
+
+    private BloomFilter<CharSequence> filter;
+    private Instant builtAt;
+    private Instant refreshedAt;
+    private Instant failedAt;
+
+    UsernameFilter(UsernameSource source, Duration refreshInterval, Duration rebuildInterval) {
+        this(source, refreshInterval, rebuildInterval, Clock.systemDefaultZone());
+    }
+
+    UsernameFilter(UsernameSource source, Duration refreshInterval, Duration rebuildInterval, Clock clock) {
+        this.source = source;
+        this.refreshInterval = refreshInterval;
+        this.rebuildInterval = rebuildInterval;
+        this.clock = clock;
+    }
+
+    /**
+     * @return false only if <code>username</code> is known not to be
+     *         registered
+     */
+    synchronized boolean mightExist(String username) {
+        Instant now = clock.instant();
+        if (filter == null || !now.isBefore(builtAt.plus(rebuildInterval))) {
+            // Retry a failed build only after refreshInterval, the database may be down
+            if (failedAt != null && now.isBefore(failedAt.plus(refreshInterval))) {
+                return true;
+            }
+            if (!rebuild(now)) {
+                failedAt = now;
+                filter = null;
+                return true;
+            }
+            failedAt = null;
+        }
+        String key = keyOf(username);
+        if (filter.mightContain(key)) {
+            return true;
+        }
+        if (!now.isBefore(refreshedAt.plus(refreshInterval))) {
+            try {
+                List<String> recent = source.usernamesRegisteredSince(refreshedAt.minus(REFRESH_OVERLAP));
+                recent.forEach(this::addKey);
+                refreshedAt = now;
+            } catch (Exception e) {
+                log.warn("Failed to refresh username filter", e);
+                return true;
+            }
+            return filter.mightContain(key);
+        }
+        return false;
+    }
+
+    synchronized void add(String username) {
+        if (filter != null) {
+            addKey(username);
+        }
+    }
+
+    private boolean rebuild(Instant now) {
+        try {
+            long expected = Math.max(MIN_EXPECTED_USERNAMES, 2L * source.usernameCount());
+            BloomFilter<CharSequence> rebuilt = BloomFilter.create(
+                Funnels.stringFunnel(StandardCharsets.UTF_8), expected, FALSE_POSITIVE_RATE);
+
+            int count = 0;
+            String after = null;
+            List<String> page;
+            do {
+                page = source.usernamesAfter(after, PAGE_SIZE);
+                for (String username : page) {
+                    rebuilt.put(keyOf(username));
+                }
+                count += page.size();
+                if (!page.isEmpty()) {
+                    after = page.get(page.size() - 1);
+                }
+            } while (page.size() == PAGE_SIZE);
+
+            filter = rebuilt;
+            builtAt = now;
+            refreshedAt = now;
+            log.info("Built username filter of {} usernames", count);
+            return true;
+        } catch (Exception e) {
+            log.warn("Failed to build username filter", e);
+            return false;
+        }
+    }
+
+    private void addKey(String username) {
+        filter.put(keyOf(username));
+    }
+
+    static String keyOf(String username) {
+        return Normalizer.normalize(username, Normalizer.Form.NFD)
+            .replaceAll("\\p{M}", "")
+            .toLowerCase(Locale.ROOT);
+    }
+
+}
@@ -0,0 +1,29 @@
+package com.yubicolabs;
+
+import java.time.Instant;
+import java.util.List;
+
+
+/**
+ * Username listings for building a {@link UsernameFilter}, implemented by the
+ * database backends.
+ */
+interface UsernameSource {
+
+    /**
+     * Number of distinct usernames, for sizing the filter.
+     */
+    long usernameCount();
+
+    /**
+     * Distinct usernames in the order of the username index, starting after
+     * <code>after</code>, or from the start if it is null.
+     */
+    List<String> usernamesAfter(String after, int limit);
+
+    /**
+     * Usernames with a registration made at or after <code>since</code>.
+     */
+    List<String> usernamesRegisteredSince(Instant since);
+
+}
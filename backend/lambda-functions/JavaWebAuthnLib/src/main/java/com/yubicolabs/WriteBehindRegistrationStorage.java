@@ -0,0 +1,255 @@
+package com.yubicolabs;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.yubico.webauthn.AssertionResult;
+import com.yubico.webauthn.RegisteredCredential;
+import com.yubico.webauthn.data.ByteArray;
+import com.yubico.webauthn.data.PublicKeyCredentialDescriptor;
+import com.yubicolabs.data.CredentialKey;
+import com.yubicolabs.data.CredentialRegistration;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.stream.Collectors;
+import lombok.extern.slf4j.Slf4j;
+
+
+/**
+ * Writes signature count updates to another {@link RegistrationStorage} in
+ * the background, so that logins do not wait for them. Updates of the same
+ * credential are coalesced, keeping the highest count, and written as one
+ * batch right after they are queued and then every <code>interval</code>
+ * while any are left.
+ *
+ * <p>Until an update is written, reads through this storage report the
+ * queued count if it is higher than the stored one, so the signature counter
+ * check never sees a count lower than one this container has accepted. Other
+ * containers may see the stored count for the duration of a flush. Updates
+ * still queued when the container is discarded are lost; the stored counter
+ * then lags, but never moves backwards.
+ *
+ * <p>Queued updates are written through a separate <code>writer</code>, so
+ * that a write is not timed as part of whichever invocation happens to be
+ * running. The writer records into <code>flushMetrics</code>, which are
+ * emitted after each write with request type {@value #METRICS_TYPE}.
+ */
+@Slf4j
+public class WriteBehindRegistrationStorage implements RegistrationStorage {
+
+    private static final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(
+        new ThreadFactoryBuilder().setNameFormat("webauthn-write-behind-%d").setDaemon(true).build());
+
+    static final String METRICS_TYPE = "writeBehind";
+
+    private final RegistrationStorage delegate;
+    private final RegistrationStorage writer;
+    private final Metrics flushMetrics;
+    private final Map<ByteArray, AssertionResult> pending = new ConcurrentHashMap<>();
+
+    /**
+     * @param delegate serves the reads
+     * @param writer the same storage as <code>delegate</code>, instrumented
+     *        with <code>flushMetrics</code> if at all
+     */
+    public WriteBehindRegistrationStorage(RegistrationStorage delegate, RegistrationStorage writer,
+            Metrics flushMetrics, Duration interval) {
+        this.delegate = delegate;
+        this.writer = writer;
+        this.flushMetrics = flushMetrics;
+        scheduler.scheduleWithFixedDelay(this::flush, interval.toMillis(), interval.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void updateSignatureCount(AssertionResult result) {
+        pending.merge(result.getCredentialId(), result, WriteBehindRegistrationStorage::higher);
+        scheduler.execute(this::flush);
+    }
+
+    @Override
+    public void updateSignatureCounts(Collection<AssertionResult> results) {
+        for (AssertionResult result : results) {
+            pending.merge(result.getCredentialId(), result, WriteBehindRegistrationStorage::higher);
+        }
+        scheduler.execute(this::flush);
+    }
+
+    /**
+     * Writes the queued updates. Runs on the scheduler thread only, so that
+     * flushes do not overlap. An update stays queued, and visible to reads,
+     * until it is written; failed updates are retried on the next flush.
+     */
+    void flush() {
+        if (pending.isEmpty()) {
+            return;
+        }
+        List<AssertionResult> batch = new ArrayList<>(pending.values());
+        try {
+            writer.updateSignatureCounts(batch);
+        } catch (Exception e) {
+            log.warn("Failed to write {} signature counts, will retry", batch.size(), e);
+            return;
+        } finally {
+            flushMetrics.flush(METRICS_TYPE);
+        }
+        for (AssertionResult result : batch) {
+            // Keeps updates queued during the write
+            pending.remove(result.getCredentialId(), result);
+        }
+    }
+
+    /**
+     * Waits up to <code>timeout</code> for the queued updates to be written,
+     * for when the container is about to be frozen or discarded.
+     */
+    public void awaitFlush(Duration timeout) {
+        try {
+            scheduler.submit(this::flush).get(timeout.toMillis(), TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException | TimeoutException e) {
+            log.warn("Signature counts not written within {}", timeout, e);
+        }
+    }
+
+    @Override
+    public Collection<CredentialRegistration> getRegistrationsByUsername(String username) {
+        return overlay(delegate.getRegistrationsByUsername(username));
+    }
+
+    @Override
+    public Collection<CredentialRegistration> getRegistrationsByUserHandle(ByteArray userHandle) {
+        return overlay(delegate.getRegistrationsByUserHandle(userHandle));
+    }
+
+    @Override
+    public Collection<CredentialRegistration> getRegistrationsByCredentialId(ByteArray credentialId) {
+        return overlay(delegate.getRegistrationsByCredentialId(credentialId));
+    }
+
+    @Override
+    public Map<String, Collection<CredentialRegistration>> getRegistrationsByUsernames(Collection<String> usernames) {
+        Map<String, Collection<CredentialRegistration>> result = new HashMap<>();
+        delegate.getRegistrationsByUsernames(usernames).forEach((username, regs) -> result.put(username, overlay(regs)));
+        return result;
+    }
+
+    @Override
+    public Optional<CredentialRegistration> getRegistrationByUsernameAndCredentialId(String username, ByteArray id) {
+        return delegate.getRegistrationByUsernameAndCredentialId(username, id).map(this::overlay);
+    }
+
+    @Override
+    public Collection<CredentialKey> getCredentialKeysByUsername(String username) {
+        return delegate.getCredentialKeysByUsername(username);
+    }
+
+    @Override
+    public Collection<CredentialKey> getCredentialKeysByUserHandle(ByteArray userHandle) {
+        return delegate.getCredentialKeysByUserHandle(userHandle);
+    }
+
+    @Override
+    public boolean userExists(String username) {
+        return delegate.userExists(username);
+    }
+
+    @Override
+    public Optional<RegisteredCredential> lookup(ByteArray credentialId, ByteArray userHandle) {
+        return delegate.lookup(credentialId, userHandle).map(this::overlay);
+    }
+
+    @Override
+    public Set<RegisteredCredential> lookupAll(ByteArray credentialId) {
+        return delegate.lookupAll(credentialId).stream()
+            .map(this::overlay)
+            .collect(Collectors.toSet());
+    }
+
+    @Override
+    public Set<PublicKeyCredentialDescriptor> getCredentialIdsForUsername(String username) {
+        return delegate.getCredentialIdsForUsername(username);
+    }
+
+    @Override
+    public Optional<ByteArray> getUserHandleForUsername(String username) {
+        return delegate.getUserHandleForUsername(username);
+    }
+
+    @Override
+    public Optional<String> getUsernameForUserHandle(ByteArray userHandle) {
+        return delegate.getUsernameForUserHandle(userHandle);
+    }
+
+    @Override
+    public boolean addRegistrationByUsername(String username, CredentialRegistration reg) {
+        return delegate.addRegistrationByUsername(username, reg);
+    }
+
+    @Override
+    public boolean updateRegistration(String username, ByteArray credentialId, CredentialRegistration reg) {
+        return delegate.updateRegistration(username, credentialId, reg);
+    }
+
+    @Override
+    public void updateCredentialNickname(String username, ByteArray credentialId, String nickname) {
+        delegate.updateCredentialNickname(username, credentialId, nickname);
+    }
+
+    @Override
+    public boolean removeRegistrationByUsername(String username, CredentialRegistration credentialRegistration) {
+        pending.remove(credentialRegistration.getCredential().getCredentialId());
+        return delegate.removeRegistrationByUsername(username, credentialRegistration);
+    }
+
+    @Override
+    public boolean removeAllRegistrations(String username) {
+        pending.values().removeIf(result -> result.getUsername().equals(username));
+        return delegate.removeAllRegistrations(username);
+    }
+
+    private Collection<CredentialRegistration> overlay(Collection<CredentialRegistration> regs) {
+        if (pending.isEmpty()) {
+            return regs;
+        }
+        return regs.stream().map(this::overlay).collect(Collectors.toList());
+    }
+
+    private CredentialRegistration overlay(CredentialRegistration reg) {
+        AssertionResult queued = pending.get(reg.getCredential().getCredentialId());
+        if (queued == null || queued.getSignatureCount() <= reg.getSignatureCount()) {
+            return reg;
+        }
+        return reg
+            .withSignatureCount(queued.getSignatureCount())
+            .withCredential(overlay(reg.getCredential()));
+    }
+
+    private RegisteredCredential overlay(RegisteredCredential credential) {
+        AssertionResult queued = pending.get(credential.getCredentialId());
+        if (queued == null || queued.getSignatureCount() <= credential.getSignatureCount()) {
+            return credential;
+        }
+        return RegisteredCredential.builder()
+            .credentialId(credential.getCredentialId())
+            .userHandle(credential.getUserHandle())
+            .publicKeyCose(credential.getPublicKeyCose())
+            .signatureCount(queued.getSignatureCount())
+            .build();
+    }
+
+    private static AssertionResult higher(AssertionResult a, AssertionResult b) {
+        return a.getSignatureCount() >= b.getSignatureCount() ? a : b;
+    }
+
+}
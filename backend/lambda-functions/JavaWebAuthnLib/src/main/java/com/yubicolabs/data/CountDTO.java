@@ -0,0 +1,9 @@
+package com.yubicolabs.data;
+
+import lombok.Data;
+
+
+@Data
+public class CountDTO {
+    public long count;
+}
@@ -0,0 +1,18 @@
+package com.yubicolabs.data;
+
+import lombok.Data;
+
+
+@Data
+public class CredentialDTO {
+    public String credentialId;
+    public String userHandle;
+    public String username;
+    public String publicKeyCose;
+    public long signatureCount;
+    public Long registrationTime;
+    public Long lastUsedTime;
+    public Long lastUpdatedTime;
+    public String registration;
+    public String transports;
+}
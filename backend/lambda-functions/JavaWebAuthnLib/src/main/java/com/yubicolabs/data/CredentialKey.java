@@ -0,0 +1,52 @@
+package com.yubicolabs.data;
+
+import com.yubico.webauthn.data.AuthenticatorTransport;
+import com.yubico.webauthn.data.ByteArray;
+import com.yubico.webauthn.data.PublicKeyCredentialDescriptor;
+import java.util.Collections;
+import java.util.Set;
+import lombok.Value;
+
+
+/**
+ * The identifiers of a registration, read without the rest of it.
+ */
+@Value
+public class CredentialKey {
+
+    ByteArray credentialId;
+
+    ByteArray userHandle;
+
+    String username;
+
+    /** Empty if unknown. */
+    Set<AuthenticatorTransport> transports;
+
+    public static CredentialKey of(CredentialRegistration reg) {
+        return new CredentialKey(
+            reg.getCredential().getCredentialId(),
+            reg.getUserIdentity().getId(),
+            reg.getUsername(),
+            transportsOf(reg));
+    }
+
+    public static Set<AuthenticatorTransport> transportsOf(CredentialRegistration reg) {
+        if (reg.getAttestationMetadata() == null) {
+            return Collections.emptySet();
+        }
+        return reg.getAttestationMetadata()
+            .map(AttestationRegistration::getAuthenticatorTransport)
+            .orElse(Collections.emptySet());
+    }
+
+    public PublicKeyCredentialDescriptor toDescriptor() {
+        PublicKeyCredentialDescriptor.PublicKeyCredentialDescriptorBuilder descriptor =
+            PublicKeyCredentialDescriptor.builder().id(credentialId);
+        if (!transports.isEmpty()) {
+            descriptor.transports(transports);
+        }
+        return descriptor.build();
+    }
+
+}
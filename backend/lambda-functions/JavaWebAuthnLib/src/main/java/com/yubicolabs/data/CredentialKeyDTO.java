@@ -0,0 +1,12 @@
+package com.yubicolabs.data;
+
+import lombok.Data;
+
+
+@Data
+public class CredentialKeyDTO {
+    public String credentialId;
+    public String userHandle;
+    public String username;
+    public String transports;
+}
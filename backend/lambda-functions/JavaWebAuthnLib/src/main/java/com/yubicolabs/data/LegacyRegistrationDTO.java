@@ -0,0 +1,11 @@
+package com.yubicolabs.data;
+
+import lombok.Data;
+
+
+@Data
+public class LegacyRegistrationDTO {
+    public String registration;
+    public String creationDate;
+    public String credentialId;
+}
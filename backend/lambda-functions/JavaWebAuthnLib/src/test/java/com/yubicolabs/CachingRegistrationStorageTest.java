@@ -0,0 +1,162 @@
+package com.yubicolabs;
+
+import com.yubico.webauthn.RegisteredCredential;
+import com.yubico.webauthn.data.ByteArray;
+import com.yubico.webauthn.data.UserIdentity;
+import com.yubicolabs.data.CredentialRegistration;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Collection;
+import java.util.Optional;
+
+
+public class CachingRegistrationStorageTest {
+
+    private final ByteArray userHandle = new ByteArray(new byte[] { 1, 2, 3, 4 });
+    private final ByteArray credentialId = new ByteArray(new byte[] { 5, 6, 7, 8 });
+
+    private CountingRegistrationStorage backend;
+    private CachingRegistrationStorage storage;
+
+    @BeforeEach
+    void setUp() {
+        backend = new CountingRegistrationStorage();
+        storage = new CachingRegistrationStorage(backend, 100, Duration.ofMinutes(1), Optional.empty());
+        backend.addRegistrationByUsername("foo-user", registration("foo-user", userHandle, credentialId));
+    }
+
+    @Test
+    public void lookupsAreNotServedFromLocalTier() {
+        assertFalse(storage.getRegistrationsByUsername("foo-user").isEmpty());
+        assertTrue(storage.lookup(credentialId, userHandle).isPresent());
+
+        // Removed by another container
+        backend.removeRegistrationByUsername("foo-user", registration("foo-user", userHandle, credentialId));
+
+        assertFalse(storage.getRegistrationsByUsername("foo-user").isEmpty());
+        assertFalse(storage.lookup(credentialId, userHandle).isPresent());
+    }
+
+    @Test
+    public void managementReadsAreNotServedFromLocalTier() {
+        assertEquals(1, storage.getRegistrationsByUsername("foo-user").size());
+
+        // Registered by another container
+        ByteArray otherCredentialId = new ByteArray(new byte[] { 9, 10, 11, 12 });
+        backend.addRegistrationByUsername("foo-user", registration("foo-user", userHandle, otherCredentialId));
+
+        assertEquals(2, storage.getCredentialIdsForUsername("foo-user").size());
+        assertTrue(storage.getRegistrationByUsernameAndCredentialId("foo-user", otherCredentialId).isPresent());
+    }
+
+    @Test
+    public void removalInOneContainerReachesSharedLookupsOfAnother() {
+        KeyValueStore shared = new InMemoryKeyValueStore();
+        CachingRegistrationStorage first = new CachingRegistrationStorage(backend, 100, Duration.ofMinutes(1), Optional.of(shared));
+        CachingRegistrationStorage second = new CachingRegistrationStorage(backend, 100, Duration.ofMinutes(1), Optional.of(shared));
+
+        assertTrue(first.lookup(credentialId, userHandle).isPresent());
+        assertTrue(second.lookup(credentialId, userHandle).isPresent());
+        assertEquals(1, backend.reads);
+
+        second.removeRegistrationByUsername("foo-user", registration("foo-user", userHandle, credentialId));
+
+        assertFalse(first.lookup(credentialId, userHandle).isPresent());
+    }
+
+    @Test
+    public void usernameAndUserHandleAreCachedSeparately() {
+        assertEquals(Optional.of(userHandle), storage.getUserHandleForUsername("foo-user"));
+        assertEquals(Optional.of(userHandle), storage.getUserHandleForUsername("foo-user"));
+        assertEquals(Optional.of("foo-user"), storage.getUsernameForUserHandle(userHandle));
+        assertEquals(Optional.of("foo-user"), storage.getUsernameForUserHandle(userHandle));
+
+        assertEquals(2, backend.reads);
+    }
+
+    @Test
+    public void emptyResultsAreNotCached() {
+        assertFalse(storage.userExists("bar-user"));
+        backend.addRegistrationByUsername("bar-user", registration(
+            "bar-user",
+            new ByteArray(new byte[] { 11, 12 }),
+            new ByteArray(new byte[] { 13, 14 })));
+
+        assertTrue(storage.userExists("bar-user"));
+    }
+
+    @Test
+    public void removeInvalidatesAllKeys() {
+        CredentialRegistration registration = storage.getRegistrationByUsernameAndCredentialId("foo-user", credentialId).get();
+        assertTrue(storage.lookup(credentialId, userHandle).isPresent());
+
+        storage.removeRegistrationByUsername("foo-user", registration);
+
+        assertFalse(storage.lookup(credentialId, userHandle).isPresent());
+        assertTrue(storage.getRegistrationsByUsername("foo-user").isEmpty());
+    }
+
+    @Test
+    public void addInvalidatesUsername() {
+        assertEquals(1, storage.getRegistrationsByUsername("foo-user").size());
+
+        ByteArray otherCredentialId = new ByteArray(new byte[] { 9, 10, 11, 12 });
+        storage.addRegistrationByUsername("foo-user", registration("foo-user", userHandle, otherCredentialId));
+
+        assertEquals(2, storage.getRegistrationsByUsername("foo-user").size());
+    }
+
+    static CredentialRegistration registration(String username, ByteArray userHandle, ByteArray credentialId) {
+        Instant now = Instant.now();
+        return CredentialRegistration.builder()
+            .userIdentity(UserIdentity.builder()
+                .name(username)
+                .displayName(username)
+                .id(userHandle)
+                .build())
+            .credentialNickname(Optional.of("My Security Key"))
+            .registrationTime(now)
+            .lastUsedTime(now)
+            .lastUpdatedTime(now)
+            .credential(RegisteredCredential.builder()
+                .credentialId(credentialId)
+                .userHandle(userHandle)
+                .publicKeyCose(new ByteArray(new byte[] { 0 }))
+                .signatureCount(0)
+                .build())
+            .signatureCount(0)
+            .attestationMetadata(Optional.empty())
+            .build();
+    }
+
+    private static class CountingRegistrationStorage extends InMemoryRegistrationStorage {
+        int reads = 0;
+
+        @Override
+        public Collection<CredentialRegistration> getRegistrationsByUsername(String username) {
+            reads++;
+            return super.getRegistrationsByUsername(username);
+        }
+
+        @Override
+        public Collection<CredentialRegistration> getRegistrationsByUserHandle(ByteArray userHandle) {
+            reads++;
+            return super.getRegistrationsByUserHandle(userHandle);
+        }
+
+        @Override
+        public Collection<CredentialRegistration> getRegistrationsByCredentialId(ByteArray credentialId) {
+            reads++;
+            return super.getRegistrationsByCredentialId(credentialId);
+        }
+    }
+
+}
@@ -0,0 +1,72 @@
+package com.yubicolabs;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.Optional;
+
+
+public class InMemoryKeyValueStoreTest {
+
+    private final TestClock clock = new TestClock();
+    private final InMemoryKeyValueStore store = new InMemoryKeyValueStore(clock);
+
+    @Test
+    public void takeReturnsValueOnlyOnce() {
+        store.put("key", "value", Duration.ofMinutes(5));
+
+        assertEquals(Optional.of("value"), store.take("key"));
+        assertEquals(Optional.empty(), store.take("key"));
+        assertEquals(Optional.empty(), store.get("key"));
+    }
+
+    @Test
+    public void expiredEntriesAreNotReturned() {
+        store.put("key", "value", Duration.ofMinutes(5));
+        clock.advance(Duration.ofMinutes(5));
+
+        assertFalse(store.get("key").isPresent());
+        assertFalse(store.take("key").isPresent());
+    }
+
+    @Test
+    public void removeExpiredCountsRemovedEntries() {
+        store.put("old", "value", Duration.ofMinutes(1));
+        store.put("new", "value", Duration.ofMinutes(10));
+        clock.advance(Duration.ofMinutes(2));
+
+        assertEquals(1, store.removeExpired(10));
+        assertEquals(Optional.of("value"), store.get("new"));
+    }
+
+    private static class TestClock extends Clock {
+        private Instant now = Instant.parse("2022-01-01T00:00:00Z");
+
+        void advance(Duration duration) {
+            now = now.plus(duration);
+        }
+
+        @Override
+        public ZoneId getZone() {
+            return ZoneOffset.UTC;
+        }
+
+        @Override
+        public Clock withZone(ZoneId zone) {
+            return this;
+        }
+
+        @Override
+        public Instant instant() {
+            return now;
+        }
+    }
+
+}
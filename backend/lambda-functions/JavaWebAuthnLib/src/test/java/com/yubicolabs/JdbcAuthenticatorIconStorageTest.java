@@ -0,0 +1,48 @@
+package com.yubicolabs;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.Optional;
+import java.util.UUID;
+import org.h2.jdbcx.JdbcDataSource;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+
+public class JdbcAuthenticatorIconStorageTest {
+
+    private static final String AAGUID = "2fc0579f-8113-47ea-b116-bb5a8db9202a";
+
+    private JdbcAuthenticatorIconStorage storage;
+
+    @BeforeEach
+    void setUp() {
+        JdbcDataSource dataSource = new JdbcDataSource();
+        dataSource.setURL("jdbc:h2:mem:" + UUID.randomUUID() + ";MODE=MySQL;DB_CLOSE_DELAY=-1");
+        JdbcDatabase database = new JdbcDatabase(dataSource);
+        database.update("CREATE TABLE authenticatorIcons (aaguid CHAR(36) NOT NULL, icon TEXT NOT NULL, PRIMARY KEY (aaguid))");
+
+        storage = new JdbcAuthenticatorIconStorage(database);
+    }
+
+    @Test
+    public void firstIconSeenIsKept() {
+        assertEquals(Optional.empty(), storage.get(AAGUID));
+
+        assertEquals("data:first", storage.putIfAbsent(AAGUID, "data:first"));
+        assertEquals("data:first", storage.putIfAbsent(AAGUID, "data:second"));
+
+        assertEquals(Optional.of("data:first"), storage.get(AAGUID));
+    }
+
+    @Test
+    public void cacheReadsThroughToStoredIcons() {
+        CachingAuthenticatorIconStorage cached = new CachingAuthenticatorIconStorage(storage);
+        cached.putIfAbsent(AAGUID, "data:first");
+
+        storage.putIfAbsent("00000000-0000-0000-0000-000000000000", "data:other");
+        assertEquals(Optional.of("data:first"), cached.get(AAGUID));
+        assertEquals(Optional.of("data:other"), cached.get("00000000-0000-0000-0000-000000000000"));
+    }
+
+}
@@ -0,0 +1,111 @@
+package com.yubicolabs;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.yubico.webauthn.data.AuthenticatorTransport;
+import com.yubico.webauthn.data.ByteArray;
+import com.yubico.webauthn.data.PublicKeyCredentialDescriptor;
+import com.yubicolabs.data.AttestationRegistration;
+import com.yubicolabs.data.CredentialRegistration;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+import java.util.stream.Collectors;
+import org.h2.jdbcx.JdbcDataSource;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+
+public class JdbcRegistrationStorageTest {
+
+    private final ByteArray userHandle = new ByteArray(new byte[] { 1, 2, 3, 4 });
+    private final ByteArray credentialId = new ByteArray(new byte[] { 5, 6, 7, 8 });
+
+    private JdbcDatabase database;
+    private JdbcRegistrationStorage storage;
+
+    @BeforeEach
+    void setUp() {
+        JdbcDataSource dataSource = new JdbcDataSource();
+        dataSource.setURL("jdbc:h2:mem:" + UUID.randomUUID() + ";MODE=MySQL;DB_CLOSE_DELAY=-1");
+        database = new JdbcDatabase(dataSource);
+        database.update("CREATE TABLE webauthnCredentials (credentialId VARCHAR(1366) NOT NULL, userHandle VARCHAR(86) NOT NULL, username VARCHAR_IGNORECASE(255) NOT NULL, publicKeyCose TEXT NOT NULL, signatureCount BIGINT NOT NULL DEFAULT 0, registrationTime BIGINT, lastUsedTime BIGINT, lastUpdatedTime BIGINT, registration TEXT, transports VARCHAR(255), PRIMARY KEY (credentialId))");
+
+        storage = new JdbcRegistrationStorage(database);
+        storage.addRegistrationByUsername("foo-user",
+            CachingRegistrationStorageTest.registration("foo-user", userHandle, credentialId));
+    }
+
+    @Test
+    public void registrationsAreFoundByEveryKey() {
+        assertEquals(1, storage.getRegistrationsByUsername("foo-user").size());
+        assertEquals(Optional.of("foo-user"), storage.getUsernameForUserHandle(userHandle));
+        assertEquals(Optional.of(userHandle), storage.getUserHandleForUsername("foo-user"));
+        assertEquals(userHandle, storage.lookup(credentialId, userHandle).get().getUserHandle());
+        assertEquals(1, storage.lookupAll(credentialId).size());
+    }
+
+    @Test
+    public void userExistsWithoutLoadingRegistrations() {
+        assertTrue(storage.userExists("foo-user"));
+        assertTrue(storage.userExists("FOO-USER"));
+        assertFalse(storage.userExists("bar-user"));
+        assertEquals(Arrays.asList("foo-user"), storage.usernamesAfter(null, 10));
+        assertEquals(1, storage.usernameCount());
+    }
+
+    @Test
+    public void credentialIdsAreReadWithTransports() {
+        ByteArray otherCredentialId = new ByteArray(new byte[] { 9, 10, 11, 12 });
+        storage.addRegistrationByUsername("foo-user",
+            CachingRegistrationStorageTest.registration("foo-user", userHandle, otherCredentialId)
+                .withAttestationMetadata(Optional.of(AttestationRegistration.builder()
+                    .authenticatorTransport(new HashSet<>(Arrays.asList(AuthenticatorTransport.USB, AuthenticatorTransport.NFC)))
+                    .build())));
+
+        Map<ByteArray, Set<AuthenticatorTransport>> transports = storage.getCredentialIdsForUsername("foo-user")
+            .stream()
+            .collect(Collectors.toMap(
+                PublicKeyCredentialDescriptor::getId,
+                descriptor -> new HashSet<>(descriptor.getTransports().orElse(Collections.emptySortedSet()))));
+
+        assertEquals(Collections.emptySet(), transports.get(credentialId));
+        assertEquals(new HashSet<>(Arrays.asList(AuthenticatorTransport.USB, AuthenticatorTransport.NFC)),
+            transports.get(otherCredentialId));
+        assertEquals(Optional.of(userHandle), storage.getUserHandleForUsername("FOO-USER"));
+        assertEquals(Optional.of("foo-user"), storage.getUsernameForUserHandle(userHandle));
+    }
+
+    @Test
+    public void registrationsOfSeveralUsersAreLoadedTogether() {
+        Map<String, Collection<CredentialRegistration>> result =
+            storage.getRegistrationsByUsernames(Arrays.asList("FOO-USER", "bar-user"));
+
+        assertEquals(1, result.get("FOO-USER").size());
+        assertTrue(result.get("bar-user").isEmpty());
+    }
+
+    @Test
+    public void nicknameIsUpdated() {
+        storage.updateCredentialNickname("foo-user", credentialId, "Backup key");
+
+        CredentialRegistration registration = storage.getRegistrationByUsernameAndCredentialId("foo-user", credentialId).get();
+        assertEquals(Optional.of("Backup key"), registration.getCredentialNickname());
+    }
+
+    @Test
+    public void removeDeletesRegistration() {
+        CredentialRegistration registration = storage.getRegistrationByUsernameAndCredentialId("foo-user", credentialId).get();
+        storage.removeRegistrationByUsername("foo-user", registration);
+
+        assertTrue(storage.getRegistrationsByCredentialId(credentialId).isEmpty());
+    }
+
+}
@@ -0,0 +1,66 @@
+package com.yubicolabs;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import com.yubico.webauthn.data.ByteArray;
+import java.time.Duration;
+import java.util.UUID;
+import org.h2.jdbcx.JdbcDataSource;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+
+public class JdbcRequestStorageTest {
+
+    private final ByteArray key = new ByteArray(new byte[] { 1, 2, 3, 4 });
+    private final ByteArray otherKey = new ByteArray(new byte[] { 5, 6, 7, 8 });
+
+    private JdbcDatabase database;
+    private JdbcRequestStorage<String> requests;
+
+    @BeforeEach
+    void setUp() {
+        JdbcDataSource dataSource = new JdbcDataSource();
+        dataSource.setURL("jdbc:h2:mem:" + UUID.randomUUID() + ";MODE=MySQL;DB_CLOSE_DELAY=-1");
+        database = new JdbcDatabase(dataSource);
+        database.update("CREATE TABLE registrationRequests (_key VARCHAR(255), _value VARCHAR(65535), creationDate TIMESTAMP DEFAULT CURRENT_TIMESTAMP)");
+
+        requests = new JdbcRequestStorage<>(database, "registrationRequests", String.class, Duration.ofHours(1));
+    }
+
+    @Test
+    public void requestIsTakenOnlyOnce() {
+        requests.issue(key, "challenge");
+
+        assertEquals("challenge", requests.getIfPresent(key));
+        assertEquals("challenge", requests.take(key));
+        assertNull(requests.take(key));
+    }
+
+    @Test
+    public void expiredRequestIsNotTaken() {
+        requests.issue(key, "challenge");
+        age(key, 2);
+
+        assertNull(requests.getIfPresent(key));
+        assertNull(requests.take(key));
+    }
+
+    @Test
+    public void removeExpiredDeletesOnlyExpiredRequests() {
+        requests.issue(key, "challenge");
+        requests.issue(otherKey, "other challenge");
+        age(key, 2);
+
+        assertEquals(1, requests.removeExpired(Duration.ofHours(1), 10));
+        assertEquals(0, requests.removeExpired(Duration.ofHours(1), 10));
+        assertEquals("other challenge", requests.take(otherKey));
+    }
+
+    private void age(ByteArray key, int hours) {
+        database.update("UPDATE registrationRequests SET creationDate = TIMESTAMPADD(HOUR, ?, NOW()) WHERE _key = ?",
+            -hours, Codecs.gson().toJson(key));
+    }
+
+}
@@ -0,0 +1,41 @@
+package com.yubicolabs;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import org.junit.jupiter.api.Test;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonObject;
+import com.yubico.webauthn.data.ByteArray;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+
+
+public class MetadataSnapshotTest {
+
+    private static final ByteArray SECURITY_KEY_NFC = new ByteArray(new byte[] {
+        0x6d, 0x44, (byte) 0xba, (byte) 0x9b, (byte) 0xf6, (byte) 0xec, 0x2e, 0x49,
+        (byte) 0xb9, 0x30, 0x0c, (byte) 0x8f, (byte) 0xe9, 0x20, (byte) 0xcb, 0x73
+    });
+
+    @Test
+    public void snapshotRoundTrips() throws Exception {
+        JsonObject metadata = new Gson().fromJson(new InputStreamReader(
+            getClass().getResourceAsStream("/metadata.json"), StandardCharsets.UTF_8), JsonObject.class);
+        MetadataIndex index = MetadataIndex.ofVendorMetadata(metadata);
+        MetadataSnapshot snapshot = new MetadataSnapshot(42, LocalDate.of(2022, 6, 1), index);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        snapshot.writeTo(out);
+        MetadataSnapshot read = MetadataSnapshot.readFrom(new ByteArrayInputStream(out.toByteArray()));
+
+        assertEquals(42, read.getBlobNumber());
+        assertEquals(LocalDate.of(2022, 6, 1), read.getNextUpdate());
+        assertEquals(index.size(), read.getIndex().size());
+        assertEquals(index.findByAaguid(SECURITY_KEY_NFC), read.getIndex().findByAaguid(SECURITY_KEY_NFC));
+    }
+
+}
@@ -0,0 +1,68 @@
+package com.yubicolabs;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.Collections;
+import org.junit.jupiter.api.Test;
+
+
+public class MetricsTest {
+
+    @Test
+    public void storageCallsAreTimedAndCounted() {
+        InMemoryMetricsSink sink = new InMemoryMetricsSink();
+        Metrics metrics = new Metrics(sink);
+        RegistrationStorage storage = new InstrumentedRegistrationStorage(new InMemoryRegistrationStorage(), metrics);
+
+        storage.getRegistrationsByUsername("foo-user");
+        storage.userExists("foo-user");
+        metrics.flush("startAuthentication");
+
+        assertEquals(1, sink.getEmitted().size());
+        InMemoryMetricsSink.Emitted emitted = sink.getEmitted().get(0);
+        assertEquals("startAuthentication", emitted.getRequestType());
+        assertEquals(Long.valueOf(2), emitted.getCounts().get(InstrumentedRegistrationStorage.CALLS));
+        assertTrue(emitted.getMillis().containsKey("storage.getRegistrationsByUsername"));
+        assertTrue(emitted.getMillis().containsKey("storage.userExists"));
+    }
+
+    @Test
+    public void flushStartsOver() {
+        InMemoryMetricsSink sink = new InMemoryMetricsSink();
+        Metrics metrics = new Metrics(sink);
+
+        metrics.count("requestChars", 10);
+        metrics.flush("finishAuthentication");
+        metrics.flush("finishAuthentication");
+
+        assertEquals(1, sink.getEmitted().size());
+    }
+
+    @Test
+    public void emfLineDeclaresEveryMetric() throws Exception {
+        Clock clock = Clock.fixed(Instant.ofEpochMilli(1700000000000L), ZoneOffset.UTC);
+        EmfMetricsSink sink = new EmfMetricsSink("WebAuthnKit", new PrintStream(new ByteArrayOutputStream()), clock);
+
+        JsonNode line = Codecs.json().readTree(sink.render(
+            "finishRegistration",
+            Collections.singletonMap("verify", 1.5),
+            Collections.singletonMap("storageCalls", 3L)));
+
+        assertEquals("finishRegistration", line.get("type").asText());
+        assertEquals(1.5, line.get("verify").asDouble());
+        assertEquals(3, line.get("storageCalls").asLong());
+        JsonNode directive = line.get("_aws").get("CloudWatchMetrics").get(0);
+        assertEquals(1700000000000L, line.get("_aws").get("Timestamp").asLong());
+        assertEquals("WebAuthnKit", directive.get("Namespace").asText());
+        assertEquals("type", directive.get("Dimensions").get(0).get(0).asText());
+        assertEquals(2, directive.get("Metrics").size());
+    }
+
+}
@@ -0,0 +1,46 @@
+package com.yubicolabs;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+import com.yubico.webauthn.data.AuthenticatorTransport;
+import com.yubico.webauthn.data.ByteArray;
+import com.yubicolabs.data.AttestationRegistration;
+import java.io.IOException;
+import java.time.Clock;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Optional;
+
+
+public class RefreshingMetadataServiceTest {
+
+    private static final ByteArray SECURITY_KEY_NFC = new ByteArray(new byte[] {
+        0x6d, 0x44, (byte) 0xba, (byte) 0x9b, (byte) 0xf6, (byte) 0xec, 0x2e, 0x49,
+        (byte) 0xb9, 0x30, 0x0c, (byte) 0x8f, (byte) 0xe9, 0x20, (byte) 0xcb, 0x73
+    });
+
+    @Test
+    public void fallsBackToBundledMetadataWhenLoadFails() {
+        RefreshingMetadataService service = new RefreshingMetadataService(() -> {
+            throw new IOException("offline");
+        }, Clock.systemUTC());
+        service.refresh();
+
+        assertTrue(service.awaitFirstLoad(Duration.ZERO));
+        assertFalse(service.getNextUpdate().isPresent());
+
+        Optional<AttestationRegistration> registration = service.getIndex().findByAaguid(SECURITY_KEY_NFC);
+        assertTrue(registration.isPresent());
+        assertEquals("6d44ba9b-f6ec-2e49-b930-0c8fe920cb73", registration.get().getAaguid());
+        assertEquals("Security Key NFC by Yubico", registration.get().getDescription());
+        assertEquals(
+            new HashSet<>(Arrays.asList(AuthenticatorTransport.USB, AuthenticatorTransport.NFC)),
+            registration.get().getAuthenticatorTransport());
+    }
+
+}
@@ -0,0 +1,95 @@
+package com.yubicolabs;
+
+import com.yubico.webauthn.data.AuthenticatorAttachment;
+import com.yubico.webauthn.data.AuthenticatorSelectionCriteria;
+import com.yubico.webauthn.data.ByteArray;
+import com.yubico.webauthn.data.PublicKeyCredentialCreationOptions;
+import com.yubico.webauthn.data.PublicKeyCredentialParameters;
+import com.yubico.webauthn.data.RelyingPartyIdentity;
+import com.yubicolabs.data.CredentialRegistration;
+import com.yubicolabs.data.RegistrationRequest;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+
+
+public class RegistrationBlobsTest {
+
+    private final ByteArray userHandle = new ByteArray(new byte[] { 1, 2, 3, 4 });
+    private final ByteArray credentialId = new ByteArray(new byte[] { 5, 6, 7, 8 });
+
+    @Test
+    public void keepsWhatIsReadAfterRegistration() {
+        CredentialRegistration reg = residual(withRequest(
+            CachingRegistrationStorageTest.registration("foo-user", userHandle, credentialId)));
+
+        CredentialRegistration read = RegistrationBlobs.read(RegistrationBlobs.write(reg));
+
+        assertEquals(reg.getUserIdentity(), read.getUserIdentity());
+        assertEquals(reg.getCredentialNickname(), read.getCredentialNickname());
+        assertEquals(reg.getAttestationMetadata(), read.getAttestationMetadata());
+        assertTrue(read.getRegistrationRequest().isRequireResidentKey());
+        assertEquals(
+            reg.getRegistrationRequest().getPublicKeyCredentialCreationOptions().getAuthenticatorSelection(),
+            read.getRegistrationRequest().getPublicKeyCredentialCreationOptions().getAuthenticatorSelection());
+        assertTrue(read.getRegistrationRequest().getPublicKeyCredentialCreationOptions().getPubKeyCredParams().isEmpty());
+    }
+
+    @Test
+    public void isSmallerThanJson() {
+        CredentialRegistration reg = residual(withRequest(
+            CachingRegistrationStorageTest.registration("foo-user", userHandle, credentialId)));
+
+        String blob = RegistrationBlobs.write(reg);
+
+        assertFalse(blob.startsWith("{"));
+        assertTrue(blob.length() < Codecs.CREDENTIAL_REGISTRATION.write(reg).length() / 2);
+    }
+
+    @Test
+    public void readsLegacyJson() {
+        CredentialRegistration reg = residual(
+            CachingRegistrationStorageTest.registration("foo-user", userHandle, credentialId));
+
+        assertEquals(reg, RegistrationBlobs.read(Codecs.CREDENTIAL_REGISTRATION.write(reg)));
+    }
+
+    /**
+     * As stored by {@link CredentialRows}.
+     */
+    private static CredentialRegistration residual(CredentialRegistration reg) {
+        return reg
+            .withCredential(null)
+            .withRegistrationTime(null)
+            .withLastUsedTime(null)
+            .withLastUpdatedTime(null);
+    }
+
+    private static CredentialRegistration withRequest(CredentialRegistration reg) {
+        return reg.withRegistrationRequest(new RegistrationRequest(
+            "startRegistration",
+            reg.getUsername(),
+            reg.getUserIdentity().getDisplayName(),
+            "My Security Key",
+            true,
+            new ByteArray(new byte[32]),
+            PublicKeyCredentialCreationOptions.builder()
+                .rp(RelyingPartyIdentity.builder().id("example.com").name("Example").build())
+                .user(reg.getUserIdentity())
+                .challenge(new ByteArray(new byte[32]))
+                .pubKeyCredParams(Arrays.asList(
+                    PublicKeyCredentialParameters.ES256,
+                    PublicKeyCredentialParameters.EdDSA,
+                    PublicKeyCredentialParameters.RS256))
+                .authenticatorSelection(AuthenticatorSelectionCriteria.builder()
+                    .authenticatorAttachment(AuthenticatorAttachment.CROSS_PLATFORM)
+                    .build())
+                .build()));
+    }
+
+}
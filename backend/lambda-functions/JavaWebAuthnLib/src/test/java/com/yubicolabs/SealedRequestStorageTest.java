@@ -0,0 +1,65 @@
+package com.yubicolabs;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import org.junit.jupiter.api.Test;
+
+import com.yubico.webauthn.data.ByteArray;
+import java.nio.charset.StandardCharsets;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneOffset;
+
+
+public class SealedRequestStorageTest {
+
+    private static final byte[] KEY = new byte[32];
+    private static final ByteArray UNUSED_ID = new ByteArray(new byte[32]);
+
+    private final InMemoryKeyValueStore usedChallenges = new InMemoryKeyValueStore();
+
+    private SealedRequestStorage<String> storage(String prefix, Clock clock) {
+        return new SealedRequestStorage<>(KEY, usedChallenges, prefix, String.class,
+            value -> new ByteArray(value.getBytes(StandardCharsets.UTF_8)), Duration.ofMinutes(5), clock);
+    }
+
+    @Test
+    public void takeOpensTokenOnlyOnce() {
+        SealedRequestStorage<String> storage = storage("requests", Clock.systemUTC());
+        ByteArray token = storage.issue(UNUSED_ID, "challenge");
+
+        assertEquals("challenge", storage.getIfPresent(token));
+        assertEquals("challenge", storage.take(token));
+        assertNull(storage.take(token));
+        assertNull(storage.getIfPresent(token));
+    }
+
+    @Test
+    public void tamperedTokenIsRejected() {
+        SealedRequestStorage<String> storage = storage("requests", Clock.systemUTC());
+        byte[] token = storage.issue(UNUSED_ID, "challenge").getBytes();
+        token[token.length - 1] ^= 1;
+
+        assertNull(storage.take(new ByteArray(token)));
+    }
+
+    @Test
+    public void tokenIsBoundToItsPrefix() {
+        ByteArray token = storage("registrationRequests", Clock.systemUTC()).issue(UNUSED_ID, "challenge");
+
+        assertNull(storage("assertionRequests", Clock.systemUTC()).take(token));
+    }
+
+    @Test
+    public void expiredTokenIsRejected() {
+        Instant issuedAt = Instant.parse("2022-01-01T00:00:00Z");
+        ByteArray token = storage("requests", Clock.fixed(issuedAt, ZoneOffset.UTC)).issue(UNUSED_ID, "challenge");
+
+        SealedRequestStorage<String> later = storage("requests",
+            Clock.fixed(issuedAt.plus(Duration.ofMinutes(6)), ZoneOffset.UTC));
+        assertNull(later.take(token));
+    }
+
+}
@@ -0,0 +1,49 @@
+package com.yubicolabs;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import org.junit.jupiter.api.Test;
+
+
+public class StreamingAppTest {
+
+    private final StreamingApp app = new StreamingApp(null);
+
+    @Test
+    public void readEvent_unwrapsStringPayload() throws Exception {
+        // As sent by the Node callers: JSON.stringify(JSON.stringify(event))
+        JsonNode event = app.readEvent(stream("\"{\\\"type\\\":\\\"startAuthentication\\\",\\\"username\\\":\\\"foo\\\"}\""));
+        assertEquals("startAuthentication", event.get("type").asText());
+        assertEquals("foo", event.get("username").asText());
+    }
+
+    @Test
+    public void readEvent_readsObjectPayload() throws Exception {
+        JsonNode event = app.readEvent(stream("{\"type\":\"startAuthentication\",\"username\":\"foo\"}"));
+        assertEquals("startAuthentication", event.get("type").asText());
+    }
+
+    @Test
+    public void writeResult_writesStringsAsJsonStrings() throws Exception {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        app.writeResult("{\"a\":\"b\"}", output);
+        assertEquals("\"{\\\"a\\\":\\\"b\\\"}\"", output.toString("UTF-8"));
+    }
+
+    @Test
+    public void writeResult_writesExceptionMessage() throws Exception {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        app.writeResult(new Exception("Credential not found"), output);
+        JsonNode result = Codecs.json().readTree(output.toByteArray());
+        assertEquals("Credential not found", result.get("message").asText());
+    }
+
+    private static ByteArrayInputStream stream(String payload) {
+        return new ByteArrayInputStream(payload.getBytes(StandardCharsets.UTF_8));
+    }
+
+}
@@ -0,0 +1,103 @@
+package com.yubicolabs;
+
+import com.yubico.webauthn.data.ByteArray;
+import com.yubicolabs.data.CredentialRegistration;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.Collection;
+import java.util.Optional;
+
+
+public class UnitOfWorkRegistrationStorageTest {
+
+    private final ByteArray userHandle = new ByteArray(new byte[] { 1, 2, 3, 4 });
+    private final ByteArray credentialId = new ByteArray(new byte[] { 5, 6, 7, 8 });
+
+    private CountingRegistrationStorage backend;
+    private UnitOfWorkRegistrationStorage storage;
+
+    @BeforeEach
+    void setUp() {
+        backend = new CountingRegistrationStorage();
+        storage = new UnitOfWorkRegistrationStorage(backend);
+        backend.addRegistrationByUsername("foo-user", CachingRegistrationStorageTest.registration(
+            "foo-user", userHandle, credentialId));
+        storage.begin();
+    }
+
+    @Test
+    public void assertionCallbacksAreServedFromRowsReadByCredentialId() {
+        storage.getRegistrationsByCredentialId(credentialId);
+
+        assertEquals(Optional.of(userHandle), storage.getUserHandleForUsername("foo-user"));
+        assertEquals(Optional.of("foo-user"), storage.getUsernameForUserHandle(userHandle));
+        assertTrue(storage.lookup(credentialId, userHandle).isPresent());
+
+        assertEquals(1, backend.reads);
+    }
+
+    @Test
+    public void rowsReadByCredentialIdDoNotAnswerForOtherUsers() {
+        storage.getRegistrationsByCredentialId(credentialId);
+
+        ByteArray otherUserHandle = new ByteArray(new byte[] { 9, 9, 9, 9 });
+        assertFalse(storage.lookup(credentialId, otherUserHandle).isPresent());
+        assertEquals(Optional.empty(), storage.getUserHandleForUsername("bar-user"));
+    }
+
+    @Test
+    public void lookupReadsTheCredentialByIdEvenIfItsUserIsLoaded() {
+        assertEquals(Optional.of(userHandle), storage.getUserHandleForUsername("foo-user"));
+        assertTrue(storage.lookup(credentialId, userHandle).isPresent());
+        assertTrue(storage.lookup(credentialId, userHandle).isPresent());
+
+        assertEquals(2, backend.reads);
+    }
+
+    @Test
+    public void writeForgetsOnlyTheRowsOfTheUserWrittenTo() {
+        ByteArray otherUserHandle = new ByteArray(new byte[] { 9, 9, 9, 9 });
+        ByteArray otherCredentialId = new ByteArray(new byte[] { 10, 10, 10, 10 });
+        backend.addRegistrationByUsername("bar-user", CachingRegistrationStorageTest.registration(
+            "bar-user", otherUserHandle, otherCredentialId));
+        storage.getRegistrationsByUsername("foo-user");
+        storage.getRegistrationsByUsername("bar-user");
+
+        storage.updateCredentialNickname("foo-user", credentialId, "nickname");
+        int reads = backend.reads;
+
+        storage.getRegistrationsByUsername("bar-user");
+        assertEquals(reads, backend.reads);
+        storage.getRegistrationsByUsername("foo-user");
+        assertEquals(reads + 1, backend.reads);
+    }
+
+    private static class CountingRegistrationStorage extends InMemoryRegistrationStorage {
+        int reads = 0;
+
+        @Override
+        public Collection<CredentialRegistration> getRegistrationsByUsername(String username) {
+            reads++;
+            return super.getRegistrationsByUsername(username);
+        }
+
+        @Override
+        public Collection<CredentialRegistration> getRegistrationsByUserHandle(ByteArray userHandle) {
+            reads++;
+            return super.getRegistrationsByUserHandle(userHandle);
+        }
+
+        @Override
+        public Collection<CredentialRegistration> getRegistrationsByCredentialId(ByteArray credentialId) {
+            reads++;
+            return super.getRegistrationsByCredentialId(credentialId);
+        }
+    }
+
+}
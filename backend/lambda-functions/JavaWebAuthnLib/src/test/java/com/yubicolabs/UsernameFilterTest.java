@@ -0,0 +1,126 @@
+package com.yubicolabs;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.stream.Collectors;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+
+public class UsernameFilterTest {
+
+    private FakeSource source;
+    private MutableClock clock;
+    private UsernameFilter filter;
+
+    @BeforeEach
+    void setUp() {
+        source = new FakeSource();
+        source.usernames.add("foo-user");
+        clock = new MutableClock();
+        filter = new UsernameFilter(source, Duration.ofSeconds(1), Duration.ofHours(1), clock);
+    }
+
+    @Test
+    public void unknownUsernamesAreRejectedWithoutQueries() {
+        assertTrue(filter.mightExist("foo-user"));
+        assertFalse(filter.mightExist("bar-user"));
+
+        int queries = source.queries;
+        assertFalse(filter.mightExist("baz-user"));
+        assertEquals(queries, source.queries);
+    }
+
+    @Test
+    public void comparesLikeTheUsernameColumn() {
+        assertTrue(filter.mightExist("FOO-user"));
+        assertTrue(filter.mightExist("föo-user"));
+    }
+
+    @Test
+    public void usersAddedHereAreKnownAtOnce() {
+        assertFalse(filter.mightExist("bar-user"));
+        filter.add("bar-user");
+        assertTrue(filter.mightExist("bar-user"));
+    }
+
+    @Test
+    public void usersAddedElsewhereAreKnownAfterRefreshInterval() {
+        assertFalse(filter.mightExist("bar-user"));
+        source.usernames.add("bar-user");
+
+        clock.advance(Duration.ofSeconds(2));
+        assertTrue(filter.mightExist("bar-user"));
+    }
+
+    @Test
+    public void letsEverythingThroughIfTheSourceFails() {
+        source.failing = true;
+        assertTrue(filter.mightExist("bar-user"));
+    }
+
+    private static class FakeSource implements UsernameSource {
+        final TreeSet<String> usernames = new TreeSet<>();
+        int queries = 0;
+        boolean failing = false;
+
+        @Override
+        public long usernameCount() {
+            return query().size();
+        }
+
+        @Override
+        public List<String> usernamesAfter(String after, int limit) {
+            return query().stream()
+                .filter(username -> after == null || username.compareTo(after) > 0)
+                .limit(limit)
+                .collect(Collectors.toList());
+        }
+
+        @Override
+        public List<String> usernamesRegisteredSince(Instant since) {
+            return new ArrayList<>(query());
+        }
+
+        private TreeSet<String> query() {
+            queries++;
+            if (failing) {
+                throw new IllegalStateException("Database unavailable");
+            }
+            return usernames;
+        }
+    }
+
+    private static class MutableClock extends Clock {
+        private Instant now = Instant.parse("2022-06-01T00:00:00Z");
+
+        void advance(Duration duration) {
+            now = now.plus(duration);
+        }
+
+        @Override
+        public ZoneId getZone() {
+            return ZoneId.of("UTC");
+        }
+
+        @Override
+        public Clock withZone(ZoneId zone) {
+            return this;
+        }
+
+        @Override
+        public Instant instant() {
+            return now;
+        }
+    }
+
+}